@@ -21,9 +21,9 @@ import org.opensearch.client.opensearch._types.mapping.TextProperty;
 import org.opensearch.client.opensearch._types.mapping.TypeMapping;
 import org.opensearch.client.opensearch.indices.CreateIndexRequest;
 import org.opensearch.client.opensearch.indices.CreateIndexResponse;
-import org.opensearch.client.opensearch.indices.DeleteIndexRequest;
 import org.opensearch.client.opensearch.indices.IndexSettings;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import jakarta.json.stream.JsonParser;
@@ -36,23 +36,53 @@ public class IndexManager {
   @Autowired
   private OpenSearchClient searchClient;
 
+  @Value("#{latestSnapshotIndex}")
+  private String latestSnapshotIndex;
+
+  @Value("#{changesetOutboxIndex}")
+  private String changesetOutboxIndex;
+
+  @Value("#{changesetHistoryIndex}")
+  private String changesetHistoryIndex;
+
+  @Value("#{notificationSubscriptionIndex}")
+  private String notificationSubscriptionIndex;
+
   public void setUpIndices() throws IOException {
     log.info("Creating index for documents");
-    create("steckbrief", "steckbrief-index-opensearch.json");
+    createIfAbsent("steckbrief", "steckbrief-index-opensearch.json");
     log.info("Creating index for changesets");
-    create("changeset", "changeset-index-opensearch.json");
+    createIfAbsent("changeset", "changeset-index-opensearch.json");
+    // documents, their changesets and the snapshots they are computed from survive restarts
+    // together, otherwise an unchanged upload would be skipped for a document that is gone
+    log.info("Creating index for latest document snapshots");
+    createIfAbsent(latestSnapshotIndex, "changeset-latest-index-opensearch.json");
+    log.info("Creating index for pending changesets");
+    createIfAbsent(changesetOutboxIndex, "changeset-outbox-index-opensearch.json");
+    log.info("Creating index for periodic document snapshots");
+    createIfAbsent(changesetHistoryIndex, "changeset-history-index-opensearch.json");
+    log.info("Creating index for notification subscriptions");
+    createIfAbsent(notificationSubscriptionIndex,
+        "notification-subscription-index-opensearch.json");
   }
 
-  protected void create(String indexName, String indexFilename) throws IOException {
-    DeleteIndexRequest deleteIndexRequest =
-        new DeleteIndexRequest.Builder().index(indexName).build();
-    searchClient.indices().delete(deleteIndexRequest);
+  /**
+   * Creates the index unless it exists already, keeping its documents.
+   */
+  protected void createIfAbsent(String indexName, String indexFilename) throws IOException {
+    if (searchClient.indices().exists(request -> request.index(indexName)).value()) {
+      log.info("Index {} exists already", indexName);
+      return;
+    }
+    createIndex(indexName, indexFilename);
+  }
 
+  private void createIndex(String indexName, String indexFilename) throws IOException {
     JsonpMapper mapper = searchClient._transport().jsonpMapper();
     JsonNode indexDef = new ObjectMapper()
         .readTree(new InputStreamReader(
-            Objects.requireNonNull(this.getClass().getResourceAsStream(indexFilename))))
-        .findPath("/" + indexName);
+            Objects.requireNonNull(this.getClass().getResourceAsStream("/" + indexFilename))))
+        .path(indexName);
 
     try (
         JsonParser settingsParser = mapper.jsonProvider()
@@ -4,6 +4,7 @@ import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.actuate.autoconfigure.metrics.MeterRegistryCustomizer;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.annotation.EnableScheduling;
 import com.fasterxml.jackson.core.JsonFactoryBuilder;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import io.micrometer.core.instrument.Meter.Type;
@@ -13,6 +14,7 @@ import io.micrometer.core.instrument.MeterRegistry;
  * PivioServerConfig
  */
 @Configuration
+@EnableScheduling
 public class PivioServerConfig {
 
   @Bean
@@ -20,6 +22,30 @@ public class PivioServerConfig {
     return indexName;
   }
 
+  @Bean
+  String latestSnapshotIndex(
+      @Value("${latestSnapshotIndex:changeset-latest}") String indexName) {
+    return indexName;
+  }
+
+  @Bean
+  String changesetOutboxIndex(
+      @Value("${changesetOutboxIndex:changeset-outbox}") String indexName) {
+    return indexName;
+  }
+
+  @Bean
+  String changesetHistoryIndex(
+      @Value("${changesetHistoryIndex:changeset-history}") String indexName) {
+    return indexName;
+  }
+
+  @Bean
+  String notificationSubscriptionIndex(
+      @Value("${notificationSubscriptionIndex:notification-subscription}") String indexName) {
+    return indexName;
+  }
+
   @Bean
   String pivioIndex(@Value("${pivioIndex:steckbrief}") String indexName) {
     return indexName;
@@ -34,6 +60,20 @@ public class PivioServerConfig {
       registry.config().namingConvention().name("counter.calls.document.post", Type.COUNTER);
       registry.config().namingConvention().name("counter.calls.document.id.delete", Type.COUNTER);
       registry.config().namingConvention().name("counter.calls.document.get", Type.COUNTER);
+      registry.config().namingConvention().name("counter.calls.document.bulk.post",
+          Type.COUNTER);
+      registry.config().namingConvention().name("counter.calls.document.mget", Type.COUNTER);
+      registry.config().namingConvention().name("counter.search.coalesced", Type.COUNTER);
+      registry.config().namingConvention().name("counter.calls.document.facets", Type.COUNTER);
+      registry.config().namingConvention().name("counter.changeset.conflicts", Type.COUNTER);
+      registry.config().namingConvention().name("counter.calls.changeset.stream", Type.COUNTER);
+      registry.config().namingConvention().name("counter.calls.changeset.stats", Type.COUNTER);
+      registry.config().namingConvention().name("counter.calls.notification.subscription.post",
+          Type.COUNTER);
+      registry.config().namingConvention().name("counter.calls.notification.subscription.get",
+          Type.COUNTER);
+      registry.config().namingConvention().name("counter.calls.notification.subscription.delete",
+          Type.COUNTER);
     };
   }
 
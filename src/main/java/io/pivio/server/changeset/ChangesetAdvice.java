@@ -1,10 +1,17 @@
 package io.pivio.server.changeset;
 
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.bind.annotation.ResponseStatus;
 import org.springframework.web.bind.annotation.RestControllerAdvice;
+import io.pivio.server.document.InvalidBulkRequestException;
 import io.pivio.server.document.MandatoryFieldMissingOrEmptyException;
+import io.pivio.server.document.WriteQueueFullException;
+import io.pivio.server.elasticsearch.InvalidCursorException;
+import io.pivio.server.elasticsearch.InvalidQueryException;
+import io.pivio.server.notification.InvalidSubscriptionException;
 
 /**
  * ChangesetAdvice
@@ -18,6 +25,12 @@ public class ChangesetAdvice {
     return e.getMessage();
   }
 
+  @ExceptionHandler(InvalidChangesetParameterException.class)
+  @ResponseStatus(HttpStatus.BAD_REQUEST)
+  String invalidChangesetParameterHandler(InvalidChangesetParameterException e) {
+    return e.getMessage();
+  }
+
   @ExceptionHandler(DocumentNotFoundException.class)
   @ResponseStatus(HttpStatus.BAD_REQUEST)
   String documentNotFoundHandler(DocumentNotFoundException e) {
@@ -29,4 +42,53 @@ public class ChangesetAdvice {
   String mandatoryFieldMissingOrEmptyHandler(MandatoryFieldMissingOrEmptyException e) {
     return e.getMessage();
   }
+
+  @ExceptionHandler(InvalidBulkRequestException.class)
+  @ResponseStatus(HttpStatus.BAD_REQUEST)
+  String invalidBulkRequestHandler(InvalidBulkRequestException e) {
+    return e.getMessage();
+  }
+
+  @ExceptionHandler(WriteQueueFullException.class)
+  ResponseEntity<String> writeQueueFullHandler(WriteQueueFullException e) {
+    return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+        .header(HttpHeaders.RETRY_AFTER, String.valueOf(e.getRetryAfterSeconds()))
+        .body(e.getMessage());
+  }
+
+  @ExceptionHandler(InvalidCursorException.class)
+  @ResponseStatus(HttpStatus.BAD_REQUEST)
+  String invalidCursorHandler(InvalidCursorException e) {
+    return e.getMessage();
+  }
+
+  @ExceptionHandler(InvalidQueryException.class)
+  @ResponseStatus(HttpStatus.BAD_REQUEST)
+  String invalidQueryHandler(InvalidQueryException e) {
+    return e.getMessage();
+  }
+
+  @ExceptionHandler(InvalidAsOfParameterException.class)
+  @ResponseStatus(HttpStatus.BAD_REQUEST)
+  String invalidAsOfParameterHandler(InvalidAsOfParameterException e) {
+    return e.getMessage();
+  }
+
+  @ExceptionHandler(HistoryNotAvailableException.class)
+  @ResponseStatus(HttpStatus.GONE)
+  String historyNotAvailableHandler(HistoryNotAvailableException e) {
+    return e.getMessage();
+  }
+
+  @ExceptionHandler(InvalidResumeTokenException.class)
+  @ResponseStatus(HttpStatus.BAD_REQUEST)
+  String invalidResumeTokenHandler(InvalidResumeTokenException e) {
+    return e.getMessage();
+  }
+
+  @ExceptionHandler(InvalidSubscriptionException.class)
+  @ResponseStatus(HttpStatus.BAD_REQUEST)
+  String invalidSubscriptionHandler(InvalidSubscriptionException e) {
+    return e.getMessage();
+  }
 }
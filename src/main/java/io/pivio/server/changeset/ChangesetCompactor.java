@@ -0,0 +1,225 @@
+package io.pivio.server.changeset;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.joda.time.DateTime;
+import org.joda.time.format.ISODateTimeFormat;
+import org.opensearch.client.json.JsonData;
+import org.opensearch.client.opensearch.OpenSearchClient;
+import org.opensearch.client.opensearch._types.Conflicts;
+import org.opensearch.client.opensearch._types.FieldValue;
+import org.opensearch.client.opensearch._types.OpenSearchException;
+import org.opensearch.client.opensearch._types.SortOrder;
+import org.opensearch.client.opensearch._types.aggregations.Aggregate;
+import org.opensearch.client.opensearch._types.aggregations.StringTermsBucket;
+import org.opensearch.client.opensearch._types.query_dsl.Query;
+import org.opensearch.client.opensearch.core.BulkResponse;
+import org.opensearch.client.opensearch.core.SearchResponse;
+import org.opensearch.client.opensearch.core.bulk.BulkOperation;
+import org.opensearch.client.opensearch.core.search.Hit;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import com.fasterxml.jackson.databind.JsonNode;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * Periodically writes a {@link HistorySnapshot} of every document that got at least
+ * {@code pivio.changeset.compaction.snapshot-every} changesets since its last one, so rebuilding a
+ * past state replays a bounded number of changesets.
+ *
+ * <p>
+ * With a {@code pivio.changeset.compaction.retention-days} above zero, the changesets up to the
+ * newest snapshot older than the retention period are deleted together with the older snapshots.
+ * That snapshot then rolls up the expired history, states before it can't be rebuilt anymore.
+ */
+@Log4j2
+@Component
+public class ChangesetCompactor {
+
+  private static final String DOCUMENTS = "documents";
+  private static final String LATEST_ORDER = "latest";
+  private static final String EXPIRED = "expired";
+  private static final String EXPIRED_ORDER = "order";
+
+  private final OpenSearchClient client;
+  private final boolean enabled;
+  private final long snapshotEvery;
+  private final int retentionDays;
+  private final int pageSize;
+  private final Counter snapshotCounter;
+
+  @Value("#{latestSnapshotIndex}")
+  private String latestSnapshotIndex;
+
+  @Value("#{changesetHistoryIndex}")
+  private String changesetHistoryIndex;
+
+  @Value("#{changesetIndex}")
+  private String changesetIndex;
+
+  public ChangesetCompactor(OpenSearchClient client, MeterRegistry registry,
+      @Value("${pivio.changeset.compaction.enabled:true}") boolean enabled,
+      @Value("${pivio.changeset.compaction.snapshot-every:50}") long snapshotEvery,
+      @Value("${pivio.changeset.compaction.retention-days:0}") int retentionDays,
+      @Value("${pivio.changeset.compaction.page-size:500}") int pageSize) {
+    this.client = client;
+    this.enabled = enabled;
+    this.snapshotEvery = Math.max(1, snapshotEvery);
+    this.retentionDays = retentionDays;
+    this.pageSize = pageSize;
+    this.snapshotCounter = registry.counter("changeset.compaction.snapshots");
+  }
+
+  @Scheduled(initialDelayString = "${pivio.changeset.compaction.initial-delay:60000}",
+      fixedDelayString = "${pivio.changeset.compaction.interval:3600000}")
+  public void compact() {
+    if (!enabled) {
+      return;
+    }
+    final long start = System.nanoTime();
+    try {
+      final long cutoff =
+          retentionDays > 0 ? DateTime.now().minusDays(retentionDays).getMillis() : 0L;
+      long documents = 0;
+      List<String> searchAfter = List.of();
+      while (true) {
+        final List<String> searchAfterParam = searchAfter;
+        SearchResponse<LatestSnapshot> page = client.search(request -> {
+          request.index(latestSnapshotIndex).size(pageSize)
+              .sort(sort -> sort.field(field -> field.field("document").order(SortOrder.Asc)));
+          if (!searchAfterParam.isEmpty()) {
+            request.searchAfter(searchAfterParam);
+          }
+          return request;
+        }, LatestSnapshot.class);
+        List<Hit<LatestSnapshot>> hits = page.hits().hits();
+        if (hits.isEmpty()) {
+          break;
+        }
+        compact(hits.stream().map(Hit::source).toList(), cutoff);
+        documents += hits.size();
+        searchAfter = hits.getLast().sort();
+      }
+      log.info("compacted changesets of {} documents in {}ms", documents,
+          TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    } catch (OpenSearchException | IOException e) {
+      log.error("can't compact changesets due to " + e.getMessage(), e);
+    }
+  }
+
+  private void compact(List<LatestSnapshot> latestSnapshots, long cutoff) throws IOException {
+    final Map<String, HistoryState> states = readHistoryStates(
+        latestSnapshots.stream().map(LatestSnapshot::getDocument).toList(), cutoff);
+
+    final List<BulkOperation> snapshots = new ArrayList<>();
+    for (LatestSnapshot latest : latestSnapshots) {
+      final HistoryState state = states.getOrDefault(latest.getDocument(), HistoryState.NONE);
+      final long changesetsSinceSnapshot = latest.getOrder() - state.latestOrder();
+      // the first snapshot of a document is taken right away to bound its replays
+      if (latest.isDeleted() || changesetsSinceSnapshot <= 0
+          || state.latestOrder() > 0 && changesetsSinceSnapshot < snapshotEvery) {
+        continue;
+      }
+      final HistorySnapshot snapshot = HistorySnapshot.builder().document(latest.getDocument())
+          .order(latest.getOrder()).timestamp(changeTime(latest.getSnapshot()))
+          .snapshot(latest.getSnapshot()).build();
+      snapshots.add(BulkOperation.of(operation -> operation.index(index -> index
+          .index(changesetHistoryIndex).id(snapshot.getDocument() + "-" + snapshot.getOrder())
+          .document(snapshot))));
+    }
+    if (!snapshots.isEmpty()) {
+      BulkResponse response = client.bulk(request -> request.operations(snapshots));
+      long failed = response.items().stream().filter(item -> item.error() != null).count();
+      snapshotCounter.increment(snapshots.size() - failed);
+      if (failed > 0) {
+        log.warn("{} of {} history snapshots couldn't be written", failed, snapshots.size());
+      }
+    }
+
+    final List<Query> expiredChangesets = new ArrayList<>();
+    final List<Query> expiredSnapshots = new ArrayList<>();
+    for (Map.Entry<String, HistoryState> state : states.entrySet()) {
+      final long rollUpOrder = state.getValue().expiredOrder();
+      if (rollUpOrder <= 0) {
+        continue;
+      }
+      expiredChangesets.add(upTo(state.getKey(), rollUpOrder, true));
+      expiredSnapshots.add(upTo(state.getKey(), rollUpOrder, false));
+    }
+    if (!expiredChangesets.isEmpty()) {
+      deleteByQuery(changesetIndex, expiredChangesets);
+      deleteByQuery(changesetHistoryIndex, expiredSnapshots);
+    }
+  }
+
+  /**
+   * Reads the order of the newest snapshot and of the newest one older than the cutoff per
+   * document.
+   */
+  private Map<String, HistoryState> readHistoryStates(List<String> ids, long cutoff)
+      throws IOException {
+    final SearchResponse<JsonNode> response = client.search(request -> request
+        .index(changesetHistoryIndex).size(0)
+        .query(query -> query.terms(terms -> terms.field("document")
+            .terms(values -> values.value(ids.stream().map(FieldValue::of).toList()))))
+        .aggregations(DOCUMENTS, documents -> documents
+            .terms(terms -> terms.field("document").size(ids.size()))
+            .aggregations(LATEST_ORDER, latest -> latest.max(max -> max.field("order")))
+            .aggregations(EXPIRED, expired -> expired
+                .filter(filter -> filter
+                    .range(range -> range.field("timestamp").lt(JsonData.of(cutoff))))
+                .aggregations(EXPIRED_ORDER, order -> order.max(max -> max.field("order"))))),
+        JsonNode.class);
+    final Map<String, HistoryState> states = new HashMap<>();
+    final Aggregate documents = response.aggregations().get(DOCUMENTS);
+    for (StringTermsBucket bucket : documents.sterms().buckets().array()) {
+      final Aggregate expired = bucket.aggregations().get(EXPIRED);
+      final long expiredOrder = expired.filter().docCount() == 0 ? 0L
+          : (long) expired.filter().aggregations().get(EXPIRED_ORDER).max().value();
+      states.put(bucket.key(), new HistoryState(
+          (long) bucket.aggregations().get(LATEST_ORDER).max().value(), expiredOrder));
+    }
+    return states;
+  }
+
+  private Query upTo(String id, long order, boolean inclusive) {
+    return Query.of(query -> query.bool(bool -> bool
+        .filter(filter -> filter.term(term -> term.field("document").value(FieldValue.of(id))))
+        .filter(filter -> filter.range(range -> inclusive
+            ? range.field("order").lte(JsonData.of(order))
+            : range.field("order").lt(JsonData.of(order))))));
+  }
+
+  private void deleteByQuery(String index, List<Query> queries) throws IOException {
+    final Long deleted = client.deleteByQuery(request -> request.index(index)
+        .conflicts(Conflicts.Proceed).query(query -> query.bool(bool -> bool.should(queries))))
+        .deleted();
+    log.info("deleted {} expired entries from {}", deleted, index);
+  }
+
+  /**
+   * The last update of a stored document is the time of its latest changeset.
+   */
+  private long changeTime(JsonNode document) {
+    final String lastUpdate = document.path("lastUpdate").asText(null);
+    if (lastUpdate != null) {
+      try {
+        return ISODateTimeFormat.dateTimeParser().parseMillis(lastUpdate);
+      } catch (IllegalArgumentException e) {
+        log.debug("can't parse lastUpdate {} of {}", lastUpdate, document.path("id").asText());
+      }
+    }
+    return System.currentTimeMillis();
+  }
+
+  private record HistoryState(long latestOrder, long expiredOrder) {
+    static final HistoryState NONE = new HistoryState(0L, 0L);
+  }
+}
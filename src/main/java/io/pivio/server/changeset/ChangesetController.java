@@ -1,23 +1,38 @@
 package io.pivio.server.changeset;
 
 import java.io.IOException;
-import org.joda.time.DateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.regex.Pattern;
+import org.joda.time.format.ISODateTimeFormat;
 import org.opensearch.client.json.JsonData;
-import org.opensearch.client.opensearch._types.query_dsl.BoolQuery;
-import org.opensearch.client.opensearch._types.query_dsl.MatchAllQuery;
-import org.opensearch.client.opensearch._types.query_dsl.MatchQuery;
+import org.opensearch.client.opensearch._types.FieldValue;
+import org.opensearch.client.opensearch._types.aggregations.CalendarInterval;
 import org.opensearch.client.opensearch._types.query_dsl.Query;
-import org.opensearch.client.opensearch._types.query_dsl.RangeQuery;
+import org.opensearch.client.opensearch.core.search.Hit;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.CrossOrigin;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
 import io.micrometer.core.instrument.Counter;
 import io.micrometer.core.instrument.MeterRegistry;
+import io.pivio.server.elasticsearch.ChangesetCursor;
 import io.pivio.server.elasticsearch.ElasticsearchQueryHelper;
+import jakarta.servlet.http.HttpServletResponse;
 import lombok.extern.log4j.Log4j2;
 
 @CrossOrigin
@@ -25,103 +40,253 @@ import lombok.extern.log4j.Log4j2;
 @Log4j2
 public class ChangesetController {
 
+  static final String NEXT_CURSOR_HEADER = "X-Next-Cursor";
+
+  private static final int DEFAULT_PAGE_SIZE = 100;
+  private static final int DEFAULT_STATS_SIZE = 10;
+  private static final Pattern SINCE = Pattern.compile("[1-9][0-9]{0,5}[mhdw]");
+  private static final Set<String> OPERATIONS = Set.of("add", "remove", "replace");
+
   private final Counter getChangeSetCounter;
   private final Counter docIdChangeSetCounter;
+  private final Counter streamChangeSetCounter;
+  private final Counter statsChangeSetCounter;
   private final ElasticsearchQueryHelper queryHelper;
+  private final ChangesetFeed changesetFeed;
+  private final ChangesetStats changesetStats;
+  private final ObjectMapper mapper;
 
-  public ChangesetController(MeterRegistry registry, ElasticsearchQueryHelper helper) {
+  @Value("${pivio.changeset.max-page-size:1000}")
+  private int maxPageSize;
+
+  public ChangesetController(MeterRegistry registry, ElasticsearchQueryHelper helper,
+      ChangesetFeed changesetFeed, ChangesetStats changesetStats, ObjectMapper mapper) {
     this.getChangeSetCounter = registry.counter("counter.calls.changeset.get");
     this.docIdChangeSetCounter = registry.counter("counter.calls.document.id.changeset.get");
+    this.streamChangeSetCounter = registry.counter("counter.calls.changeset.stream");
+    this.statsChangeSetCounter = registry.counter("counter.calls.changeset.stats");
     this.queryHelper = helper;
+    this.changesetFeed = changesetFeed;
+    this.changesetStats = changesetStats;
+    this.mapper = mapper;
   }
 
+  /**
+   * Returns the changesets of all documents, optionally only those changing a field below one of
+   * the comma separated {@code path}s with one of the comma separated {@code op}s. With
+   * {@code distinct=true} only the ids of the documents with matching changesets are returned.
+   */
   @GetMapping(value = "/changeset", produces = MediaType.APPLICATION_JSON_VALUE)
-  public ArrayNode listAll(@RequestParam(required = false) String since) throws IOException {
+  public ArrayNode listAll(@RequestParam(required = false) String since,
+      @RequestParam(required = false) String from, @RequestParam(required = false) String to,
+      @RequestParam(required = false) String path, @RequestParam(required = false) String op,
+      @RequestParam(defaultValue = "false") boolean distinct,
+      @RequestParam(required = false) Integer size,
+      @RequestParam(required = false) String cursor, HttpServletResponse response)
+      throws IOException {
     getChangeSetCounter.increment();
-    if (!isSinceParameterValid(since)) {
-      log.info("Received changeset request with invalid since parameter in {} for all documents",
-          since);
-      throw new InvalidSinceParameterException(since);
+    final Query query = withFieldFilter(createQuery(null, since, from, to), path, op);
+    log.debug("Retrieving changesets for all documents with since {}, from {}, to {}, path {}"
+        + " and op {}", since, from, to, path, op);
+    if (distinct) {
+      if (size != null && (size < 1 || size > maxPageSize)) {
+        throw new InvalidChangesetParameterException("size=" + size);
+      }
+      return changesetStats.distinctDocuments(query, size == null ? maxPageSize : size);
     }
-
-    log.debug("Retrieving changesets for all documents with since parameter {}", since);
-    return queryHelper.retrieveAllChangesets(createQuery(since));
+    return retrieve(query, size, cursor, response);
   }
 
   @GetMapping(value = "/document/{id}/changeset", produces = MediaType.APPLICATION_JSON_VALUE)
-  public ArrayNode get(@PathVariable String id, @RequestParam(required = false) String since)
+  public ArrayNode get(@PathVariable String id, @RequestParam(required = false) String since,
+      @RequestParam(required = false) String from, @RequestParam(required = false) String to,
+      @RequestParam(required = false) Integer size,
+      @RequestParam(required = false) String cursor, HttpServletResponse response)
       throws IOException {
     docIdChangeSetCounter.increment();
 
-    if (queryHelper.isDocumentPresent(id).isEmpty()) {
+    if (!queryHelper.isDocumentPresent(id)) {
       log.info("Client wants to retrieve changesets for missing document with id {}", id);
       throw new DocumentNotFoundException(id);
     }
 
-    if (!isSinceParameterValid(since)) {
-      log.info("Received changeset request with invalid since parameter in {} for document {}",
-          since, id);
-      throw new InvalidSinceParameterException(since);
+    final Query query = createQuery(id, since, from, to);
+    log.debug("Retrieving changesets for document {} with since {}, from {} and to {}", id, since,
+        from, to);
+    return retrieve(query, size, cursor, response);
+  }
+
+  @GetMapping(value = "/changeset", produces = MediaType.APPLICATION_NDJSON_VALUE)
+  public ResponseEntity<StreamingResponseBody> streamAll(
+      @RequestParam(required = false) String since, @RequestParam(required = false) String from,
+      @RequestParam(required = false) String to, @RequestParam(required = false) String path,
+      @RequestParam(required = false) String op) {
+    getChangeSetCounter.increment();
+    final Query query = withFieldFilter(createQuery(null, since, from, to), path, op);
+    log.debug("Streaming changesets for all documents with since {}, from {} and to {}", since,
+        from, to);
+    return ResponseEntity.ok().contentType(MediaType.APPLICATION_NDJSON)
+        .body(out -> queryHelper.exportAllChangesets(query, out));
+  }
+
+  @GetMapping(value = "/document/{id}/changeset", produces = MediaType.APPLICATION_NDJSON_VALUE)
+  public ResponseEntity<StreamingResponseBody> stream(@PathVariable String id,
+      @RequestParam(required = false) String since, @RequestParam(required = false) String from,
+      @RequestParam(required = false) String to) {
+    docIdChangeSetCounter.increment();
+
+    if (!queryHelper.isDocumentPresent(id)) {
+      log.info("Client wants to retrieve changesets for missing document with id {}", id);
+      throw new DocumentNotFoundException(id);
     }
 
-    log.debug("Retrieving changesets for document {} with since parameter {}", id, since);
-    return queryHelper.retrieveAllChangesets(createQuery(id, since));
+    final Query query = createQuery(id, since, from, to);
+    log.debug("Streaming changesets for document {} with since {}, from {} and to {}", id, since,
+        from, to);
+    return ResponseEntity.ok().contentType(MediaType.APPLICATION_NDJSON)
+        .body(out -> queryHelper.streamAllChangesets(query, out));
   }
 
-  private Query createQuery(String since) {
-    if (since == null) {
-      return new Query.Builder().matchAll(new MatchAllQuery.Builder().build()).build();
-    } else {
-      JsonData sinceDate = calculateSinceDate(since);
-      return new Query.Builder().range(new RangeQuery.Builder().field("timestamp").gte(sinceDate)
-          .lte(JsonData.of("now")).build()).build();
+  /**
+   * Aggregates the changesets of the time range in the cluster: changesets per {@code interval}
+   * (default {@code day}) and the {@code size} documents and field paths changed most often.
+   */
+  @GetMapping(value = "/changeset/_stats", produces = MediaType.APPLICATION_JSON_VALUE)
+  public ObjectNode stats(@RequestParam(required = false) String since,
+      @RequestParam(required = false) String from, @RequestParam(required = false) String to,
+      @RequestParam(defaultValue = "day") String interval,
+      @RequestParam(required = false) Integer size) throws IOException {
+    statsChangeSetCounter.increment();
+    final CalendarInterval calendarInterval = Arrays.stream(CalendarInterval.values())
+        .filter(value -> value.jsonValue().equals(interval)).findFirst()
+        .orElseThrow(() -> new InvalidChangesetParameterException("interval=" + interval));
+    if (size != null && (size < 1 || size > maxPageSize)) {
+      throw new InvalidChangesetParameterException("size=" + size);
     }
+    final Query query = createQuery(null, since, from, to);
+    log.debug("Aggregating changesets per {} with since {}, from {} and to {}", interval, since,
+        from, to);
+    return changesetStats.aggregate(query, calendarInterval,
+        size == null ? DEFAULT_STATS_SIZE : size);
+  }
+
+  /**
+   * Pushes new changesets as server-sent events. Reconnecting clients send the id of the last
+   * received event as {@code Last-Event-ID} header or {@code resume} parameter.
+   */
+  @GetMapping(value = "/changeset/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+  public SseEmitter subscribe(@RequestParam(required = false) String document,
+      @RequestParam(required = false) String path,
+      @RequestParam(required = false) String resume,
+      @RequestHeader(value = "Last-Event-ID", required = false) String lastEventId) {
+    streamChangeSetCounter.increment();
+    log.debug("Subscribing to changesets of document {} below path {} after {}", document, path,
+        resume != null ? resume : lastEventId);
+    return changesetFeed.subscribe(Optional.ofNullable(document), Optional.ofNullable(path),
+        Optional.ofNullable(resume != null ? resume : lastEventId));
   }
 
-  private Query createQuery(String id, String since) {
-    Query matchDocumentId = new Query.Builder()
-        .match(new MatchQuery.Builder().field("document").query(q -> q.stringValue(id)).build())
-        .build();
-    if (since == null) {
-      return matchDocumentId;
-    } else {
-      JsonData sinceDate = calculateSinceDate(since);
-      Query rangeQuery = new Query.Builder().range(new RangeQuery.Builder().field("timestamp")
-          .gte(sinceDate).lte(JsonData.of("now")).build()).build();
-      Query matchAndSinceQuery = new Query.Builder()
-          .bool(new BoolQuery.Builder().must(matchDocumentId, rangeQuery).build()).build();
-      return matchAndSinceQuery;
+  /**
+   * Returns all matching changesets newest first, or with {@code size} or {@code cursor} one page
+   * oldest first. The {@code X-Next-Cursor} header continues after the last changeset returned;
+   * an empty page hands back the given cursor, so it can be polled for newer changesets.
+   */
+  private ArrayNode retrieve(Query query, Integer size, String cursor,
+      HttpServletResponse response) throws IOException {
+    if (size == null && cursor == null) {
+      return queryHelper.retrieveAllChangesets(query);
+    }
+    if (size != null && (size < 1 || size > maxPageSize)) {
+      throw new InvalidChangesetParameterException("size=" + size);
     }
+    final List<String> searchAfter =
+        cursor == null ? List.of() : ChangesetCursor.decode(cursor, mapper).searchAfter();
+    final List<Hit<JsonNode>> hits = queryHelper.retrieveChangesetPage(query,
+        size == null ? DEFAULT_PAGE_SIZE : size, searchAfter);
+    final ArrayNode changesets = mapper.createArrayNode();
+    hits.forEach(hit -> changesets.add(hit.source()));
+    if (!hits.isEmpty()) {
+      response.setHeader(NEXT_CURSOR_HEADER,
+          new ChangesetCursor(hits.getLast().sort()).encode(mapper));
+    } else if (cursor != null) {
+      response.setHeader(NEXT_CURSOR_HEADER, cursor);
+    }
+    return changesets;
   }
 
-  private boolean isSinceParameterValid(String since) {
-    if (since == null) {
-      return true;
+  /**
+   * Combines the optional document with a time range. {@code since} is pushed down as date math
+   * relative to the time of the search, {@code from} and {@code to} are inclusive ISO 8601
+   * timestamps.
+   *
+   * @throws InvalidSinceParameterException if one of the time parameters isn't valid
+   */
+  private Query createQuery(String id, String since, String from, String to) {
+    if (since != null && !SINCE.matcher(since).matches()) {
+      log.info("Received changeset request with invalid since parameter {}", since);
+      throw new InvalidSinceParameterException(since);
+    }
+    final List<Query> filters = new ArrayList<>();
+    if (id != null) {
+      filters.add(
+          Query.of(query -> query.term(term -> term.field("document").value(FieldValue.of(id)))));
     }
-    if (since.length() < 2) {
-      return false;
+    if (since != null || from != null || to != null) {
+      final String lowerBound = from != null ? toTimestamp("from", from)
+          : since != null ? "now-" + since : null;
+      final String upperBound = to != null ? toTimestamp("to", to) : "now";
+      filters.add(Query.of(query -> query.range(range -> {
+        range.field("timestamp").lte(JsonData.of(upperBound));
+        if (lowerBound != null) {
+          range.gte(JsonData.of(lowerBound));
+        }
+        return range;
+      })));
     }
-    if (!(since.charAt(since.length() - 1) == 'd' || since.charAt(since.length() - 1) == 'w')) {
-      return false;
+    if (filters.isEmpty()) {
+      return Query.of(query -> query.matchAll(all -> all));
     }
+    return filters.size() == 1 ? filters.get(0)
+        : Query.of(query -> query.bool(bool -> bool.filter(filters)));
+  }
 
-    try {
-      int sinceValue = Integer.parseInt(since.substring(0, since.length() - 1));
-      return sinceValue > 0;
-    } catch (NumberFormatException e) {
-      return false;
+  /**
+   * Restricts the query to changesets with at least one field that is below one of the paths and
+   * changed by one of the operations. Path and operation are matched within the same nested field.
+   *
+   * @throws InvalidChangesetParameterException if a path doesn't start with a slash or an operation
+   *         is unknown
+   */
+  private Query withFieldFilter(Query query, String path, String op) {
+    if (path == null && op == null) {
+      return query;
     }
+    final List<String> paths = split(path);
+    final List<String> operations = split(op);
+    if (paths.stream().anyMatch(fieldPath -> !fieldPath.startsWith("/"))
+        || !OPERATIONS.containsAll(operations)) {
+      log.info("Received changeset request with invalid path {} or op {}", path, op);
+      throw new InvalidChangesetParameterException("path=" + path + ", op=" + op);
+    }
+    final Query fieldQuery = ChangesetQueries.changingFields(paths, operations);
+    return Query.of(changeset -> changeset.bool(bool -> bool.filter(query).filter(fieldQuery)));
   }
 
-  private JsonData calculateSinceDate(String since) {
-    final DateTime sinceDate;
-    if (since.charAt(since.length() - 1) == 'd') {
-      sinceDate =
-          DateTime.now().minusDays(Integer.parseInt(since.substring(0, since.length() - 1)));
-    } else {
-      sinceDate =
-          DateTime.now().minusWeeks(Integer.parseInt(since.substring(0, since.length() - 1)));
+  private List<String> split(String values) {
+    if (values == null) {
+      return List.of();
+    }
+    return Arrays.stream(values.split(",")).map(String::trim).filter(value -> !value.isEmpty())
+        .distinct().toList();
+  }
+
+  private String toTimestamp(String parameter, String value) {
+    try {
+      return ISODateTimeFormat.dateTime()
+          .print(ISODateTimeFormat.dateTimeParser().withOffsetParsed().parseDateTime(value));
+    } catch (IllegalArgumentException e) {
+      log.info("Received changeset request with invalid {} parameter {}", parameter, value);
+      throw new InvalidSinceParameterException(parameter + "=" + value);
     }
-    return JsonData.of(sinceDate); // ISODateTimeFormat.date().print(sinceDate);
   }
 }
@@ -0,0 +1,333 @@
+package io.pivio.server.changeset;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.joda.time.format.ISODateTimeFormat;
+import org.opensearch.client.opensearch.OpenSearchClient;
+import org.opensearch.client.opensearch._types.FieldValue;
+import org.opensearch.client.opensearch._types.OpenSearchException;
+import org.opensearch.client.opensearch._types.SortOptions;
+import org.opensearch.client.opensearch._types.SortOrder;
+import org.opensearch.client.opensearch._types.query_dsl.Query;
+import org.opensearch.client.opensearch.core.SearchResponse;
+import org.opensearch.client.opensearch.core.search.Hit;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.pivio.server.elasticsearch.Changeset;
+import io.pivio.server.elasticsearch.Fields;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * Pushes changesets to server-sent event subscribers as soon as they are persisted by this
+ * instance; changesets written by other instances only reach their own subscribers. Every event
+ * carries a resume token as its id; a subscriber reconnecting with it first receives the stored
+ * changesets it missed, ordered by timestamp, document and order.
+ *
+ * <p>
+ * Each subscriber has a buffer of {@code pivio.changeset.feed.buffer-size} events. A subscriber
+ * that falls that far behind is disconnected and expected to reconnect with its last token.
+ */
+@Log4j2
+@Component
+public class ChangesetFeed {
+
+  private static final int REPLAY_PAGE_SIZE = 500;
+
+  private final OpenSearchClient client;
+  private final ObjectMapper mapper;
+  private final int bufferSize;
+  private final long timeoutMillis;
+  private final ExecutorService senders =
+      Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("changeset-feed-", 0).factory());
+  private final Set<Subscriber> subscribers = ConcurrentHashMap.newKeySet();
+  private final Counter droppedCounter;
+  private final List<SortOptions> replayOrder = List.of(
+      SortOptions.of(s -> s.field(f -> f.field("timestamp").order(SortOrder.Asc))),
+      SortOptions.of(s -> s.field(f -> f.field("document").order(SortOrder.Asc))),
+      SortOptions.of(s -> s.field(f -> f.field("order").order(SortOrder.Asc))));
+
+  @Value("#{changesetIndex}")
+  private String changesetIndex;
+
+  public ChangesetFeed(OpenSearchClient client, ObjectMapper mapper, MeterRegistry registry,
+      @Value("${pivio.changeset.feed.buffer-size:1000}") int bufferSize,
+      @Value("${pivio.changeset.feed.timeout:1800000}") long timeoutMillis) {
+    this.client = client;
+    this.mapper = mapper;
+    this.bufferSize = bufferSize;
+    this.timeoutMillis = timeoutMillis;
+    Gauge.builder("changeset.feed.subscribers", subscribers, Set::size).register(registry);
+    this.droppedCounter = registry.counter("changeset.feed.dropped");
+  }
+
+  @PreDestroy
+  public void shutdown() {
+    subscribers.forEach(subscriber -> subscriber.emitter.complete());
+    senders.shutdownNow();
+  }
+
+  /**
+   * Subscribes to the changesets of the given document and with fields below the given path
+   * prefix, starting after the given resume token or with the next persisted changeset.
+   *
+   * @throws InvalidResumeTokenException if the token can't be parsed
+   */
+  public SseEmitter subscribe(Optional<String> document, Optional<String> pathPrefix,
+      Optional<String> resumeToken) {
+    final Optional<ResumeToken> resumeAfter = resumeToken.map(ResumeToken::parse);
+    final SseEmitter emitter = newEmitter();
+    final Subscriber subscriber = new Subscriber(emitter, document, pathPrefix);
+    emitter.onCompletion(() -> subscribers.remove(subscriber));
+    emitter.onTimeout(() -> subscribers.remove(subscriber));
+    emitter.onError(e -> subscribers.remove(subscriber));
+    subscribers.add(subscriber);
+    if (resumeAfter.isPresent()) {
+      senders.execute(() -> subscriber.catchUp(resumeAfter.get()));
+    } else {
+      subscriber.goLive();
+    }
+    return emitter;
+  }
+
+  SseEmitter newEmitter() {
+    return new SseEmitter(timeoutMillis);
+  }
+
+  /**
+   * Hands a persisted changeset to all matching subscribers without waiting for them.
+   */
+  public void publish(Changeset changeset) {
+    if (subscribers.isEmpty() || changeset.isEmpty()) {
+      return;
+    }
+    final FeedEvent event = toEvent(changeset);
+    subscribers.forEach(subscriber -> subscriber.offer(event));
+  }
+
+  private FeedEvent toEvent(Changeset changeset) {
+    final ObjectNode json = mapper.createObjectNode();
+    json.put("document", changeset.getDocument());
+    json.put("order", changeset.getOrder());
+    json.put("timestamp", ISODateTimeFormat.dateTime().print(changeset.getTimestamp()));
+    final ArrayNode fields = json.putArray("fields");
+    for (Fields field : changeset.getFields()) {
+      ObjectNode fieldJson =
+          fields.addObject().put("op", field.getOp()).put("path", field.getPath());
+      if (field.getValue() != null) {
+        fieldJson.put("value", field.getValue());
+      }
+    }
+    return new FeedEvent(new ResumeToken(changeset.getTimestamp().getMillis(),
+        changeset.getDocument(), changeset.getOrder()), changeset.getDocument(), json);
+  }
+
+  private record FeedEvent(ResumeToken token, String document, JsonNode changeset) {
+  }
+
+  /**
+   * An event waiting to be sent, remembering whether it was published while its subscriber was
+   * still catching up.
+   */
+  private record BufferedEvent(FeedEvent event, boolean duringCatchUp) {
+  }
+
+  /**
+   * Position in the changeset history, encoded as {@code <timestamp millis>:<order>:<document>}.
+   */
+  record ResumeToken(long timestamp, String document, long order)
+      implements Comparable<ResumeToken> {
+
+    static ResumeToken parse(String token) {
+      final String[] parts = token.split(":", 3);
+      try {
+        if (parts.length == 3 && !parts[2].isEmpty()) {
+          return new ResumeToken(Long.parseLong(parts[0]), parts[2], Long.parseLong(parts[1]));
+        }
+      } catch (NumberFormatException e) {
+        // reported below
+      }
+      throw new InvalidResumeTokenException(token);
+    }
+
+    String encode() {
+      return timestamp + ":" + order + ":" + document;
+    }
+
+    @Override
+    public int compareTo(ResumeToken other) {
+      int result = Long.compare(timestamp, other.timestamp);
+      if (result == 0) {
+        result = document.compareTo(other.document);
+      }
+      return result != 0 ? result : Long.compare(order, other.order);
+    }
+  }
+
+  private final class Subscriber {
+
+    private final SseEmitter emitter;
+    private final Optional<String> document;
+    private final Optional<String> pathPrefix;
+    private final BlockingQueue<BufferedEvent> buffer = new ArrayBlockingQueue<>(bufferSize);
+    private final AtomicBoolean draining = new AtomicBoolean();
+    private volatile boolean live;
+    // the last changeset read while catching up, null for subscribers that started live
+    private volatile ResumeToken replayedUntil;
+
+    private Subscriber(SseEmitter emitter, Optional<String> document,
+        Optional<String> pathPrefix) {
+      this.emitter = emitter;
+      this.document = document;
+      this.pathPrefix = pathPrefix;
+    }
+
+    private void offer(FeedEvent event) {
+      final FeedEvent filtered = filter(event);
+      if (filtered == null) {
+        return;
+      }
+      if (!buffer.offer(new BufferedEvent(filtered, !live))) {
+        drop("its buffer of " + bufferSize + " changesets overflowed");
+        return;
+      }
+      if (live) {
+        scheduleDrain();
+      }
+    }
+
+    private void goLive() {
+      live = true;
+      scheduleDrain();
+    }
+
+    private void scheduleDrain() {
+      if (draining.compareAndSet(false, true)) {
+        senders.execute(this::drain);
+      }
+    }
+
+    private void drain() {
+      try {
+        BufferedEvent buffered;
+        while ((buffered = buffer.poll()) != null) {
+          // changesets published while catching up may have been replayed already, later ones
+          // are sent even if their timestamp is older than the last one sent
+          if (!buffered.duringCatchUp() || replayedUntil == null
+              || buffered.event().token().compareTo(replayedUntil) > 0) {
+            send(buffered.event());
+          }
+        }
+      } catch (IOException | IllegalStateException e) {
+        drop("sending failed: " + e.getMessage());
+        return;
+      } finally {
+        draining.set(false);
+      }
+      if (!buffer.isEmpty()) {
+        scheduleDrain();
+      }
+    }
+
+    /**
+     * Sends the stored changesets following the token before switching to the published ones.
+     */
+    private void catchUp(ResumeToken resumeAfter) {
+      try {
+        List<String> searchAfter = List.of(String.valueOf(resumeAfter.timestamp()),
+            resumeAfter.document(), String.valueOf(resumeAfter.order()));
+        ResumeToken highWaterMark = resumeAfter;
+        while (subscribers.contains(this)) {
+          final List<String> searchAfterParam = searchAfter;
+          final SearchResponse<JsonNode> page = client.search(request -> request
+              .index(changesetIndex).size(REPLAY_PAGE_SIZE).query(replayQuery())
+              .sort(replayOrder).searchAfter(searchAfterParam), JsonNode.class);
+          final List<Hit<JsonNode>> hits = page.hits().hits();
+          for (Hit<JsonNode> hit : hits) {
+            final ResumeToken token = new ResumeToken(Long.parseLong(hit.sort().get(0)),
+                hit.sort().get(1), Long.parseLong(hit.sort().get(2)));
+            final FeedEvent event =
+                filter(new FeedEvent(token, hit.source().path("document").asText(), hit.source()));
+            if (event != null) {
+              send(event);
+            }
+            highWaterMark = token;
+          }
+          if (hits.size() < REPLAY_PAGE_SIZE) {
+            break;
+          }
+          searchAfter = hits.getLast().sort();
+        }
+        replayedUntil = highWaterMark;
+        // a subscriber dropped while catching up is gone for good
+        if (subscribers.contains(this)) {
+          goLive();
+        }
+      } catch (OpenSearchException | IOException | IllegalStateException e) {
+        drop("catching up failed: " + e.getMessage());
+      }
+    }
+
+    private Query replayQuery() {
+      if (document.isEmpty()) {
+        return Query.of(query -> query.matchAll(all -> all));
+      }
+      return Query.of(
+          query -> query.term(term -> term.field("document").value(FieldValue.of(document.get()))));
+    }
+
+    private void send(FeedEvent event) throws IOException {
+      emitter.send(SseEmitter.event().id(event.token().encode()).name("changeset")
+          .data(event.changeset(), MediaType.APPLICATION_JSON));
+    }
+
+    /**
+     * Keeps only the fields below the path prefix, or returns null if the event doesn't match.
+     */
+    private FeedEvent filter(FeedEvent event) {
+      if (document.isPresent() && !document.get().equals(event.document())) {
+        return null;
+      }
+      if (pathPrefix.isEmpty()) {
+        return event;
+      }
+      final ArrayNode fields = mapper.createArrayNode();
+      for (JsonNode field : event.changeset().path("fields")) {
+        if (field.path("path").asText().startsWith(pathPrefix.get())) {
+          fields.add(field);
+        }
+      }
+      if (fields.isEmpty()) {
+        return null;
+      }
+      final ObjectNode changeset = event.changeset().deepCopy();
+      changeset.set("fields", fields);
+      return new FeedEvent(event.token(), event.document(), changeset);
+    }
+
+    private void drop(String reason) {
+      if (subscribers.remove(this)) {
+        droppedCounter.increment();
+        log.info("disconnecting changeset feed subscriber as {}", reason);
+        emitter.complete();
+      }
+    }
+  }
+}
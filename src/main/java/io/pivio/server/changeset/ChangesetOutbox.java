@@ -0,0 +1,93 @@
+package io.pivio.server.changeset;
+
+import java.io.IOException;
+import java.util.Optional;
+import java.util.UUID;
+import org.opensearch.client.opensearch.OpenSearchClient;
+import org.opensearch.client.opensearch._types.Conflicts;
+import org.opensearch.client.opensearch._types.FieldValue;
+import org.opensearch.client.opensearch._types.OpenSearchException;
+import org.opensearch.client.opensearch._types.SortOrder;
+import org.opensearch.client.opensearch.core.bulk.BulkOperation;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import com.fasterxml.jackson.databind.JsonNode;
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * Durable queue of uploaded documents whose changesets are computed off the request path. With
+ * {@code pivio.changeset.mode=outbox} an upload only writes the document and an outbox record in
+ * the same bulk request; the {@link ChangesetOutboxWorker} turns the records into changesets.
+ */
+@Log4j2
+@Component
+public class ChangesetOutbox {
+
+  private final OpenSearchClient client;
+  private final boolean enabled;
+
+  @Value("#{changesetOutboxIndex}")
+  private String changesetOutboxIndex;
+
+  public ChangesetOutbox(OpenSearchClient client,
+      @Value("${pivio.changeset.mode:inline}") String mode) {
+    this.client = client;
+    this.enabled = "outbox".equalsIgnoreCase(mode.trim());
+  }
+
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  public String newRecordId() {
+    return UUID.randomUUID().toString();
+  }
+
+  public BulkOperation recordOperation(String recordId, JsonNode document) {
+    final OutboxRecord record = OutboxRecord.builder().document(document.get("id").asText())
+        .enqueued(System.currentTimeMillis()).snapshot(document).build();
+    return BulkOperation.of(operation -> operation
+        .index(index -> index.index(changesetOutboxIndex).id(recordId).document(record)));
+  }
+
+  public BulkOperation deleteOperation(String recordId) {
+    return BulkOperation.of(
+        operation -> operation.delete(delete -> delete.index(changesetOutboxIndex).id(recordId)));
+  }
+
+  /**
+   * Drops the pending records of a deleted document, so its changesets don't outlive it.
+   */
+  public void discard(String documentId) throws IOException {
+    if (!enabled) {
+      return;
+    }
+    client.deleteByQuery(request -> request.index(changesetOutboxIndex).refresh(true)
+        .conflicts(Conflicts.Proceed).query(query -> query
+            .term(term -> term.field("document").value(FieldValue.of(documentId)))));
+    log.info("discarded pending changesets of deleted document {}", documentId);
+  }
+
+  /**
+   * Returns the upload time of the oldest record still waiting for its changeset, whose changeset
+   * will carry that time as timestamp.
+   */
+  public Optional<Long> oldestPending() throws IOException {
+    try {
+      return client.search(request -> request.index(changesetOutboxIndex).size(1)
+          .source(source -> source.filter(filter -> filter.includes("enqueued")))
+          .sort(sort -> sort.field(field -> field.field("enqueued").order(SortOrder.Asc))),
+          OutboxRecord.class).hits().hits().stream().findFirst()
+          .map(hit -> hit.source().getEnqueued());
+    } catch (OpenSearchException e) {
+      if (e.status() == 404) {
+        return Optional.empty();
+      }
+      throw e;
+    }
+  }
+
+  String index() {
+    return changesetOutboxIndex;
+  }
+}
@@ -0,0 +1,285 @@
+package io.pivio.server.changeset;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.joda.time.DateTime;
+import org.opensearch.client.opensearch.OpenSearchClient;
+import org.opensearch.client.opensearch._types.OpenSearchException;
+import org.opensearch.client.opensearch._types.SortOrder;
+import org.opensearch.client.opensearch.core.BulkResponse;
+import org.opensearch.client.opensearch.core.SearchResponse;
+import org.opensearch.client.opensearch.core.bulk.BulkOperation;
+import org.opensearch.client.opensearch.core.bulk.BulkResponseItem;
+import org.opensearch.client.opensearch.core.search.Hit;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.pivio.server.elasticsearch.Changeset;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * Computes the changesets of the records in the {@link ChangesetOutbox}. A poller reads the oldest
+ * records in the order they were written, the records of different documents are diffed
+ * concurrently by {@code pivio.changeset.outbox.workers} threads and those of one document in
+ * order. Each pass then takes three bulk requests: the changesets, the claims of the latest
+ * snapshots and the deletion of the processed records.
+ *
+ * <p>
+ * Changesets get the id {@code <document>-<order>}, so a pass interrupted before its records were
+ * deleted is simply repeated after a restart. A record whose snapshot claim conflicts with another
+ * writer stays in the outbox and is processed again by the next pass.
+ */
+@Log4j2
+@Component
+public class ChangesetOutboxWorker {
+
+  private final ChangesetOutbox outbox;
+  private final ChangesetService changesetService;
+  private final LatestSnapshotStore latestSnapshotStore;
+  private final ChangesetFeed changesetFeed;
+  private final OpenSearchClient client;
+  private final int batchSize;
+  private final long pollIntervalMillis;
+  private final int workerCount;
+  private final AtomicLong pending = new AtomicLong();
+  private final AtomicLong oldestEnqueued = new AtomicLong();
+  private final Counter processedCounter;
+  private final Counter conflictCounter;
+
+  @Value("#{changesetIndex}")
+  private String changesetIndex;
+
+  private volatile boolean running;
+  private Thread poller;
+  private ExecutorService workers;
+
+  public ChangesetOutboxWorker(ChangesetOutbox outbox, ChangesetService changesetService,
+      LatestSnapshotStore latestSnapshotStore, ChangesetFeed changesetFeed,
+      OpenSearchClient client, MeterRegistry registry,
+      @Value("${pivio.changeset.outbox.batch-size:500}") int batchSize,
+      @Value("${pivio.changeset.outbox.poll-interval:500}") long pollIntervalMillis,
+      @Value("${pivio.changeset.outbox.workers:4}") int workerCount) {
+    this.outbox = outbox;
+    this.changesetService = changesetService;
+    this.latestSnapshotStore = latestSnapshotStore;
+    this.changesetFeed = changesetFeed;
+    this.client = client;
+    this.batchSize = batchSize;
+    this.pollIntervalMillis = pollIntervalMillis;
+    this.workerCount = Math.max(1, workerCount);
+    Gauge.builder("changeset.outbox.pending", pending, AtomicLong::get).register(registry);
+    Gauge.builder("changeset.outbox.lag", oldestEnqueued, this::lagSeconds)
+        .baseUnit("seconds").register(registry);
+    this.processedCounter = registry.counter("changeset.outbox.processed");
+    this.conflictCounter = registry.counter("counter.changeset.conflicts");
+  }
+
+  @PostConstruct
+  public void start() {
+    if (!outbox.isEnabled()) {
+      return;
+    }
+    running = true;
+    workers = Executors.newFixedThreadPool(workerCount,
+        Thread.ofPlatform().daemon().name("changeset-outbox-worker-", 0).factory());
+    poller = Thread.ofPlatform().daemon().name("changeset-outbox-poller").start(this::pollLoop);
+    log.info("Started changeset outbox with {} workers and batch size {}", workerCount,
+        batchSize);
+  }
+
+  @PreDestroy
+  public void stop() throws InterruptedException {
+    if (poller == null) {
+      return;
+    }
+    running = false;
+    poller.interrupt();
+    poller.join(TimeUnit.SECONDS.toMillis(30));
+    workers.shutdownNow();
+  }
+
+  private void pollLoop() {
+    while (running) {
+      int processed = 0;
+      try {
+        processed = processNext();
+      } catch (Exception e) {
+        log.error("can't process changeset outbox due to " + e.getMessage(), e);
+      }
+      if (processed < batchSize) {
+        try {
+          Thread.sleep(pollIntervalMillis);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          running = false;
+        }
+      }
+    }
+  }
+
+  /**
+   * Processes the oldest records of the outbox.
+   *
+   * @return the number of records read
+   */
+  int processNext() throws IOException, InterruptedException {
+    final SearchResponse<OutboxRecord> response;
+    try {
+      response = client.search(request -> request.index(outbox.index()).size(batchSize)
+          .trackTotalHits(total -> total.enabled(true))
+          .sort(sort -> sort.field(field -> field.field("_seq_no").order(SortOrder.Asc))),
+          OutboxRecord.class);
+    } catch (OpenSearchException e) {
+      if (e.status() == 404) {
+        return 0;
+      }
+      throw e;
+    }
+    final List<Hit<OutboxRecord>> hits = response.hits().hits();
+    pending.set(response.hits().total() == null ? hits.size() : response.hits().total().value());
+    oldestEnqueued.set(hits.isEmpty() ? 0L : hits.get(0).source().getEnqueued());
+    if (hits.isEmpty()) {
+      return 0;
+    }
+
+    final Map<String, List<Hit<OutboxRecord>>> recordsPerDocument = new LinkedHashMap<>();
+    for (Hit<OutboxRecord> hit : hits) {
+      recordsPerDocument.computeIfAbsent(hit.source().getDocument(), id -> new ArrayList<>())
+          .add(hit);
+    }
+    final Map<String, LatestSnapshot> latestSnapshots =
+        latestSnapshotStore.getAll(recordsPerDocument.keySet());
+    final List<Future<Pass>> futures = new ArrayList<>(recordsPerDocument.size());
+    for (Map.Entry<String, List<Hit<OutboxRecord>>> records : recordsPerDocument.entrySet()) {
+      final Optional<LatestSnapshot> latest =
+          Optional.ofNullable(latestSnapshots.get(records.getKey()));
+      futures.add(workers.submit(() -> diff(records.getKey(), records.getValue(), latest)));
+    }
+    final List<Pass> passes = new ArrayList<>(futures.size());
+    for (Future<Pass> future : futures) {
+      try {
+        passes.add(future.get());
+      } catch (ExecutionException e) {
+        throw new IllegalStateException("can't diff outbox records", e.getCause());
+      }
+    }
+
+    final Set<String> failed = writeChangesets(passes);
+    final List<BulkOperation> deletions = new ArrayList<>();
+    final List<Pass> claimable = passes.stream()
+        .filter(pass -> pass.next() != null && !failed.contains(pass.document())).toList();
+    if (!claimable.isEmpty()) {
+      BulkResponse claims = client.bulk(request -> request.operations(claimable.stream()
+          .map(pass -> latestSnapshotStore.claimOperation(pass.latest(), pass.next())).toList()));
+      for (int claim = 0; claim < claims.items().size(); claim++) {
+        Pass pass = claimable.get(claim);
+        BulkResponseItem item = claims.items().get(claim);
+        if (item.error() == null) {
+          latestSnapshotStore.remember(pass.next(), item.seqNo(), item.primaryTerm());
+          pass.recordIds().forEach(id -> deletions.add(outbox.deleteOperation(id)));
+          pass.changesets().forEach(changesetFeed::publish);
+        } else {
+          latestSnapshotStore.invalidate(pass.document());
+          if (item.status() == 409) {
+            conflictCounter.increment();
+          }
+          log.warn("can't claim latest snapshot of {} due to {}", pass.document(),
+              item.error().reason());
+        }
+      }
+    }
+    // records whose changesets all failed to compute can't succeed later either
+    passes.stream().filter(pass -> pass.next() == null)
+        .forEach(pass -> pass.recordIds().forEach(id -> deletions.add(outbox.deleteOperation(id))));
+    if (!deletions.isEmpty()) {
+      client.bulk(request -> request.operations(deletions));
+      processedCounter.increment(deletions.size());
+    }
+    log.debug("processed {} of {} outbox records for {} documents", deletions.size(), hits.size(),
+        passes.size());
+    return hits.size();
+  }
+
+  /**
+   * Diffs the records of one document in order, each against the snapshot of its predecessor.
+   */
+  private Pass diff(String documentId, List<Hit<OutboxRecord>> records,
+      Optional<LatestSnapshot> latest) {
+    final List<Changeset> changesets = new ArrayList<>();
+    final List<String> recordIds = new ArrayList<>(records.size());
+    Optional<LatestSnapshot> current = latest;
+    LatestSnapshot next = null;
+    for (Hit<OutboxRecord> record : records) {
+      recordIds.add(record.id());
+      final Changeset changeset;
+      try {
+        changeset = changesetService.computeNext(record.source().getSnapshot(), current);
+      } catch (RuntimeException e) {
+        log.warn("can't compute changeset of {} due to {}", documentId, e.getMessage());
+        continue;
+      }
+      changeset.setTimestamp(new DateTime(record.source().getEnqueued()));
+      if (!changeset.isEmpty()) {
+        changesets.add(changeset);
+      }
+      next = latestSnapshotStore.next(current, record.source().getSnapshot(), changeset);
+      current = Optional.of(next);
+    }
+    return new Pass(documentId, latest, next, changesets, recordIds);
+  }
+
+  /**
+   * @return the documents of which at least one changeset couldn't be indexed
+   */
+  private Set<String> writeChangesets(List<Pass> passes) throws IOException {
+    final List<BulkOperation> operations = new ArrayList<>();
+    final List<String> owners = new ArrayList<>();
+    for (Pass pass : passes) {
+      for (Changeset changeset : pass.changesets()) {
+        operations.add(BulkOperation.of(operation -> operation.index(index -> index
+            .index(changesetIndex).id(changeset.getDocument() + "-" + changeset.getOrder())
+            .document(changeset))));
+        owners.add(pass.document());
+      }
+    }
+    final Set<String> failed = new HashSet<>();
+    if (operations.isEmpty()) {
+      return failed;
+    }
+    BulkResponse response = client.bulk(request -> request.operations(operations));
+    for (int operation = 0; operation < response.items().size(); operation++) {
+      BulkResponseItem item = response.items().get(operation);
+      if (item.error() != null) {
+        log.warn("can't index changeset of {} due to {}", owners.get(operation),
+            item.error().reason());
+        failed.add(owners.get(operation));
+      }
+    }
+    return failed;
+  }
+
+  private double lagSeconds(AtomicLong enqueued) {
+    final long oldest = enqueued.get();
+    return oldest == 0L ? 0.0 : Math.max(0L, System.currentTimeMillis() - oldest) / 1000.0;
+  }
+
+  private record Pass(String document, Optional<LatestSnapshot> latest, LatestSnapshot next,
+      List<Changeset> changesets, List<String> recordIds) {
+  }
+}
@@ -0,0 +1,47 @@
+package io.pivio.server.changeset;
+
+import java.util.Collection;
+import org.opensearch.client.opensearch._types.FieldValue;
+import org.opensearch.client.opensearch._types.query_dsl.BoolQuery;
+import org.opensearch.client.opensearch._types.query_dsl.Query;
+
+/**
+ * Queries on the changeset index shared by the changeset API and the notifications.
+ */
+public final class ChangesetQueries {
+
+  private ChangesetQueries() {}
+
+  /**
+   * Matches changesets with at least one field change below one of the paths by one of the
+   * operations. Path and operation are matched within the same nested field, empty collections
+   * match any.
+   */
+  public static Query changingFields(Collection<String> paths, Collection<String> operations) {
+    final BoolQuery.Builder field = new BoolQuery.Builder();
+    if (!paths.isEmpty()) {
+      // a path matches itself and everything below it, but not siblings sharing its prefix
+      field.minimumShouldMatch("1");
+      for (String path : paths) {
+        field.should(should -> should
+            .term(term -> term.field("fields.path.keyword").value(FieldValue.of(path))));
+        field.should(should -> should
+            .prefix(prefix -> prefix.field("fields.path.keyword").value(path + "/")));
+      }
+    }
+    if (!operations.isEmpty()) {
+      field.filter(filter -> filter.terms(terms -> terms.field("fields.op")
+          .terms(values -> values.value(operations.stream().map(FieldValue::of).toList()))));
+    }
+    final Query fieldQuery = Query.of(nested -> nested.bool(field.build()));
+    return Query.of(query -> query.nested(nested -> nested.path("fields").query(fieldQuery)));
+  }
+
+  /**
+   * Matches the changesets of the given documents.
+   */
+  public static Query ofDocuments(Collection<String> ids) {
+    return Query.of(query -> query.terms(terms -> terms.field("document")
+        .terms(values -> values.value(ids.stream().map(FieldValue::of).toList()))));
+  }
+}
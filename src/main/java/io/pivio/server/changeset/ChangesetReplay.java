@@ -0,0 +1,104 @@
+package io.pivio.server.changeset;
+
+import org.springframework.stereotype.Component;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.NullNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.fasterxml.jackson.databind.node.TextNode;
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * Applies the fields of stored changesets to a document, the inverse of {@link StructuralDiff}.
+ * Changesets keep values as text, so a value replacing a string stays a string while other values
+ * are parsed as JSON where possible. Elements moved within a keyed array keep their previous
+ * position, as moves don't show up in changesets.
+ */
+@Log4j2
+@Component
+public class ChangesetReplay {
+
+  private final ObjectMapper mapper;
+  private final ObjectReader strictReader;
+
+  public ChangesetReplay(ObjectMapper mapper) {
+    this.mapper = mapper;
+    this.strictReader = mapper.reader().with(DeserializationFeature.FAIL_ON_TRAILING_TOKENS);
+  }
+
+  /**
+   * Applies the fields to the document, which is modified in place.
+   *
+   * @return the resulting document
+   */
+  public JsonNode apply(JsonNode document, JsonNode fields) {
+    JsonNode result = document;
+    for (JsonNode field : fields) {
+      result = apply(result, field.path("op").asText(), field.path("path").asText(),
+          field.get("value"));
+    }
+    return result;
+  }
+
+  private JsonNode apply(JsonNode root, String op, String path, JsonNode value) {
+    if (path.isEmpty()) {
+      return "remove".equals(op) ? mapper.createObjectNode() : decode(value, root);
+    }
+    final int separator = path.lastIndexOf('/');
+    final JsonNode parent = root.at(path.substring(0, separator));
+    final String name = unescape(path.substring(separator + 1));
+    if (parent.isObject()) {
+      final ObjectNode object = (ObjectNode) parent;
+      if ("remove".equals(op)) {
+        object.remove(name);
+      } else {
+        object.set(name, decode(value, object.get(name)));
+      }
+    } else if (parent.isArray() && name.chars().allMatch(Character::isDigit) && !name.isEmpty()) {
+      final ArrayNode array = (ArrayNode) parent;
+      final int index = Integer.parseInt(name);
+      if ("remove".equals(op)) {
+        if (index < array.size()) {
+          array.remove(index);
+        }
+      } else if ("add".equals(op) || index >= array.size()) {
+        array.insert(Math.min(index, array.size()), decode(value, null));
+      } else {
+        array.set(index, decode(value, array.get(index)));
+      }
+    } else {
+      log.debug("skipping {} of {} as its parent is missing", op, path);
+    }
+    return root;
+  }
+
+  private JsonNode decode(JsonNode value, JsonNode previous) {
+    if (value == null || value.isNull()) {
+      return NullNode.getInstance();
+    }
+    if (!value.isTextual()) {
+      return value;
+    }
+    final String text = value.textValue();
+    if (previous != null && previous.isTextual()) {
+      return TextNode.valueOf(text);
+    }
+    try {
+      final JsonNode parsed = strictReader.readTree(text);
+      if (parsed != null && !parsed.isMissingNode()) {
+        return parsed;
+      }
+    } catch (JsonProcessingException e) {
+      // plain text
+    }
+    return TextNode.valueOf(text);
+  }
+
+  private static String unescape(String name) {
+    return name.replace("~1", "/").replace("~0", "~");
+  }
+}
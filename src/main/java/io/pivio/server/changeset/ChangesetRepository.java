@@ -18,9 +18,6 @@ public interface ChangesetRepository extends ElasticsearchRepository<Changeset,
   @Query("{\"query\": {\"range\": {\"timestamp\": { \"gte\": \"?0\",\"lte\": \"now\"}}}}")
   Page<Changeset> findBySinceUsingCustomQuery(String since, Pageable pageable);
 
-  @Query("{\"query\": \"?0\"}")
-  Page<Changeset> findByUsingCustomQuery(String query, Pageable pageable);
-
   Page<Changeset> findByDocument(String document, Pageable pageable);
 
 }
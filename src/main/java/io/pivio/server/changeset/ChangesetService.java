@@ -1,79 +1,47 @@
 package io.pivio.server.changeset;
 
-import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashSet;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Optional;
 import java.util.Set;
 import org.joda.time.DateTime;
 import org.springframework.stereotype.Component;
-import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.flipkart.zjsonpatch.JsonDiff;
+import io.pivio.server.document.ContentHasher;
 import io.pivio.server.elasticsearch.Changeset;
 import io.pivio.server.elasticsearch.Fields;
-import lombok.extern.log4j.Log4j2;
 
-@Log4j2
 @Component
 public class ChangesetService {
 
-  private final ChangesetRepository changesetRepository;
   private final ObjectMapper mapper;
+  private final StructuralDiff structuralDiff;
   private final Set<String> excludedFields;
 
-  public ChangesetService(ChangesetRepository repository, ObjectMapper mapper) {
+  public ChangesetService(ObjectMapper mapper, StructuralDiff structuralDiff) {
     this.mapper = mapper;
-    this.changesetRepository = repository;
+    this.structuralDiff = structuralDiff;
     excludedFields = new HashSet<>();
     excludedFields.add("/created");
     excludedFields.add("/lastUpload");
     excludedFields.add("/lastUpdate");
+    excludedFields.add("/" + ContentHasher.CONTENT_HASH_FIELD);
   }
 
-  public Changeset computeNext(JsonNode document) throws IOException {
+  /**
+   * Diffs the uploaded document against the latest snapshot of the persisted one. The changeset
+   * continues the order of the snapshot.
+   */
+  public Changeset computeNext(JsonNode document, Optional<LatestSnapshot> latest) {
     final String documentId = document.get("id").asText();
-    final Optional<Changeset> persistentDocument = getDocument(documentId);
-    final JsonNode patch = JsonDiff.asJson(
-        mapper.valueToTree(persistentDocument.orElse(Changeset.builder().build())), document);
-    return Changeset.builder().document(documentId).order(retrieveLastOrderNumber(documentId) + 1L)
-        .fields(filterExcludedFields(patch)).timestamp(DateTime.now()).build();
-  }
-
-  private List<Fields> filterExcludedFields(JsonNode json) {
-    List<Fields> filteredJson = new ArrayList<>();
-    Iterator<JsonNode> elements = json.elements();
-    while (elements.hasNext()) {
-      JsonNode current = elements.next();
-      if (current.has("path") && !excludedFields.contains(current.get("path").textValue())) {
-        try {
-          filteredJson.add(mapper.treeToValue(current, Fields.class));
-        } catch (JsonProcessingException | IllegalArgumentException e) {
-          log.error("can't parse " + current.toPrettyString() + " due to " + e.getMessage(), e);
-        }
-      }
-    }
-    return filteredJson;
-  }
-
-  private long retrieveLastOrderNumber(String documentId) throws IOException {
-    Optional<Changeset> lastChangeset = getLastChangeset(documentId);
-    return lastChangeset.map(c -> c.getOrder()).orElse(0L);
-  }
-
-  private Optional<Changeset> getDocument(String id) throws IOException {
-    Optional<Changeset> response = changesetRepository.findById(id);
-    if (response.isPresent()) {
-      return response;
-    } else {
-      throw new DocumentNotFoundException(id);
-    }
-  }
-
-  private Optional<Changeset> getLastChangeset(String documentId) throws IOException {
-    return changesetRepository.findById(documentId);
+    final JsonNode previous = latest.filter(snapshot -> !snapshot.isDeleted())
+        .map(LatestSnapshot::getSnapshot).orElseGet(mapper::createObjectNode);
+    final List<Fields> changedFields = structuralDiff.diff(previous, document).stream()
+        .filter(field -> !excludedFields.contains(field.getPath())).toList();
+    return Changeset.builder().document(documentId)
+        .order(latest.map(LatestSnapshot::getOrder).orElse(0L) + 1L)
+        .fields(new ArrayList<>(changedFields)).timestamp(DateTime.now()).build();
   }
 }
@@ -0,0 +1,105 @@
+package io.pivio.server.changeset;
+
+import java.io.IOException;
+import java.util.Map;
+import org.opensearch.client.opensearch.OpenSearchClient;
+import org.opensearch.client.opensearch._types.SortOrder;
+import org.opensearch.client.opensearch._types.aggregations.Aggregate;
+import org.opensearch.client.opensearch._types.aggregations.CalendarInterval;
+import org.opensearch.client.opensearch._types.aggregations.DateHistogramBucket;
+import org.opensearch.client.opensearch._types.aggregations.StringTermsBucket;
+import org.opensearch.client.opensearch._types.query_dsl.Query;
+import org.opensearch.client.opensearch.core.SearchResponse;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * Aggregates the changesets in the cluster with a single {@code size=0} search: changesets per
+ * time bucket, the documents with the most changesets and the most frequently changed field
+ * paths. Paths are aggregated within the nested fields and additionally counted per changeset.
+ */
+@Log4j2
+@Component
+public class ChangesetStats {
+
+  private static final String HISTOGRAM = "histogram";
+  private static final String DOCUMENTS = "documents";
+  private static final String FIELDS = "fields";
+  private static final String PATHS = "paths";
+  private static final String CHANGESETS = "changesets";
+
+  private final OpenSearchClient client;
+  private final ObjectMapper mapper;
+
+  @Value("#{changesetIndex}")
+  private String changesetIndex;
+
+  public ChangesetStats(OpenSearchClient client, ObjectMapper mapper) {
+    this.client = client;
+    this.mapper = mapper;
+  }
+
+  /**
+   * Returns the ids of at most {@code size} documents with matching changesets in ascending order.
+   */
+  public ArrayNode distinctDocuments(Query query, int size) throws IOException {
+    final SearchResponse<JsonNode> response = client.search(request -> request
+        .index(changesetIndex).size(0).query(query)
+        .aggregations(DOCUMENTS, documents -> documents.terms(terms -> terms.field("document")
+            .size(size).order(Map.of("_key", SortOrder.Asc)))),
+        JsonNode.class);
+    final ArrayNode ids = mapper.createArrayNode();
+    final Aggregate documents = response.aggregations().get(DOCUMENTS);
+    documents.sterms().buckets().array().forEach(bucket -> ids.add(bucket.key()));
+    if (documents.sterms().sumOtherDocCount() > 0) {
+      log.info("more than {} documents have matching changesets, returning the first ones", size);
+    }
+    return ids;
+  }
+
+  public ObjectNode aggregate(Query query, CalendarInterval interval, int bucketCount)
+      throws IOException {
+    final SearchResponse<JsonNode> response = client.search(request -> request
+        .index(changesetIndex).size(0).query(query).trackTotalHits(total -> total.enabled(true))
+        .aggregations(HISTOGRAM, histogram -> histogram.dateHistogram(dates -> dates
+            .field("timestamp").calendarInterval(interval).minDocCount(1)
+            .format("strict_date_time")))
+        .aggregations(DOCUMENTS, documents -> documents
+            .terms(terms -> terms.field("document").size(bucketCount)))
+        .aggregations(FIELDS, fields -> fields.nested(nested -> nested.path("fields"))
+            .aggregations(PATHS, paths -> paths
+                .terms(terms -> terms.field("fields.path.keyword").size(bucketCount))
+                .aggregations(CHANGESETS, changesets -> changesets
+                    .reverseNested(reverse -> reverse)))),
+        JsonNode.class);
+
+    final ObjectNode stats = mapper.createObjectNode();
+    stats.put("total", response.hits().total() == null ? 0L : response.hits().total().value());
+    final ArrayNode histogram = stats.putArray(HISTOGRAM);
+    for (DateHistogramBucket bucket : response.aggregations().get(HISTOGRAM).dateHistogram()
+        .buckets().array()) {
+      histogram.addObject().put("timestamp", bucket.keyAsString())
+          .put("count", bucket.docCount());
+    }
+    final ArrayNode documents = stats.putArray(DOCUMENTS);
+    for (StringTermsBucket bucket : response.aggregations().get(DOCUMENTS).sterms().buckets()
+        .array()) {
+      documents.addObject().put("document", bucket.key()).put("count", bucket.docCount());
+    }
+    final ArrayNode paths = stats.putArray(PATHS);
+    final Aggregate fields = response.aggregations().get(FIELDS);
+    for (StringTermsBucket bucket : fields.nested().aggregations().get(PATHS).sterms().buckets()
+        .array()) {
+      paths.addObject().put("path", bucket.key()).put("changes", bucket.docCount())
+          .put(CHANGESETS, bucket.aggregations().get(CHANGESETS).reverseNested().docCount());
+    }
+    log.debug("aggregated {} changesets into {} time buckets", stats.path("total").asLong(),
+        histogram.size());
+    return stats;
+  }
+}
@@ -0,0 +1,109 @@
+package io.pivio.server.changeset;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Optional;
+import org.joda.time.DateTime;
+import org.joda.time.format.ISODateTimeFormat;
+import org.opensearch.client.json.JsonData;
+import org.opensearch.client.opensearch.OpenSearchClient;
+import org.opensearch.client.opensearch._types.FieldValue;
+import org.opensearch.client.opensearch._types.SortOrder;
+import org.opensearch.client.opensearch.core.SearchResponse;
+import org.opensearch.client.opensearch.core.search.Hit;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * Rebuilds past states of documents from the nearest {@link HistorySnapshot} and the changesets
+ * following it. At most {@code pivio.changeset.replay.max-changesets} changesets are replayed.
+ */
+@Log4j2
+@Component
+public class DocumentHistory {
+
+  private final OpenSearchClient client;
+  private final ChangesetReplay changesetReplay;
+  private final ObjectMapper mapper;
+  private final int maxChangesets;
+
+  @Value("#{changesetHistoryIndex}")
+  private String changesetHistoryIndex;
+
+  @Value("#{changesetIndex}")
+  private String changesetIndex;
+
+  public DocumentHistory(OpenSearchClient client, ChangesetReplay changesetReplay,
+      ObjectMapper mapper,
+      @Value("${pivio.changeset.replay.max-changesets:1000}") int maxChangesets) {
+    this.client = client;
+    this.changesetReplay = changesetReplay;
+    this.mapper = mapper;
+    this.maxChangesets = maxChangesets;
+  }
+
+  /**
+   * Returns the document as it was at the given time, empty if it didn't exist yet.
+   *
+   * @throws HistoryNotAvailableException if changesets between the nearest snapshot and the given
+   *         time were compacted away or are more than can be replayed
+   */
+  public Optional<JsonNode> asOf(String id, DateTime asOf) throws IOException {
+    final Optional<HistorySnapshot> base = nearestSnapshot(id, asOf);
+    long order = base.map(HistorySnapshot::getOrder).orElse(0L);
+    final List<JsonNode> changesets = changesetsAfter(id, order, asOf);
+    if (base.isEmpty() && changesets.isEmpty()) {
+      return Optional.empty();
+    }
+
+    JsonNode document = base.map(snapshot -> snapshot.getSnapshot().<JsonNode>deepCopy())
+        .orElseGet(mapper::createObjectNode);
+    for (JsonNode changeset : changesets) {
+      final long next = changeset.path("order").asLong();
+      if (next != order + 1) {
+        throw new HistoryNotAvailableException("history of " + id + " as of "
+            + ISODateTimeFormat.dateTime().print(asOf) + " was compacted");
+      }
+      document = changesetReplay.apply(document, changeset.path("fields"));
+      order = next;
+    }
+    log.debug("rebuilt {} as of {} from order {} with {} changesets", id, asOf,
+        base.map(HistorySnapshot::getOrder).orElse(0L), changesets.size());
+    return Optional.of(document);
+  }
+
+  private Optional<HistorySnapshot> nearestSnapshot(String id, DateTime asOf) throws IOException {
+    final SearchResponse<HistorySnapshot> response = client.search(request -> request
+        .index(changesetHistoryIndex).size(1)
+        .query(query -> query.bool(bool -> bool
+            .filter(filter -> filter.term(term -> term.field("document").value(FieldValue.of(id))))
+            .filter(filter -> filter.range(
+                range -> range.field("timestamp").lte(JsonData.of(asOf.getMillis()))))))
+        .sort(sort -> sort.field(field -> field.field("order").order(SortOrder.Desc))),
+        HistorySnapshot.class);
+    return response.hits().hits().stream().map(Hit::source).findFirst();
+  }
+
+  private List<JsonNode> changesetsAfter(String id, long order, DateTime asOf)
+      throws IOException {
+    final SearchResponse<JsonNode> response = client.search(request -> request
+        .index(changesetIndex).size(maxChangesets + 1)
+        .query(query -> query.bool(bool -> bool
+            .filter(filter -> filter.term(term -> term.field("document").value(FieldValue.of(id))))
+            .filter(filter -> filter.range(range -> range.field("order").gt(JsonData.of(order))))
+            .filter(filter -> filter.range(range -> range.field("timestamp")
+                .lte(JsonData.of(ISODateTimeFormat.dateTime().print(asOf)))))))
+        .sort(sort -> sort.field(field -> field.field("order").order(SortOrder.Asc))),
+        JsonNode.class);
+    final List<JsonNode> changesets = response.hits().hits().stream().map(Hit::source).toList();
+    if (changesets.size() > maxChangesets) {
+      throw new HistoryNotAvailableException("rebuilding " + id + " as of "
+          + ISODateTimeFormat.dateTime().print(asOf) + " needs more than " + maxChangesets
+          + " changesets");
+    }
+    return changesets;
+  }
+}
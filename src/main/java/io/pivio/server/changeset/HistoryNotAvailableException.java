@@ -0,0 +1,12 @@
+package io.pivio.server.changeset;
+
+/**
+ * The changesets needed to rebuild a past state of a document were compacted away or are too many
+ * to replay.
+ */
+public class HistoryNotAvailableException extends RuntimeException {
+
+  HistoryNotAvailableException(String message) {
+    super(message);
+  }
+}
@@ -0,0 +1,24 @@
+package io.pivio.server.changeset;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * A full copy of a document as of the changeset with the given order, written by the
+ * {@link ChangesetCompactor}. {@code timestamp} is the time of that changeset in epoch
+ * milliseconds.
+ */
+@Data
+@Builder
+@AllArgsConstructor
+@NoArgsConstructor
+public class HistorySnapshot {
+
+  private String document;
+  private long order;
+  private long timestamp;
+  private JsonNode snapshot;
+}
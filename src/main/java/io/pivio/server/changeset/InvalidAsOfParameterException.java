@@ -0,0 +1,11 @@
+package io.pivio.server.changeset;
+
+/**
+ * InvalidAsOfParameterException
+ */
+public class InvalidAsOfParameterException extends RuntimeException {
+
+  public InvalidAsOfParameterException(String asOf) {
+    super(asOf + " is not a valid timestamp");
+  }
+}
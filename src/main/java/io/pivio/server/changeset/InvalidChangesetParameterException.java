@@ -0,0 +1,12 @@
+package io.pivio.server.changeset;
+
+/**
+ * InvalidChangesetParameterException
+ */
+public class InvalidChangesetParameterException extends RuntimeException {
+
+  InvalidChangesetParameterException(String parameter) {
+    super(parameter + " is not a valid parameter");
+  }
+
+}
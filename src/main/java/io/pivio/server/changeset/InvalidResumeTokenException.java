@@ -0,0 +1,11 @@
+package io.pivio.server.changeset;
+
+/**
+ * InvalidResumeTokenException
+ */
+public class InvalidResumeTokenException extends RuntimeException {
+
+  InvalidResumeTokenException(String token) {
+    super(token + " is not a valid resume token");
+  }
+}
@@ -0,0 +1,40 @@
+package io.pivio.server.changeset;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.databind.JsonNode;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * The last persisted state of a document together with the order of its last changeset. A deleted
+ * document keeps its record without snapshot, so the order continues if it is uploaded again.
+ */
+@Data
+@Builder
+@AllArgsConstructor
+@NoArgsConstructor
+public class LatestSnapshot {
+
+  private String document;
+  private long order;
+  private String contentHash;
+  private JsonNode snapshot;
+
+  // version of the persisted record, unknown for snapshots that were never persisted
+  @JsonIgnore
+  private Long seqNo;
+  @JsonIgnore
+  private Long primaryTerm;
+
+  @JsonIgnore
+  public boolean isPersisted() {
+    return seqNo != null && primaryTerm != null;
+  }
+
+  @JsonIgnore
+  public boolean isDeleted() {
+    return snapshot == null || snapshot.isNull();
+  }
+}
@@ -0,0 +1,264 @@
+package io.pivio.server.changeset;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import org.opensearch.client.opensearch.OpenSearchClient;
+import org.opensearch.client.opensearch._types.FieldValue;
+import org.opensearch.client.opensearch._types.OpenSearchException;
+import org.opensearch.client.opensearch._types.SortOrder;
+import org.opensearch.client.opensearch.core.CreateResponse;
+import org.opensearch.client.opensearch.core.IndexResponse;
+import org.opensearch.client.opensearch.core.MgetResponse;
+import org.opensearch.client.opensearch.core.SearchResponse;
+import org.opensearch.client.opensearch.core.bulk.BulkOperation;
+import org.opensearch.client.opensearch.core.get.GetResult;
+import org.opensearch.client.opensearch.core.mget.MultiGetResponseItem;
+import org.opensearch.client.opensearch.core.search.Hit;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import io.pivio.server.document.ContentHasher;
+import io.pivio.server.elasticsearch.Changeset;
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * Keeps the latest snapshot and changeset order of every document in its own index, with a bounded
+ * in-process cache in front. An upload thereby needs at most one read to compute its changeset.
+ * Documents stored before the snapshot index existed are bootstrapped once from the document and
+ * changeset indices. Snapshots carry the sequence number and primary term they were read with, so
+ * concurrent writers on other instances are detected by conditional writes.
+ */
+@Log4j2
+@Component
+public class LatestSnapshotStore {
+
+  private static final int MAX_DELETE_ATTEMPTS = 3;
+
+  private final OpenSearchClient client;
+  private final Cache<String, LatestSnapshot> cache;
+
+  @Value("#{latestSnapshotIndex}")
+  private String latestSnapshotIndex;
+
+  @Value("#{pivioIndex}")
+  private String pivioIndex;
+
+  @Value("#{changesetIndex}")
+  private String changesetIndex;
+
+  public LatestSnapshotStore(OpenSearchClient client, MeterRegistry registry,
+      @Value("${pivio.changeset.snapshot-cache-size:10000}") long cacheSize) {
+    this.client = client;
+    this.cache = Caffeine.newBuilder().maximumSize(cacheSize).recordStats().build();
+    CaffeineCacheMetrics.monitor(registry, cache, "changeset-snapshots");
+  }
+
+  public Optional<LatestSnapshot> get(String id) throws IOException {
+    return Optional.ofNullable(getAll(List.of(id)).get(id));
+  }
+
+  /**
+   * Returns the latest snapshots of the given documents. Documents that were never uploaded have no
+   * entry in the returned map.
+   */
+  public Map<String, LatestSnapshot> getAll(Collection<String> ids) throws IOException {
+    final Map<String, LatestSnapshot> snapshots = new HashMap<>(cache.getAllPresent(ids));
+    final List<String> missing = ids.stream().filter(id -> !snapshots.containsKey(id)).distinct()
+        .toList();
+    if (missing.isEmpty()) {
+      return snapshots;
+    }
+
+    for (LatestSnapshot snapshot : read(missing)) {
+      snapshots.put(snapshot.getDocument(), snapshot);
+      cache.put(snapshot.getDocument(), snapshot);
+    }
+    final List<String> unknown = missing.stream().filter(id -> !snapshots.containsKey(id)).toList();
+    if (!unknown.isEmpty()) {
+      for (LatestSnapshot snapshot : bootstrap(unknown)) {
+        snapshots.put(snapshot.getDocument(), snapshot);
+      }
+    }
+    return snapshots;
+  }
+
+  /**
+   * Builds the snapshot following the given changeset of the persisted document.
+   */
+  public LatestSnapshot next(Optional<LatestSnapshot> previous, JsonNode document,
+      Changeset changeset) {
+    final long order = changeset.isEmpty() ? previous.map(LatestSnapshot::getOrder).orElse(0L)
+        : changeset.getOrder();
+    return LatestSnapshot.builder().document(document.get("id").asText()).order(order)
+        .contentHash(document.path(ContentHasher.CONTENT_HASH_FIELD).asText(null))
+        .snapshot(document).build();
+  }
+
+  /**
+   * Writes the next snapshot only if the persisted one is still the given latest snapshot. Another
+   * instance having written the snapshot in between makes the operation fail with a conflict.
+   */
+  public BulkOperation claimOperation(Optional<LatestSnapshot> latest, LatestSnapshot next) {
+    if (latest.isPresent() && latest.get().isPersisted()) {
+      return BulkOperation.of(operation -> operation.index(index -> index
+          .index(latestSnapshotIndex).id(next.getDocument()).document(next)
+          .ifSeqNo(latest.get().getSeqNo()).ifPrimaryTerm(latest.get().getPrimaryTerm())));
+    }
+    return BulkOperation.of(operation -> operation.create(create -> create
+        .index(latestSnapshotIndex).id(next.getDocument()).document(next)));
+  }
+
+  /**
+   * Puts a snapshot into the cache after it has been persisted with the given version.
+   */
+  public void remember(LatestSnapshot snapshot, Long seqNo, Long primaryTerm) {
+    snapshot.setSeqNo(seqNo);
+    snapshot.setPrimaryTerm(primaryTerm);
+    cache.put(snapshot.getDocument(), snapshot);
+  }
+
+  public void invalidate(String id) {
+    cache.invalidate(id);
+  }
+
+  /**
+   * Reads the latest snapshots of the given documents bypassing the cache, which may miss a newer
+   * snapshot written by another instance.
+   */
+  public Map<String, LatestSnapshot> reload(Collection<String> ids) throws IOException {
+    cache.invalidateAll(ids);
+    return getAll(ids);
+  }
+
+  /**
+   * Persists the given previous snapshot again after a write of the document failed, unless another
+   * writer has replaced the claimed snapshot in the meantime.
+   */
+  public void restore(String id, LatestSnapshot claimed, Optional<LatestSnapshot> previous)
+      throws IOException {
+    cache.invalidate(id);
+    try {
+      if (previous.isPresent()) {
+        client.index(request -> request.index(latestSnapshotIndex).id(id).document(previous.get())
+            .ifSeqNo(claimed.getSeqNo()).ifPrimaryTerm(claimed.getPrimaryTerm()));
+      } else {
+        client.delete(request -> request.index(latestSnapshotIndex).id(id)
+            .ifSeqNo(claimed.getSeqNo()).ifPrimaryTerm(claimed.getPrimaryTerm()));
+      }
+    } catch (OpenSearchException e) {
+      if (e.status() != 409) {
+        throw e;
+      }
+      log.info("latest snapshot of {} was replaced before it could be restored", id);
+    }
+  }
+
+  /**
+   * Drops the snapshot of a deleted document but keeps its order. The record is replaced
+   * conditionally like a claim, and re-read if another instance wrote it in between.
+   */
+  public void markDeleted(String id) throws IOException {
+    for (int attempt = 1;; attempt++) {
+      final Optional<LatestSnapshot> latest = Optional.ofNullable(reload(List.of(id)).get(id));
+      if (latest.isEmpty()) {
+        return;
+      }
+      final LatestSnapshot deleted =
+          LatestSnapshot.builder().document(id).order(latest.get().getOrder()).build();
+      try {
+        final Long seqNo;
+        final Long primaryTerm;
+        if (latest.get().isPersisted()) {
+          IndexResponse response = client.index(request -> request.index(latestSnapshotIndex)
+              .id(id).document(deleted).ifSeqNo(latest.get().getSeqNo())
+              .ifPrimaryTerm(latest.get().getPrimaryTerm()));
+          seqNo = response.seqNo();
+          primaryTerm = response.primaryTerm();
+        } else {
+          CreateResponse response = client.create(
+              request -> request.index(latestSnapshotIndex).id(id).document(deleted));
+          seqNo = response.seqNo();
+          primaryTerm = response.primaryTerm();
+        }
+        remember(deleted, seqNo, primaryTerm);
+        return;
+      } catch (OpenSearchException e) {
+        if (e.status() != 409 || attempt >= MAX_DELETE_ATTEMPTS) {
+          throw e;
+        }
+        log.info("latest snapshot of {} was modified concurrently while deleting it", id);
+      }
+    }
+  }
+
+  private List<LatestSnapshot> read(List<String> ids) throws IOException {
+    final MgetResponse<LatestSnapshot> response;
+    try {
+      response = client.mget(
+          request -> request.index(latestSnapshotIndex).ids(ids).realtime(true),
+          LatestSnapshot.class);
+    } catch (OpenSearchException e) {
+      if (e.status() == 404) {
+        return List.of();
+      }
+      throw e;
+    }
+    final List<LatestSnapshot> snapshots = new ArrayList<>(ids.size());
+    for (MultiGetResponseItem<LatestSnapshot> item : response.docs()) {
+      if (item.isResult()) {
+        GetResult<LatestSnapshot> result = item.result();
+        if (result.found() && result.source() != null) {
+          LatestSnapshot snapshot = result.source();
+          snapshot.setSeqNo(result.seqNo());
+          snapshot.setPrimaryTerm(result.primaryTerm());
+          snapshots.add(snapshot);
+        }
+      }
+    }
+    return snapshots;
+  }
+
+  /**
+   * Creates the snapshots of documents persisted before the snapshot index existed. They are only
+   * cached, the next write persists them.
+   */
+  private List<LatestSnapshot> bootstrap(List<String> ids) throws IOException {
+    final MgetResponse<JsonNode> response = client.mget(
+        request -> request.index(pivioIndex).ids(ids).realtime(true), JsonNode.class);
+    final List<LatestSnapshot> snapshots = new ArrayList<>();
+    for (MultiGetResponseItem<JsonNode> item : response.docs()) {
+      if (!item.isResult() || !item.result().found() || item.result().source() == null) {
+        continue;
+      }
+      final JsonNode document = item.result().source();
+      final LatestSnapshot snapshot = LatestSnapshot.builder().document(item.result().id())
+          .order(findLastOrder(item.result().id())).snapshot(document)
+          .contentHash(document.path(ContentHasher.CONTENT_HASH_FIELD).asText(null)).build();
+      log.info("bootstrapped latest snapshot of {} with order {}", snapshot.getDocument(),
+          snapshot.getOrder());
+      cache.put(snapshot.getDocument(), snapshot);
+      snapshots.add(snapshot);
+    }
+    return snapshots;
+  }
+
+  private long findLastOrder(String id) throws IOException {
+    final SearchResponse<JsonNode> response = client.search(request -> request
+        .index(changesetIndex).size(1)
+        .query(query -> query.term(term -> term.field("document").value(FieldValue.of(id))))
+        .sort(sort -> sort.field(field -> field.field("order").order(SortOrder.Desc))),
+        JsonNode.class);
+    return response.hits().hits().stream().map(Hit::source).filter(Objects::nonNull)
+        .mapToLong(changeset -> changeset.path("order").asLong()).findFirst().orElse(0L);
+  }
+}
@@ -0,0 +1,22 @@
+package io.pivio.server.changeset;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * An uploaded document whose changeset is still to be computed. {@code enqueued} is the upload time
+ * in epoch milliseconds and becomes the timestamp of the changeset.
+ */
+@Data
+@Builder
+@AllArgsConstructor
+@NoArgsConstructor
+public class OutboxRecord {
+
+  private String document;
+  private long enqueued;
+  private JsonNode snapshot;
+}
@@ -0,0 +1,219 @@
+package io.pivio.server.changeset;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import com.fasterxml.jackson.databind.JsonNode;
+import io.pivio.server.elasticsearch.Fields;
+
+/**
+ * Computes the changed fields between two documents. Every subtree is hashed once bottom-up, so
+ * differing subtrees are told apart by their hashes; equal hashes are confirmed by comparing the
+ * subtrees before they are skipped. Arrays of objects are matched by the
+ * first configured key whose values identify all elements, e.g. software dependencies by their
+ * {@code name}; other arrays are compared by position.
+ *
+ * <p>
+ * Paths of added and changed array elements refer to the uploaded document, those of removed
+ * elements to the previous one.
+ */
+@Component
+public class StructuralDiff {
+
+  private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+  private static final long FNV_PRIME = 0x100000001b3L;
+  // scalars are equal like they are hashed, by their type and text, so 1 as int equals 1 as long
+  private static final Comparator<JsonNode> SAME_VALUE = (source, target) -> (source.equals(target)
+      || source.getNodeType() == target.getNodeType() && source.asText().equals(target.asText()))
+          ? 0 : 1;
+
+  private final List<String> arrayKeys;
+
+  public StructuralDiff(@Value("${pivio.changeset.array-keys:name,id,key}") String arrayKeys) {
+    this.arrayKeys = Arrays.stream(arrayKeys.split(",")).map(String::trim)
+        .filter(key -> !key.isEmpty()).toList();
+  }
+
+  public List<Fields> diff(JsonNode source, JsonNode target) {
+    final List<Fields> fields = new ArrayList<>();
+    new Comparison(fields).compare(source, target, "");
+    return fields;
+  }
+
+  private final class Comparison {
+
+    private final List<Fields> fields;
+    private final Map<JsonNode, Long> hashes = new IdentityHashMap<>();
+
+    private Comparison(List<Fields> fields) {
+      this.fields = fields;
+    }
+
+    private void compare(JsonNode source, JsonNode target, String path) {
+      // a hash collision must not hide a change
+      if (hash(source) == hash(target) && source.equals(SAME_VALUE, target)) {
+        return;
+      }
+      if (source.isObject() && target.isObject()) {
+        compareObjects(source, target, path);
+      } else if (source.isArray() && target.isArray()) {
+        Optional<String> key = findArrayKey(source, target);
+        if (key.isPresent()) {
+          compareArraysByKey(source, target, path, key.get());
+        } else {
+          compareArraysByPosition(source, target, path);
+        }
+      } else {
+        fields.add(field("replace", path, target));
+      }
+    }
+
+    private void compareObjects(JsonNode source, JsonNode target, String path) {
+      Iterator<Map.Entry<String, JsonNode>> sourceFields = source.fields();
+      while (sourceFields.hasNext()) {
+        Map.Entry<String, JsonNode> sourceField = sourceFields.next();
+        String fieldPath = path + "/" + escape(sourceField.getKey());
+        JsonNode targetValue = target.get(sourceField.getKey());
+        if (targetValue == null) {
+          fields.add(field("remove", fieldPath, null));
+        } else {
+          compare(sourceField.getValue(), targetValue, fieldPath);
+        }
+      }
+      Iterator<Map.Entry<String, JsonNode>> targetFields = target.fields();
+      while (targetFields.hasNext()) {
+        Map.Entry<String, JsonNode> targetField = targetFields.next();
+        if (!source.has(targetField.getKey())) {
+          fields.add(field("add", path + "/" + escape(targetField.getKey()),
+              targetField.getValue()));
+        }
+      }
+    }
+
+    private void compareArraysByKey(JsonNode source, JsonNode target, String path, String key) {
+      final Map<String, Integer> sourcePositions = new HashMap<>();
+      for (int position = 0; position < source.size(); position++) {
+        sourcePositions.put(source.get(position).get(key).asText(), position);
+      }
+      final Set<String> targetKeys = new HashSet<>();
+      for (JsonNode element : target) {
+        targetKeys.add(element.get(key).asText());
+      }
+      for (int position = source.size() - 1; position >= 0; position--) {
+        if (!targetKeys.contains(source.get(position).get(key).asText())) {
+          fields.add(field("remove", path + "/" + position, null));
+        }
+      }
+      for (int position = 0; position < target.size(); position++) {
+        JsonNode element = target.get(position);
+        Integer sourcePosition = sourcePositions.get(element.get(key).asText());
+        if (sourcePosition == null) {
+          fields.add(field("add", path + "/" + position, element));
+        } else {
+          compare(source.get(sourcePosition), element, path + "/" + position);
+        }
+      }
+    }
+
+    private void compareArraysByPosition(JsonNode source, JsonNode target, String path) {
+      final int common = Math.min(source.size(), target.size());
+      for (int position = source.size() - 1; position >= common; position--) {
+        fields.add(field("remove", path + "/" + position, null));
+      }
+      for (int position = 0; position < common; position++) {
+        compare(source.get(position), target.get(position), path + "/" + position);
+      }
+      for (int position = common; position < target.size(); position++) {
+        fields.add(field("add", path + "/" + position, target.get(position)));
+      }
+    }
+
+    /**
+     * Returns the first configured key that is present in every element of both arrays and unique
+     * within each of them.
+     */
+    private Optional<String> findArrayKey(JsonNode source, JsonNode target) {
+      if (source.isEmpty() || target.isEmpty() || !source.get(0).isObject()) {
+        return Optional.empty();
+      }
+      return arrayKeys.stream()
+          .filter(key -> identifiesElements(source, key) && identifiesElements(target, key))
+          .findFirst();
+    }
+
+    private boolean identifiesElements(JsonNode array, String key) {
+      final Set<String> values = new HashSet<>();
+      for (JsonNode element : array) {
+        JsonNode value = element.get(key);
+        if (value == null || !value.isValueNode() || !values.add(value.asText())) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    /**
+     * 64 bit FNV-1a based hash of the subtree. Object fields are combined independently of their
+     * order, array elements in order.
+     */
+    private long hash(JsonNode node) {
+      Long cached = hashes.get(node);
+      if (cached != null) {
+        return cached;
+      }
+      long hash;
+      if (node.isObject()) {
+        hash = 1;
+        Iterator<Map.Entry<String, JsonNode>> nodeFields = node.fields();
+        while (nodeFields.hasNext()) {
+          Map.Entry<String, JsonNode> field = nodeFields.next();
+          hash += mix(fnv(FNV_OFFSET, field.getKey()) * 31 + hash(field.getValue()));
+        }
+      } else if (node.isArray()) {
+        hash = 2;
+        for (JsonNode element : node) {
+          hash = mix(hash * 31 + hash(element));
+        }
+      } else {
+        hash = fnv(fnv(FNV_OFFSET, node.getNodeType().name()), node.asText());
+      }
+      hashes.put(node, hash);
+      return hash;
+    }
+
+    private long fnv(long hash, String value) {
+      for (int i = 0; i < value.length(); i++) {
+        hash ^= value.charAt(i);
+        hash *= FNV_PRIME;
+      }
+      return hash;
+    }
+
+    private long mix(long hash) {
+      hash ^= hash >>> 33;
+      hash *= 0xff51afd7ed558ccdL;
+      hash ^= hash >>> 33;
+      return hash;
+    }
+  }
+
+  private static Fields field(String op, String path, JsonNode value) {
+    return Fields.builder().op(op).path(path)
+        .value(value == null ? null : value.isTextual() ? value.textValue() : value.toString())
+        .build();
+  }
+
+  private static String escape(String fieldName) {
+    return fieldName.replace("~", "~0").replace("/", "~1");
+  }
+}
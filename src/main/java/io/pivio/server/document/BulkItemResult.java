@@ -0,0 +1,36 @@
+package io.pivio.server.document;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonInclude.Include;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+
+/**
+ * Outcome of a single document within a bulk upload.
+ */
+@Data
+@Builder
+@AllArgsConstructor
+@JsonInclude(Include.NON_NULL)
+public class BulkItemResult {
+
+  private String id;
+  private int status;
+  private String result;
+  private String error;
+
+  @JsonIgnore
+  public boolean isFailed() {
+    return error != null;
+  }
+
+  static BulkItemResult succeeded(String id, int status, String result) {
+    return BulkItemResult.builder().id(id).status(status).result(result).build();
+  }
+
+  static BulkItemResult failed(String id, int status, String error) {
+    return BulkItemResult.builder().id(id).status(status).error(error).build();
+  }
+}
@@ -0,0 +1,32 @@
+package io.pivio.server.document;
+
+/**
+ * The raw {@code _source} bytes of a document held by the {@link DocumentCache} together with its
+ * entity tag.
+ */
+public record CachedDocument(byte[] source, String eTag) {
+
+  public int weight() {
+    return source.length;
+  }
+
+  /**
+   * Weak comparison of the entity tag against the value of an {@code If-None-Match} header.
+   */
+  public boolean matches(String ifNoneMatch) {
+    if (ifNoneMatch == null || ifNoneMatch.isBlank()) {
+      return false;
+    }
+    for (String candidate : ifNoneMatch.split(",")) {
+      String tag = candidate.trim();
+      if ("*".equals(tag) || opaqueTag(tag).equals(opaqueTag(eTag))) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static String opaqueTag(String tag) {
+    return tag.startsWith("W/") ? tag.substring(2) : tag;
+  }
+}
@@ -0,0 +1,48 @@
+package io.pivio.server.document;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Counts the changes of the catalog. Every write or delete advances the generation, so results
+ * cached for an older generation are never served again. A write only becomes visible to searches
+ * with the next refresh of the index, so results of searches started before that may be stale and
+ * must not be cached for the new generation.
+ *
+ * <p>
+ * The generation is kept per instance. Writes through other instances don't advance it, so their
+ * results are only picked up once cached results expire.
+ */
+@Component
+public class CatalogGeneration {
+
+  private final AtomicLong generation = new AtomicLong();
+  private final long refreshIntervalNanos;
+  private final AtomicLong visibleAt;
+
+  public CatalogGeneration(
+      @Value("${pivio.search.cache.refresh-interval:1000}") long refreshIntervalMillis) {
+    this.refreshIntervalNanos = TimeUnit.MILLISECONDS.toNanos(refreshIntervalMillis);
+    this.visibleAt = new AtomicLong(System.nanoTime());
+  }
+
+  public long current() {
+    return generation.get();
+  }
+
+  public void advance() {
+    final long visible = System.nanoTime() + refreshIntervalNanos;
+    visibleAt.accumulateAndGet(visible, (current, next) -> next - current > 0 ? next : current);
+    generation.incrementAndGet();
+  }
+
+  /**
+   * Tells whether a search started at the given {@link System#nanoTime()} sees every write of the
+   * catalog so far.
+   */
+  public boolean isVisibleTo(long searchStartNanos) {
+    return searchStartNanos - visibleAt.get() >= 0;
+  }
+}
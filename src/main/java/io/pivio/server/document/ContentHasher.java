@@ -0,0 +1,84 @@
+package io.pivio.server.document;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import org.springframework.stereotype.Component;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Computes a canonical SHA-256 hash of a document. Object keys are hashed in sorted order and the
+ * bookkeeping fields maintained by the server are ignored, so a re-upload of an unchanged document
+ * yields the same hash regardless of key order or upload time.
+ */
+@Component
+public class ContentHasher {
+
+  public static final String CONTENT_HASH_FIELD = "contentHash";
+
+  private static final Set<String> IGNORED_FIELDS =
+      Set.of("created", "lastUpdate", "lastUpload", CONTENT_HASH_FIELD);
+
+  private final JsonFactory jsonFactory;
+
+  public ContentHasher(ObjectMapper mapper) {
+    this.jsonFactory = mapper.getFactory();
+  }
+
+  public String hash(JsonNode document) {
+    final MessageDigest digest;
+    try {
+      digest = MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException("SHA-256 is not available", e);
+    }
+    try (JsonGenerator generator =
+        jsonFactory.createGenerator(new DigestOutputStream(OutputStream.nullOutputStream(), digest))) {
+      writeCanonical(document, generator, true);
+    } catch (IOException e) {
+      throw new UncheckedIOException("can't hash document due to " + e.getMessage(), e);
+    }
+    return HexFormat.of().formatHex(digest.digest());
+  }
+
+  private void writeCanonical(JsonNode node, JsonGenerator generator, boolean root)
+      throws IOException {
+    if (node.isObject()) {
+      List<String> fieldNames = new ArrayList<>(node.size());
+      Iterator<String> names = node.fieldNames();
+      while (names.hasNext()) {
+        String name = names.next();
+        if (!root || !IGNORED_FIELDS.contains(name)) {
+          fieldNames.add(name);
+        }
+      }
+      Collections.sort(fieldNames);
+      generator.writeStartObject();
+      for (String name : fieldNames) {
+        generator.writeFieldName(name);
+        writeCanonical(node.get(name), generator, false);
+      }
+      generator.writeEndObject();
+    } else if (node.isArray()) {
+      generator.writeStartArray();
+      for (JsonNode element : node) {
+        writeCanonical(element, generator, false);
+      }
+      generator.writeEndArray();
+    } else {
+      generator.writeTree(node);
+    }
+  }
+}
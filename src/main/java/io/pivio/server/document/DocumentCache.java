@@ -0,0 +1,99 @@
+package io.pivio.server.document;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.Duration;
+import java.util.Optional;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import io.pivio.server.elasticsearch.RawSourceReader;
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * Bounded read-through cache in front of the realtime get of single documents. Entries keep the raw
+ * {@code _source} bytes, are weighed by their size and evicted by Caffeine's W-TinyLFU policy;
+ * writes and deletes invalidate them. Invalidation only reaches the cache of this instance, so a
+ * document changed through another instance is served stale until its entry expires.
+ */
+@Log4j2
+@Component
+public class DocumentCache {
+
+  private final RawSourceReader rawSourceReader;
+  private final ObjectMapper mapper;
+  private final Cache<String, CachedDocument> cache;
+
+  @Value("#{pivioIndex}")
+  private String pivioIndex;
+
+  public DocumentCache(RawSourceReader rawSourceReader, ObjectMapper mapper,
+      MeterRegistry registry,
+      @Value("${pivio.document-cache.max-weight:67108864}") long maxWeightInBytes,
+      @Value("${pivio.document-cache.expire-after-write:30}") long expireAfterWriteSeconds) {
+    this.rawSourceReader = rawSourceReader;
+    this.mapper = mapper;
+    this.cache = Caffeine.newBuilder().maximumWeight(maxWeightInBytes)
+        .weigher((String id, CachedDocument document) -> document.weight())
+        .expireAfterWrite(Duration.ofSeconds(expireAfterWriteSeconds)).recordStats().build();
+    CaffeineCacheMetrics.monitor(registry, cache, "documents");
+  }
+
+  /**
+   * Returns the cached document or loads it from OpenSearch. Missing documents are not cached.
+   */
+  public Optional<CachedDocument> get(String id) throws IOException {
+    try {
+      return Optional.ofNullable(cache.get(id, this::load));
+    } catch (UncheckedIOException e) {
+      throw e.getCause();
+    }
+  }
+
+  public void invalidate(String id) {
+    cache.invalidate(id);
+  }
+
+  private CachedDocument load(String id) {
+    try {
+      return rawSourceReader.read(pivioIndex, id)
+          .map(source -> new CachedDocument(source, eTagOf(source))).orElse(null);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /**
+   * Scans the top level fields of the raw source for the content hash, which doesn't cover the
+   * upload timestamps, so the tag is a weak one. Documents stored before content hashes existed
+   * fall back to their last update.
+   */
+  private String eTagOf(byte[] source) {
+    String version = "";
+    try (JsonParser parser = mapper.getFactory().createParser(source)) {
+      if (parser.nextToken() == JsonToken.START_OBJECT) {
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+          String fieldName = parser.currentName();
+          parser.nextToken();
+          if (ContentHasher.CONTENT_HASH_FIELD.equals(fieldName)) {
+            version = parser.getText();
+            break;
+          } else if ("lastUpdate".equals(fieldName)) {
+            version = parser.getText();
+          } else {
+            parser.skipChildren();
+          }
+        }
+      }
+    } catch (IOException e) {
+      log.warn("can't read version of cached document due to {}", e.getMessage());
+    }
+    return "W/\"" + version + "\"";
+  }
+}
@@ -1,25 +1,26 @@
 package io.pivio.server.document;
 
+import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.net.HttpURLConnection;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Optional;
-import java.util.UUID;
+import org.joda.time.DateTime;
 import org.joda.time.format.ISODateTimeFormat;
 import org.opensearch.client.opensearch.OpenSearchClient;
 import org.opensearch.client.opensearch._types.OpenSearchException;
 import org.opensearch.client.opensearch._types.Result;
-import org.opensearch.client.opensearch._types.query_dsl.IdsQuery;
-import org.opensearch.client.opensearch._types.query_dsl.Query;
 import org.opensearch.client.opensearch.core.DeleteRequest;
 import org.opensearch.client.opensearch.core.DeleteResponse;
-import org.opensearch.client.opensearch.core.IndexResponse;
-import org.opensearch.client.opensearch.core.SearchRequest;
-import org.opensearch.client.opensearch.core.SearchResponse;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.CrossOrigin;
@@ -28,19 +29,24 @@ import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 import org.springframework.web.util.UriComponentsBuilder;
+import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.json.JsonMapper;
-import com.fasterxml.jackson.databind.node.JsonNodeType;
+import com.fasterxml.jackson.databind.node.ArrayNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import io.micrometer.core.instrument.Counter;
 import io.micrometer.core.instrument.MeterRegistry;
-import io.pivio.server.changeset.ChangesetService;
+import io.pivio.server.changeset.ChangesetOutbox;
+import io.pivio.server.changeset.DocumentHistory;
 import io.pivio.server.changeset.DocumentNotFoundException;
-import io.pivio.server.elasticsearch.Changeset;
+import io.pivio.server.changeset.InvalidAsOfParameterException;
+import io.pivio.server.changeset.LatestSnapshotStore;
+import io.pivio.server.elasticsearch.ElasticsearchQueryHelper;
 import lombok.extern.log4j.Log4j2;
 
 @CrossOrigin
@@ -49,10 +55,17 @@ import lombok.extern.log4j.Log4j2;
 @Log4j2
 public class DocumentController {
 
-  private final ChangesetService changesetService;
-  private final List<String> mandatoryFields =
-      Arrays.asList("id", "type", "name", "owner", "description");
-  private final JsonMapper mapper;
+  private final DocumentValidator documentValidator;
+  private final DocumentWriter documentWriter;
+  private final WriteBehindQueue writeBehindQueue;
+  private final ElasticsearchQueryHelper queryHelper;
+  private final DocumentCache documentCache;
+  private final CatalogGeneration catalogGeneration;
+  private final LatestSnapshotStore latestSnapshotStore;
+  private final DocumentLocks documentLocks;
+  private final ChangesetOutbox changesetOutbox;
+  private final DocumentHistory documentHistory;
+  private final ObjectMapper mapper;
   private final OpenSearchClient client;
 
   @Autowired
@@ -67,15 +80,32 @@ public class DocumentController {
   private Counter postDocumentCallsCounter;
   private Counter deleteDocumentCallCounter;
   private Counter getDocumentCallsCounter;
+  private Counter bulkDocumentCallsCounter;
+  private Counter mgetDocumentCallsCounter;
 
-  public DocumentController(ChangesetService changesetService, JsonMapper mapper,
+  public DocumentController(DocumentValidator documentValidator, DocumentWriter documentWriter,
+      WriteBehindQueue writeBehindQueue, ElasticsearchQueryHelper queryHelper,
+      DocumentCache documentCache, CatalogGeneration catalogGeneration,
+      LatestSnapshotStore latestSnapshotStore, DocumentLocks documentLocks,
+      ChangesetOutbox changesetOutbox, DocumentHistory documentHistory, ObjectMapper mapper,
       MeterRegistry registry, OpenSearchClient client) {
     this.client = client;
-    this.changesetService = changesetService;
+    this.documentValidator = documentValidator;
+    this.documentWriter = documentWriter;
+    this.writeBehindQueue = writeBehindQueue;
+    this.queryHelper = queryHelper;
+    this.documentCache = documentCache;
+    this.catalogGeneration = catalogGeneration;
+    this.latestSnapshotStore = latestSnapshotStore;
+    this.documentLocks = documentLocks;
+    this.changesetOutbox = changesetOutbox;
+    this.documentHistory = documentHistory;
     this.mapper = mapper;
     this.postDocumentCallsCounter = registry.counter("counter.calls.document.post");
     this.deleteDocumentCallCounter = registry.counter("counter.calls.document.id.delete");
     this.getDocumentCallsCounter = registry.counter("counter.calls.document.id.get");
+    this.bulkDocumentCallsCounter = registry.counter("counter.calls.document.bulk.post");
+    this.mgetDocumentCallsCounter = registry.counter("counter.calls.document.mget");
   }
 
   @PostMapping(consumes = MediaType.APPLICATION_JSON_VALUE,
@@ -83,161 +113,182 @@ public class DocumentController {
   public ResponseEntity<String> create(@RequestBody ObjectNode document,
       UriComponentsBuilder uriBuilder) throws IOException {
     postDocumentCallsCounter.increment();
-    if (isIdMissingOrEmpty(document)) {
-      throw new DocumentNotFoundException(mapper.writeValueAsString(missingIdError(document)));
-    }
-
-    if (isMandatoryFieldMissingOrEmpty(document)) {
-      throw new MandatoryFieldMissingOrEmptyException(
-          mapper.writeValueAsString(missingMandatoryField(document)));
-    }
-
-    removeNullNodes(document);
+    documentValidator.validate(document);
 
-
-    final Changeset changeset = changesetService.computeNext(document);
     final String documentId = document.get("id").asText();
-    final SearchResponse<JsonNode> existingPivioDocumentResponse = client.search(
-        request -> request.index(changesetIndex).from(0).size(100)
-            .query(query -> query.ids(new IdsQuery.Builder().values(documentId).build())),
-        JsonNode.class);
-    final Optional<JsonNode> existingPivioDocument =
-        Optional.ofNullable(existingPivioDocumentResponse.hits().hits().size() == 1
-            ? objectMapper.readTree(existingPivioDocumentResponse.hits().hits().getFirst().node())
-            : null);
-
-    final String formattedChangeTime = ISODateTimeFormat.dateTime().print(changeset.getTimestamp());
-    existingPivioDocument.ifPresentOrElse(persistedPivioDocument -> {
-      document.put("created",
-          getFieldOrElse(persistedPivioDocument, "created", formattedChangeTime));
-      document.put("lastUpload", ISODateTimeFormat.dateTime().print(changeset.getTimestamp()));
-      if (changeset.isEmpty()) {
-        document.put("lastUpdate",
-            getFieldOrElse(persistedPivioDocument, "lastUpdate", formattedChangeTime));
-      } else {
-        document.put("lastUpdate", formattedChangeTime);
-      }
-    }, () -> {
-      document.put("created", formattedChangeTime);
-      document.put("lastUpdate", formattedChangeTime);
-      document.put("lastUpload", formattedChangeTime);
-    });
-    IndexResponse indexResponse =
-        client.index(request -> request.index(pivioIndex).id(documentId).document(document));
-    switch (indexResponse.result()) {
-      case NoOp:
-      case NotFound:
-        throw new DocumentNotFoundException(
-            document.get("id") + " wasn't indexed successfully: " + indexResponse.result());
-      case Created:
-      case Updated:
-      case Deleted:
-        log.info("indexed {} successfully with result: {}", document.get("id"),
-            indexResponse.result());
+    if (writeBehindQueue.isEnabled()) {
+      String ticket = writeBehindQueue.submit(document);
+      return ResponseEntity.accepted()
+          .location(uriBuilder.path("/document/_status/{ticket}").buildAndExpand(ticket).toUri())
+          .build();
     }
-    if (!changeset.isEmpty()) {
-      IndexResponse changesetIndexResponse =
-          client.index(request -> request.index(changesetIndex).document(changeset));
-      switch (changesetIndexResponse.result()) {
-        case NoOp:
-        case NotFound:
-          throw new DocumentNotFoundException(
-              document.get("id") + " wasn't indexed successfully: " + indexResponse.result());
-        case Created:
-        case Updated:
-        case Deleted:
-          log.info("indexed {} successfully with result: {}", document.get("id"),
-              indexResponse.result());
-      }
-    }
-    // log.info("Indexed document {} for {}", documentId, document.get("name").asText());
+    documentWriter.write(document);
     return ResponseEntity
         .created(uriBuilder.path("/document/{documentId}").buildAndExpand(documentId).toUri())
         .build();
   }
 
-  private JsonNode removeNullNodes(JsonNode node) {
-    Iterator<JsonNode> iterator = node.iterator();
-    while (iterator.hasNext()) {
-      JsonNode next = iterator.next();
-      if (next.getNodeType().equals(JsonNodeType.NULL)) {
-        iterator.remove();
+  @GetMapping(value = "/_status/{ticket}", produces = MediaType.APPLICATION_JSON_VALUE)
+  public ResponseEntity<UploadStatus> status(@PathVariable String ticket) {
+    return ResponseEntity.of(writeBehindQueue.status(ticket));
+  }
+
+  @PostMapping(value = "/_bulk",
+      consumes = {MediaType.APPLICATION_JSON_VALUE, MediaType.APPLICATION_NDJSON_VALUE},
+      produces = MediaType.APPLICATION_JSON_VALUE)
+  public ResponseEntity<JsonNode> bulk(InputStream body) throws IOException {
+    bulkDocumentCallsCounter.increment();
+    final long start = System.currentTimeMillis();
+    final List<JsonNode> uploads = readBulkBody(body);
+    final BulkItemResult[] results = new BulkItemResult[uploads.size()];
+    final List<ObjectNode> validDocuments = new ArrayList<>(uploads.size());
+    final List<Integer> validPositions = new ArrayList<>(uploads.size());
+
+    for (int position = 0; position < uploads.size(); position++) {
+      JsonNode upload = uploads.get(position);
+      if (upload == null || !upload.isObject()) {
+        results[position] = BulkItemResult.failed(null, HttpURLConnection.HTTP_BAD_REQUEST,
+            "item " + position + " is not a JSON object");
+        continue;
       }
-      if (next.getNodeType().equals(JsonNodeType.ARRAY)
-          || next.getNodeType().equals(JsonNodeType.OBJECT)) {
-        JsonNode jsonNode = removeNullNodes(next);
-        if (!jsonNode.iterator().hasNext()) {
-          iterator.remove();
-        }
+      ObjectNode document = (ObjectNode) upload;
+      try {
+        documentValidator.validate(document);
+        validDocuments.add(document);
+        validPositions.add(position);
+      } catch (DocumentNotFoundException | MandatoryFieldMissingOrEmptyException e) {
+        results[position] = BulkItemResult.failed(document.path("id").asText(null),
+            HttpURLConnection.HTTP_BAD_REQUEST, e.getMessage());
       }
     }
-    return node;
-  }
 
-  private JsonNode missingMandatoryField(JsonNode document) {
-    ObjectNode error = mapper.createObjectNode();
-    String missingMandatoryField = getMissingMandatoryField(document);
-    if (missingMandatoryField != null) {
-      log.info("Received document with missing mandatory field in {}", document.toString());
-      error.put("error", "mandatory field '" + missingMandatoryField + "' is missing");
-    } else {
-      log.info("Received document with empty mandatory field in {}", document.toString());
-      error.put("error", "mandatory field '" + getEmptyMandatoryField(document) + "' is empty");
+    List<BulkItemResult> writeResults = documentWriter.writeAll(validDocuments);
+    for (int i = 0; i < writeResults.size(); i++) {
+      results[validPositions.get(i)] = writeResults.get(i);
     }
-    return error;
-  }
 
-  private JsonNode missingIdError(JsonNode document) {
-    log.info("Received document without or with empty id field in {}", document.toString());
-    ObjectNode newId = mapper.createObjectNode();
-    newId.put("id", UUID.randomUUID().toString());
-    return newId;
+    ObjectNode response = mapper.createObjectNode();
+    response.put("took", System.currentTimeMillis() - start);
+    response.put("errors", Arrays.stream(results).anyMatch(BulkItemResult::isFailed));
+    response.set("items", mapper.valueToTree(results));
+    return ResponseEntity.ok(response);
   }
 
-  private boolean isIdMissingOrEmpty(JsonNode document) {
-    return document.get("id") == null || document.get("id").asText("") == null;
-  }
+  /**
+   * Reads either a JSON array of documents or newline delimited JSON. A malformed line of the
+   * latter is reported as {@code null} so that it fails on its own.
+   */
+  private List<JsonNode> readBulkBody(InputStream body) throws IOException {
+    final List<JsonNode> uploads = new ArrayList<>();
+    final BufferedReader reader =
+        new BufferedReader(new InputStreamReader(body, StandardCharsets.UTF_8));
+    StringBuilder jsonArray = null;
+    String line;
+    while ((line = reader.readLine()) != null) {
+      if (jsonArray != null) {
+        jsonArray.append(line).append('\n');
+      } else if (line.isBlank()) {
+        continue;
+      } else if (uploads.isEmpty() && line.stripLeading().startsWith("[")) {
+        jsonArray = new StringBuilder(line).append('\n');
+      } else {
+        try {
+          uploads.add(mapper.readTree(line));
+        } catch (JsonProcessingException e) {
+          log.info("Received malformed line in bulk upload: {}", e.getOriginalMessage());
+          uploads.add(null);
+        }
+      }
+    }
 
-  private String getFieldOrElse(JsonNode json, String fieldName, String defaultValue) {
-    return json.has(fieldName) ? json.get(fieldName).textValue() : defaultValue;
+    if (jsonArray != null) {
+      try {
+        JsonNode array = mapper.readTree(jsonArray.toString());
+        if (!array.isArray()) {
+          throw new InvalidBulkRequestException("bulk body is neither a JSON array nor NDJSON");
+        }
+        array.forEach(uploads::add);
+      } catch (JsonProcessingException e) {
+        throw new InvalidBulkRequestException(
+            "bulk body is not a valid JSON array: " + e.getOriginalMessage());
+      }
+    }
+    return uploads;
   }
 
-  private boolean isMandatoryFieldMissingOrEmpty(JsonNode document) {
-    return getMissingMandatoryField(document) != null || getEmptyMandatoryField(document) != null;
+  @GetMapping(value = "/{id}", produces = MediaType.APPLICATION_JSON_VALUE)
+  public ResponseEntity<byte[]> get(@PathVariable String id,
+      @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch,
+      @RequestParam(required = false) String asOf) throws IOException {
+    getDocumentCallsCounter.increment();
+    if (asOf != null) {
+      return getAsOf(id, asOf);
+    }
+    try {
+      Optional<CachedDocument> cachedDocument = documentCache.get(id);
+      if (cachedDocument.isEmpty()) {
+        return ResponseEntity.notFound().build();
+      }
+      CachedDocument document = cachedDocument.get();
+      if (document.matches(ifNoneMatch)) {
+        return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(document.eTag()).build();
+      }
+      return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON).eTag(document.eTag())
+          .body(document.source());
+    } catch (OpenSearchException | IOException e) {
+      log.error("can't query OpenSearchServer due to " + e.getMessage(), e);
+      return ResponseEntity.status(HttpURLConnection.HTTP_UNAVAILABLE).build();
+    }
   }
 
-  private String getMissingMandatoryField(JsonNode document) {
-    for (String field : mandatoryFields) {
-      if (!document.has(field)) {
-        return field;
+  /**
+   * Rebuilds the document as it was at the given ISO 8601 timestamp.
+   */
+  private ResponseEntity<byte[]> getAsOf(String id, String asOf) throws IOException {
+    final DateTime timestamp;
+    try {
+      timestamp = ISODateTimeFormat.dateTimeParser().withOffsetParsed().parseDateTime(asOf);
+    } catch (IllegalArgumentException e) {
+      throw new InvalidAsOfParameterException(asOf);
+    }
+    try {
+      Optional<JsonNode> document = documentHistory.asOf(id, timestamp);
+      if (document.isEmpty()) {
+        return ResponseEntity.notFound().build();
       }
+      return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON)
+          .body(mapper.writeValueAsBytes(document.get()));
+    } catch (OpenSearchException e) {
+      log.error("can't query OpenSearchServer due to " + e.getMessage(), e);
+      return ResponseEntity.status(HttpURLConnection.HTTP_UNAVAILABLE).build();
     }
-    return null;
   }
 
-  private String getEmptyMandatoryField(JsonNode document) {
-    for (String field : mandatoryFields) {
-      if (document.has(field) && document.get(field).asText("") != null) {
-        return field;
-      }
+  @GetMapping(value = "/_mget", produces = MediaType.APPLICATION_JSON_VALUE)
+  public ResponseEntity<ArrayNode> multiGet(@RequestParam List<String> ids) {
+    return retrieveDocuments(ids);
+  }
+
+  @PostMapping(value = "/_mget", consumes = MediaType.APPLICATION_JSON_VALUE,
+      produces = MediaType.APPLICATION_JSON_VALUE)
+  public ResponseEntity<ArrayNode> multiGet(@RequestBody JsonNode body) {
+    if (!body.path("ids").isArray()) {
+      log.info("Received multi get request without ids array: {}", body);
+      return ResponseEntity.badRequest().build();
     }
-    return null;
+    List<String> ids = new ArrayList<>(body.get("ids").size());
+    body.get("ids").forEach(id -> ids.add(id.asText()));
+    return retrieveDocuments(ids);
   }
 
-  @GetMapping(value = "/{id}", produces = MediaType.APPLICATION_JSON_VALUE)
-  public ResponseEntity<JsonNode> get(@PathVariable String id) throws IOException {
-    getDocumentCallsCounter.increment();
-    List<String> _id = List.of(id);
-    IdsQuery idsQuery = IdsQuery.of(builder -> builder.values(_id));
-    SearchRequest searchRequest = SearchRequest.of(
-        s -> s.index("steckbrief").from(0).size(_id.size()).query(Query.of(q -> q.ids(idsQuery))));
+  private ResponseEntity<ArrayNode> retrieveDocuments(List<String> ids) {
+    mgetDocumentCallsCounter.increment();
+    List<String> nonEmptyIds = ids.stream().filter(id -> !id.isBlank()).toList();
+    if (nonEmptyIds.isEmpty()) {
+      return ResponseEntity.ok(mapper.createArrayNode());
+    }
     try {
-      SearchResponse<JsonNode> response = client.search(searchRequest, JsonNode.class);
-      List<JsonNode> responseObjects = response.documents();
-      if (responseObjects.isEmpty()) {
-        return ResponseEntity.notFound().build();
-      }
-      return ResponseEntity.ok(responseObjects.get(0));
+      return ResponseEntity.ok(queryHelper.retrieveDocuments(nonEmptyIds));
     } catch (OpenSearchException | IOException e) {
       log.error("can't query OpenSearchServer due to " + e.getMessage(), e);
       return ResponseEntity.status(HttpURLConnection.HTTP_UNAVAILABLE).build();
@@ -249,25 +300,32 @@ public class DocumentController {
     log.info("Try to delete document {}", id);
     deleteDocumentCallCounter.increment();
     log.info("Try to delete document {}", id);
-    DeleteRequest request = new DeleteRequest.Builder().index("steckbrief").id(id).build();
-    DeleteResponse response = client.delete(request);
-    switch (response.result()) {
-      case Deleted:
-        DeleteRequest changesetRequest =
-            new DeleteRequest.Builder().index("changeset").id(id).build();
-        DeleteResponse changesetResponse = client.delete(changesetRequest);
-        if (changesetResponse.result() == Result.Deleted) {
+    // keeps a concurrent upload of the document from reviving its latest snapshot
+    try (DocumentLocks.Lock lock = documentLocks.lock(List.of(id))) {
+      DeleteRequest request = new DeleteRequest.Builder().index("steckbrief").id(id).build();
+      DeleteResponse response = client.delete(request);
+      documentCache.invalidate(id);
+      catalogGeneration.advance();
+      switch (response.result()) {
+        case Deleted:
+          changesetOutbox.discard(id);
+          latestSnapshotStore.markDeleted(id);
+          DeleteRequest changesetRequest =
+              new DeleteRequest.Builder().index("changeset").id(id).build();
+          DeleteResponse changesetResponse = client.delete(changesetRequest);
+          if (changesetResponse.result() == Result.Deleted) {
 
-          log.info("Deleted document {} successfully", id);
-          return ResponseEntity.noContent().build();
-        } else {
+            log.info("Deleted document {} successfully", id);
+            return ResponseEntity.noContent().build();
+          } else {
+            log.warn("Could not delete document {}", id);
+            return ResponseEntity.notFound().build();
+          }
+
+        default:
           log.warn("Could not delete document {}", id);
           return ResponseEntity.notFound().build();
-        }
-
-      default:
-        log.warn("Could not delete document {}", id);
-        return ResponseEntity.notFound().build();
+      }
     }
   }
 }
@@ -0,0 +1,55 @@
+package io.pivio.server.document;
+
+import java.util.Collection;
+import java.util.concurrent.locks.ReentrantLock;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Striped locks serializing the writes of a document within this instance. Uploads of different
+ * documents only contend if their ids share a stripe. Stripes are always acquired in ascending
+ * order, so batches locking several documents can't deadlock.
+ */
+@Component
+public class DocumentLocks {
+
+  private final ReentrantLock[] stripes;
+
+  public DocumentLocks(@Value("${pivio.write.lock-stripes:256}") int stripeCount) {
+    this.stripes = new ReentrantLock[Math.max(1, stripeCount)];
+    for (int stripe = 0; stripe < stripes.length; stripe++) {
+      stripes[stripe] = new ReentrantLock();
+    }
+  }
+
+  /**
+   * Locks the stripes of all given document ids until the returned lock is closed.
+   */
+  public Lock lock(Collection<String> ids) {
+    final int[] lockedStripes = ids.stream().mapToInt(this::stripeOf).distinct().sorted().toArray();
+    for (int stripe : lockedStripes) {
+      stripes[stripe].lock();
+    }
+    return new Lock(lockedStripes);
+  }
+
+  int stripeOf(String id) {
+    return Math.floorMod(id.hashCode() * 0x9E3779B9, stripes.length);
+  }
+
+  public final class Lock implements AutoCloseable {
+
+    private final int[] lockedStripes;
+
+    private Lock(int[] lockedStripes) {
+      this.lockedStripes = lockedStripes;
+    }
+
+    @Override
+    public void close() {
+      for (int i = lockedStripes.length - 1; i >= 0; i--) {
+        stripes[lockedStripes[i]].unlock();
+      }
+    }
+  }
+}
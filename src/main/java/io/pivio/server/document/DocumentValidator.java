@@ -0,0 +1,113 @@
+package io.pivio.server.document;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.UUID;
+import org.springframework.stereotype.Component;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.JsonNodeType;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import io.pivio.server.changeset.DocumentNotFoundException;
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * Checks uploaded documents for their id and the mandatory fields before they are written.
+ */
+@Log4j2
+@Component
+public class DocumentValidator {
+
+  private final List<String> mandatoryFields =
+      Arrays.asList("id", "type", "name", "owner", "description");
+  private final ObjectMapper mapper;
+
+  public DocumentValidator(ObjectMapper mapper) {
+    this.mapper = mapper;
+  }
+
+  /**
+   * Validates the document and strips its null values.
+   *
+   * @throws DocumentNotFoundException if the id is missing or empty
+   * @throws MandatoryFieldMissingOrEmptyException if any other mandatory field is missing or empty
+   */
+  public void validate(ObjectNode document) throws JsonProcessingException {
+    if (isIdMissingOrEmpty(document)) {
+      throw new DocumentNotFoundException(mapper.writeValueAsString(missingIdError(document)));
+    }
+
+    if (isMandatoryFieldMissingOrEmpty(document)) {
+      throw new MandatoryFieldMissingOrEmptyException(
+          mapper.writeValueAsString(missingMandatoryField(document)));
+    }
+
+    removeNullNodes(document);
+  }
+
+  private JsonNode removeNullNodes(JsonNode node) {
+    Iterator<JsonNode> iterator = node.iterator();
+    while (iterator.hasNext()) {
+      JsonNode next = iterator.next();
+      if (next.getNodeType().equals(JsonNodeType.NULL)) {
+        iterator.remove();
+      }
+      if (next.getNodeType().equals(JsonNodeType.ARRAY)
+          || next.getNodeType().equals(JsonNodeType.OBJECT)) {
+        JsonNode jsonNode = removeNullNodes(next);
+        if (!jsonNode.iterator().hasNext()) {
+          iterator.remove();
+        }
+      }
+    }
+    return node;
+  }
+
+  private JsonNode missingMandatoryField(JsonNode document) {
+    ObjectNode error = mapper.createObjectNode();
+    String missingMandatoryField = getMissingMandatoryField(document);
+    if (missingMandatoryField != null) {
+      log.info("Received document with missing mandatory field in {}", document.toString());
+      error.put("error", "mandatory field '" + missingMandatoryField + "' is missing");
+    } else {
+      log.info("Received document with empty mandatory field in {}", document.toString());
+      error.put("error", "mandatory field '" + getEmptyMandatoryField(document) + "' is empty");
+    }
+    return error;
+  }
+
+  private JsonNode missingIdError(JsonNode document) {
+    log.info("Received document without or with empty id field in {}", document.toString());
+    ObjectNode newId = mapper.createObjectNode();
+    newId.put("id", UUID.randomUUID().toString());
+    return newId;
+  }
+
+  private boolean isIdMissingOrEmpty(JsonNode document) {
+    return document.get("id") == null || document.get("id").asText("").isEmpty();
+  }
+
+  private boolean isMandatoryFieldMissingOrEmpty(JsonNode document) {
+    return getMissingMandatoryField(document) != null || getEmptyMandatoryField(document) != null;
+  }
+
+  private String getMissingMandatoryField(JsonNode document) {
+    for (String field : mandatoryFields) {
+      if (!document.has(field)) {
+        return field;
+      }
+    }
+    return null;
+  }
+
+  private String getEmptyMandatoryField(JsonNode document) {
+    for (String field : mandatoryFields) {
+      if (document.has(field) && document.get(field).asText("").isEmpty()) {
+        return field;
+      }
+    }
+    return null;
+  }
+}
@@ -0,0 +1,439 @@
+package io.pivio.server.document;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import org.joda.time.DateTime;
+import org.joda.time.format.ISODateTimeFormat;
+import org.opensearch.client.opensearch.OpenSearchClient;
+import org.opensearch.client.opensearch.core.BulkResponse;
+import org.opensearch.client.opensearch.core.MgetResponse;
+import org.opensearch.client.opensearch.core.bulk.BulkOperation;
+import org.opensearch.client.opensearch.core.bulk.BulkResponseItem;
+import org.opensearch.client.opensearch.core.mget.MultiGetResponseItem;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.pivio.server.changeset.ChangesetFeed;
+import io.pivio.server.changeset.ChangesetOutbox;
+import io.pivio.server.changeset.ChangesetService;
+import io.pivio.server.changeset.DocumentNotFoundException;
+import io.pivio.server.changeset.LatestSnapshot;
+import io.pivio.server.changeset.LatestSnapshotStore;
+import io.pivio.server.elasticsearch.Changeset;
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * Persists validated documents together with their changesets and latest snapshots through the
+ * bulk API. The previous state of a document is read from the {@link LatestSnapshotStore}, so an
+ * upload takes at most one read and two bulk requests.
+ *
+ * <p>
+ * Writes of the same document are serialized by {@link DocumentLocks} within this instance. Across
+ * instances the latest snapshot is claimed by a conditional write on its sequence number; a lost
+ * claim is retried up to {@code pivio.write.max-retries} times, so changeset orders stay unique.
+ * In outbox mode only the documents and their {@link ChangesetOutbox} records are written.
+ */
+@Log4j2
+@Component
+public class DocumentWriter {
+
+  private final ChangesetService changesetService;
+  private final ContentHasher contentHasher;
+  private final DocumentCache documentCache;
+  private final CatalogGeneration catalogGeneration;
+  private final LatestSnapshotStore latestSnapshotStore;
+  private final DocumentLocks documentLocks;
+  private final ChangesetOutbox changesetOutbox;
+  private final ChangesetFeed changesetFeed;
+  private final OpenSearchClient client;
+  private final Counter conflictCounter;
+
+  @Value("#{pivioIndex}")
+  private String pivioIndex;
+
+  @Value("#{changesetIndex}")
+  private String changesetIndex;
+
+  @Value("${pivio.bulk.batch-size:500}")
+  private int batchSize;
+
+  @Value("${pivio.write.max-retries:3}")
+  private int maxRetries;
+
+  @Value("${pivio.write.lock-group-size:32}")
+  private int lockGroupSize;
+
+  public DocumentWriter(ChangesetService changesetService, ContentHasher contentHasher,
+      DocumentCache documentCache, CatalogGeneration catalogGeneration,
+      LatestSnapshotStore latestSnapshotStore, DocumentLocks documentLocks,
+      ChangesetOutbox changesetOutbox, ChangesetFeed changesetFeed, OpenSearchClient client,
+      MeterRegistry registry) {
+    this.changesetService = changesetService;
+    this.contentHasher = contentHasher;
+    this.documentCache = documentCache;
+    this.catalogGeneration = catalogGeneration;
+    this.latestSnapshotStore = latestSnapshotStore;
+    this.documentLocks = documentLocks;
+    this.changesetOutbox = changesetOutbox;
+    this.changesetFeed = changesetFeed;
+    this.client = client;
+    this.conflictCounter = registry.counter("counter.changeset.conflicts");
+  }
+
+  public void write(ObjectNode document) throws IOException {
+    BulkItemResult result = writeBatch(List.of(document)).get(0);
+    if (result.isFailed()) {
+      throw new DocumentNotFoundException(
+          document.get("id") + " wasn't indexed successfully: " + result.getError());
+    }
+    log.info("indexed {} successfully with result: {}", document.get("id"), result.getResult());
+  }
+
+  /**
+   * Writes the documents in batches of {@code pivio.bulk.batch-size} bulk requests. The returned
+   * results have the same order as the given documents; a failing document doesn't affect the
+   * others.
+   */
+  public List<BulkItemResult> writeAll(List<ObjectNode> documents) throws IOException {
+    List<BulkItemResult> results = new ArrayList<>(documents.size());
+    for (int from = 0; from < documents.size(); from += batchSize) {
+      results.addAll(
+          writeBatch(documents.subList(from, Math.min(from + batchSize, documents.size()))));
+    }
+    return results;
+  }
+
+  /**
+   * Writes the documents in rounds of distinct ids. Uploads of the same document within the batch
+   * are written in consecutive rounds, so each of them diffs against the previous one. A round is
+   * written in groups of {@code pivio.write.lock-group-size} documents and only the ids of the
+   * current group are locked, so a large batch doesn't hold most of the stripes at once.
+   */
+  private List<BulkItemResult> writeBatch(List<ObjectNode> documents) throws IOException {
+    final BulkItemResult[] results = new BulkItemResult[documents.size()];
+    final int[] attempts = new int[documents.size()];
+    List<Integer> pending =
+        IntStream.range(0, documents.size()).boxed().collect(Collectors.toList());
+    while (!pending.isEmpty()) {
+      final Map<String, Integer> round = new LinkedHashMap<>();
+      final List<Integer> next = new ArrayList<>();
+      for (int position : pending) {
+        if (round.putIfAbsent(documents.get(position).get("id").asText(), position) != null) {
+          next.add(position);
+        }
+      }
+      final List<Integer> conflicted = new ArrayList<>();
+      final List<Integer> positions = new ArrayList<>(round.values());
+      for (int from = 0; from < positions.size(); from += lockGroupSize) {
+        final List<Integer> group =
+            positions.subList(from, Math.min(from + lockGroupSize, positions.size()));
+        try (DocumentLocks.Lock lock = documentLocks.lock(group.stream()
+            .map(position -> documents.get(position).get("id").asText()).toList())) {
+          conflicted.addAll(changesetOutbox.isEnabled()
+              ? writeRoundToOutbox(documents, group, results)
+              : writeRound(documents, group, results));
+        }
+      }
+      for (int position : conflicted) {
+        if (++attempts[position] > maxRetries) {
+          String documentId = documents.get(position).get("id").asText();
+          log.warn("giving up on {} after {} concurrent modifications", documentId,
+              attempts[position]);
+          results[position] = BulkItemResult.failed(documentId, 409, "concurrent modification");
+        } else {
+          next.add(position);
+        }
+      }
+      Collections.sort(next);
+      pending = next;
+    }
+    return Arrays.asList(results);
+  }
+
+  /**
+   * Writes documents with distinct ids in two bulk requests. The first one claims the next latest
+   * snapshot of every changed document by a conditional write, the second one indexes the claimed
+   * documents and their changesets. Returns the positions whose claim conflicted with a write of
+   * another instance; they are retried against the then latest snapshot.
+   */
+  private List<Integer> writeRound(List<ObjectNode> documents, Collection<Integer> positions,
+      BulkItemResult[] results) throws IOException {
+    final Map<String, LatestSnapshot> latestSnapshots = new HashMap<>(latestSnapshotStore.getAll(
+        positions.stream().map(position -> documents.get(position).get("id").asText()).toList()));
+    // a changed document is claimed conditionally, but an unchanged one isn't written at all, so
+    // its cached snapshot might hide a newer version written by another instance
+    final Map<String, String> contentHashes = new HashMap<>();
+    for (int position : positions) {
+      final ObjectNode document = documents.get(position);
+      contentHashes.put(document.get("id").asText(), contentHasher.hash(document));
+    }
+    final List<String> seeminglyUnchanged = contentHashes.entrySet().stream()
+        .filter(hash -> isUnchanged(Optional.ofNullable(latestSnapshots.get(hash.getKey())),
+            hash.getValue()))
+        .map(Map.Entry::getKey).toList();
+    if (!seeminglyUnchanged.isEmpty()) {
+      final Map<String, LatestSnapshot> reloaded = latestSnapshotStore.reload(seeminglyUnchanged);
+      for (String documentId : seeminglyUnchanged) {
+        latestSnapshots.remove(documentId);
+        Optional.ofNullable(reloaded.get(documentId))
+            .ifPresent(snapshot -> latestSnapshots.put(documentId, snapshot));
+      }
+    }
+    final List<Integer> unchanged = new ArrayList<>();
+    final List<BulkOperation> claims = new ArrayList<>();
+    final List<Integer> claimOwners = new ArrayList<>();
+    final List<LatestSnapshot> claimSnapshots = new ArrayList<>();
+    final Map<Integer, Changeset> changesets = new HashMap<>();
+    final Map<Integer, Optional<LatestSnapshot>> previousSnapshots = new HashMap<>();
+    final Map<Integer, LatestSnapshot> claimedSnapshots = new HashMap<>();
+
+    for (int position : positions) {
+      final ObjectNode document = documents.get(position);
+      final String documentId = document.get("id").asText();
+      final Optional<LatestSnapshot> latest = Optional.ofNullable(latestSnapshots.get(documentId));
+      final Optional<JsonNode> persistedDocument =
+          latest.filter(snapshot -> !snapshot.isDeleted()).map(LatestSnapshot::getSnapshot);
+      final String contentHash = contentHashes.get(documentId);
+      if (isUnchanged(latest, contentHash)) {
+        unchanged.add(position);
+        continue;
+      }
+
+      document.put(ContentHasher.CONTENT_HASH_FIELD, contentHash);
+      final Changeset changeset;
+      try {
+        changeset = changesetService.computeNext(document, latest);
+      } catch (RuntimeException e) {
+        log.warn("can't compute changeset of {} due to {}", documentId, e.getMessage());
+        results[position] = BulkItemResult.failed(documentId, 400, e.getMessage());
+        continue;
+      }
+      applyTimestamps(document, changeset.getTimestamp(), !changeset.isEmpty(), persistedDocument);
+      final LatestSnapshot next = latestSnapshotStore.next(latest, document, changeset);
+      claims.add(latestSnapshotStore.claimOperation(latest, next));
+      claimOwners.add(position);
+      claimSnapshots.add(next);
+      changesets.put(position, changeset);
+      previousSnapshots.put(position, latest);
+    }
+
+    final List<Integer> conflicted = new ArrayList<>();
+    final List<Integer> claimed = new ArrayList<>();
+    if (!claims.isEmpty()) {
+      BulkResponse response = client.bulk(request -> request.operations(claims));
+      List<BulkResponseItem> items = response.items();
+      for (int claim = 0; claim < items.size(); claim++) {
+        int position = claimOwners.get(claim);
+        String documentId = documents.get(position).get("id").asText();
+        BulkResponseItem item = items.get(claim);
+        if (item.error() == null) {
+          latestSnapshotStore.remember(claimSnapshots.get(claim), item.seqNo(),
+              item.primaryTerm());
+          claimedSnapshots.put(position, claimSnapshots.get(claim));
+          claimed.add(position);
+          continue;
+        }
+        latestSnapshotStore.invalidate(documentId);
+        if (item.status() == 409) {
+          log.info("latest snapshot of {} was modified concurrently", documentId);
+          conflictCounter.increment();
+          conflicted.add(position);
+        } else {
+          log.warn("can't claim latest snapshot of {} due to {}", documentId,
+              item.error().reason());
+          results[position] = BulkItemResult.failed(documentId, item.status(),
+              item.error().reason());
+        }
+      }
+    }
+
+    final List<BulkOperation> operations = new ArrayList<>();
+    final List<Integer> operationOwners = new ArrayList<>();
+    final Map<Integer, Changeset> changesetOperations = new HashMap<>();
+    for (int position : claimed) {
+      final ObjectNode document = documents.get(position);
+      final Changeset changeset = changesets.get(position);
+      operations.add(BulkOperation.of(operation -> operation.index(
+          index -> index.index(pivioIndex).id(document.get("id").asText()).document(document))));
+      operationOwners.add(position);
+      if (!changeset.isEmpty()) {
+        changesetOperations.put(operations.size(), changeset);
+        operations.add(BulkOperation.of(operation -> operation
+            .index(index -> index.index(changesetIndex).document(changeset))));
+        operationOwners.add(position);
+      }
+    }
+    for (int position : unchanged) {
+      final String documentId = documents.get(position).get("id").asText();
+      final Map<String, String> lastUploadUpdate = lastUploadUpdate();
+      operations.add(BulkOperation.of(operation -> operation.update(
+          update -> update.index(pivioIndex).id(documentId).document(lastUploadUpdate))));
+      operationOwners.add(position);
+    }
+
+    if (!operations.isEmpty()) {
+      BulkResponse response = client.bulk(request -> request.operations(operations));
+      catalogGeneration.advance();
+      List<BulkResponseItem> items = response.items();
+      for (int operation = 0; operation < items.size(); operation++) {
+        int position = operationOwners.get(operation);
+        String documentId = documents.get(position).get("id").asText();
+        BulkResponseItem item = items.get(operation);
+        documentCache.invalidate(documentId);
+        if (item.error() != null) {
+          log.warn("can't index {} into {} due to {}", documentId, item.index(),
+              item.error().reason());
+          boolean firstFailure = results[position] == null || !results[position].isFailed();
+          results[position] = BulkItemResult.failed(documentId, item.status(),
+              item.error().reason());
+          if (firstFailure && claimedSnapshots.containsKey(position)) {
+            // the document itself wasn't indexed, so its snapshot must not claim it
+            latestSnapshotStore.restore(documentId, claimedSnapshots.get(position),
+                previousSnapshots.get(position));
+          }
+        } else if (results[position] == null) {
+          results[position] = BulkItemResult.succeeded(documentId, item.status(), item.result());
+        }
+      }
+      changesetOperations.forEach((operation, changeset) -> {
+        if (!results[operationOwners.get(operation)].isFailed()) {
+          changesetFeed.publish(changeset);
+        }
+      });
+      log.info("bulk indexed {} operations for {} documents, errors: {}", items.size(),
+          positions.size(), response.errors());
+    }
+    return conflicted;
+  }
+
+  /**
+   * Writes documents with distinct ids together with their outbox records in one bulk request. The
+   * latest snapshots lag behind while records are pending, so unchanged uploads are detected and
+   * timestamps taken from the stored documents instead.
+   */
+  private List<Integer> writeRoundToOutbox(List<ObjectNode> documents,
+      Collection<Integer> positions, BulkItemResult[] results) throws IOException {
+    final Map<String, JsonNode> storedDocuments = readBookkeeping(positions.stream()
+        .map(position -> documents.get(position).get("id").asText()).toList());
+    final List<BulkOperation> operations = new ArrayList<>();
+    final List<Integer> operationOwners = new ArrayList<>();
+    final Map<Integer, String> recordIds = new HashMap<>();
+    for (int position : positions) {
+      final ObjectNode document = documents.get(position);
+      final String documentId = document.get("id").asText();
+      final Optional<JsonNode> stored = Optional.ofNullable(storedDocuments.get(documentId));
+      final String contentHash = contentHasher.hash(document);
+      if (stored.map(json -> contentHash.equals(json.path(ContentHasher.CONTENT_HASH_FIELD)
+          .asText(null))).orElse(false)) {
+        final Map<String, String> lastUploadUpdate = lastUploadUpdate();
+        operations.add(BulkOperation.of(operation -> operation.update(
+            update -> update.index(pivioIndex).id(documentId).document(lastUploadUpdate))));
+        operationOwners.add(position);
+        continue;
+      }
+
+      document.put(ContentHasher.CONTENT_HASH_FIELD, contentHash);
+      applyTimestamps(document, DateTime.now(), true, stored);
+      operations.add(BulkOperation.of(operation -> operation
+          .index(index -> index.index(pivioIndex).id(documentId).document(document))));
+      operationOwners.add(position);
+      final String recordId = changesetOutbox.newRecordId();
+      operations.add(changesetOutbox.recordOperation(recordId, document));
+      operationOwners.add(position);
+      recordIds.put(position, recordId);
+    }
+
+    if (!operations.isEmpty()) {
+      BulkResponse response = client.bulk(request -> request.operations(operations));
+      catalogGeneration.advance();
+      List<BulkResponseItem> items = response.items();
+      for (int operation = 0; operation < items.size(); operation++) {
+        int position = operationOwners.get(operation);
+        String documentId = documents.get(position).get("id").asText();
+        BulkResponseItem item = items.get(operation);
+        documentCache.invalidate(documentId);
+        if (item.error() != null) {
+          log.warn("can't index {} into {} due to {}", documentId, item.index(),
+              item.error().reason());
+          results[position] = BulkItemResult.failed(documentId, item.status(),
+              item.error().reason());
+        } else if (results[position] == null) {
+          results[position] = BulkItemResult.succeeded(documentId, item.status(), item.result());
+        }
+      }
+      // a record must not describe a document that wasn't stored
+      final List<BulkOperation> orphans = recordIds.entrySet().stream()
+          .filter(record -> results[record.getKey()].isFailed())
+          .map(record -> changesetOutbox.deleteOperation(record.getValue())).toList();
+      if (!orphans.isEmpty()) {
+        client.bulk(request -> request.operations(orphans));
+      }
+      log.info("bulk indexed {} operations for {} documents into the outbox, errors: {}",
+          items.size(), positions.size(), response.errors());
+    }
+    return List.of();
+  }
+
+  private Map<String, JsonNode> readBookkeeping(List<String> ids) throws IOException {
+    final MgetResponse<JsonNode> response = client.mget(request -> request.index(pivioIndex)
+        .ids(ids).realtime(true)
+        .sourceIncludes(List.of("created", "lastUpdate", ContentHasher.CONTENT_HASH_FIELD)),
+        JsonNode.class);
+    final Map<String, JsonNode> storedDocuments = new HashMap<>();
+    for (MultiGetResponseItem<JsonNode> item : response.docs()) {
+      if (item.isResult() && item.result().found() && item.result().source() != null) {
+        storedDocuments.put(item.result().id(), item.result().source());
+      }
+    }
+    return storedDocuments;
+  }
+
+  /**
+   * A document whose canonical hash equals the stored one needs neither a diff nor a re-index.
+   */
+  private boolean isUnchanged(Optional<LatestSnapshot> latest, String contentHash) {
+    return latest.filter(snapshot -> !snapshot.isDeleted())
+        .map(snapshot -> contentHash.equals(snapshot.getContentHash())).orElse(false);
+  }
+
+  private Map<String, String> lastUploadUpdate() {
+    return Map.of("lastUpload", ISODateTimeFormat.dateTime().print(DateTime.now()));
+  }
+
+  private void applyTimestamps(ObjectNode document, DateTime changeTime, boolean changed,
+      Optional<JsonNode> persistedDocument) {
+    final String formattedChangeTime = ISODateTimeFormat.dateTime().print(changeTime);
+    persistedDocument.ifPresentOrElse(persistedPivioDocument -> {
+      document.put("created",
+          getFieldOrElse(persistedPivioDocument, "created", formattedChangeTime));
+      document.put("lastUpload", formattedChangeTime);
+      if (changed) {
+        document.put("lastUpdate", formattedChangeTime);
+      } else {
+        document.put("lastUpdate",
+            getFieldOrElse(persistedPivioDocument, "lastUpdate", formattedChangeTime));
+      }
+    }, () -> {
+      document.put("created", formattedChangeTime);
+      document.put("lastUpdate", formattedChangeTime);
+      document.put("lastUpload", formattedChangeTime);
+    });
+  }
+
+  private String getFieldOrElse(JsonNode json, String fieldName, String defaultValue) {
+    return json.has(fieldName) ? json.get(fieldName).textValue() : defaultValue;
+  }
+}
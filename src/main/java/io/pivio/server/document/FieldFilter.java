@@ -2,72 +2,106 @@ package io.pivio.server.document;
 
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import org.springframework.stereotype.Component;
 
-import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 
+/**
+ * Picks the requested dotted field paths out of documents. The paths are compiled into a trie once
+ * per request, which is then applied in a single pass over each document. Arrays are projected
+ * element by element, so {@code software_dependencies.name} keeps the names of all dependencies.
+ */
 @Component
 class FieldFilter {
 
-    private final ObjectMapper mapper;
+    private final JsonNodeFactory nodeFactory;
 
     public FieldFilter(ObjectMapper mapper) {
-        this.mapper = mapper;
+        this.nodeFactory = mapper.getNodeFactory();
     }
 
     JsonNode filterFields(JsonNode document, List<String> fields) {
-        List<String> fieldsWithSubFields = getFieldWithSubFields(fields);
-        Iterator<Map.Entry<String, JsonNode>> allFields = document.fields();
-        ObjectNode filteredDocument = mapper.createObjectNode();
-
-        while (allFields.hasNext()) {
-            Map.Entry<String, JsonNode> currentField = allFields.next();
+        return compile(fields).apply(document);
+    }
 
-            if (fields.contains(currentField.getKey())) {
-                filteredDocument.set(currentField.getKey(), currentField.getValue());
-            }
-            if (fieldsWithSubFields.contains(currentField.getKey())) {
-                ObjectNode subDocument = createSubDocumentWithItsChildrenAsTopLevelAttributes(currentField);
-                JsonNode subNode = filterFields(subDocument, getSubFieldForField(currentField.getKey(), fields));
-                filteredDocument.set(currentField.getKey(), subNode);
+    Projection compile(List<String> fields) {
+        Projection root = new Projection(nodeFactory);
+        for (String field : fields) {
+            Projection current = root;
+            for (String segment : field.trim().split("[.]")) {
+                if (current.whole) {
+                    break;
+                }
+                current = current.children.computeIfAbsent(segment,
+                        name -> new Projection(nodeFactory));
             }
+            current.whole = true;
+            current.children.clear();
         }
-        return filteredDocument;
+        return root;
     }
 
-    private ObjectNode createSubDocumentWithItsChildrenAsTopLevelAttributes(Map.Entry<String, JsonNode> currentField) {
-        ObjectNode subDocument = mapper.createObjectNode();
-        JsonNode value = currentField.getValue();
-        Iterator<Map.Entry<String, JsonNode>> subIterator = value.fields();
-        while (subIterator.hasNext()) {
-            Map.Entry<String, JsonNode> next = subIterator.next();
-            subDocument.set(next.getKey(), next.getValue());
+    /**
+     * Node of the compiled field trie. A node matching a requested path keeps the whole value.
+     */
+    static final class Projection {
+
+        private final JsonNodeFactory nodeFactory;
+        private final Map<String, Projection> children = new HashMap<>();
+        private boolean whole;
+
+        private Projection(JsonNodeFactory nodeFactory) {
+            this.nodeFactory = nodeFactory;
         }
-        return subDocument;
-    }
 
-    private List<String> getFieldWithSubFields(List<String> fields) {
-        List<String> fieldsWithSubFields = new ArrayList<>();
-        for (String field : fields) {
-            if (field.contains(".")) {
-                fieldsWithSubFields.add(field.split("[.]")[0]);
+        /**
+         * Returns a new document with the projected fields in the order of the given document.
+         */
+        JsonNode apply(JsonNode document) {
+            return projectObject(document);
+        }
+
+        private ObjectNode projectObject(JsonNode object) {
+            ObjectNode projected = nodeFactory.objectNode();
+            Iterator<Map.Entry<String, JsonNode>> fields = object.fields();
+            while (fields.hasNext()) {
+                Map.Entry<String, JsonNode> field = fields.next();
+                Projection child = children.get(field.getKey());
+                if (child != null) {
+                    JsonNode value = child.project(field.getValue());
+                    if (value != null) {
+                        projected.set(field.getKey(), value);
+                    }
+                }
             }
+            return projected;
         }
-        return fieldsWithSubFields;
-    }
 
-    private List<String> getSubFieldForField(String currentKey, List<String> fields) {
-        List<String> result = new ArrayList<>();
-        for (String field : fields) {
-            if (field.startsWith(currentKey + ".")) {
-                result.add(field.split("[.]")[1]);
+        private JsonNode project(JsonNode value) {
+            if (whole) {
+                return value;
             }
+            if (value.isObject()) {
+                ObjectNode projected = projectObject(value);
+                return projected.isEmpty() ? null : projected;
+            }
+            if (value.isArray()) {
+                ArrayNode projected = nodeFactory.arrayNode(value.size());
+                for (JsonNode element : value) {
+                    JsonNode projectedElement = project(element);
+                    if (projectedElement != null) {
+                        projected.add(projectedElement);
+                    }
+                }
+                return projected.isEmpty() ? null : projected;
+            }
+            return null;
         }
-        return result;
     }
-
 }
@@ -0,0 +1,12 @@
+package io.pivio.server.document;
+
+/**
+ * InvalidBulkRequestException
+ */
+public class InvalidBulkRequestException extends RuntimeException {
+
+  public InvalidBulkRequestException(String msg) {
+    super(msg);
+  }
+
+}
@@ -1,21 +1,48 @@
 package io.pivio.server.document;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
-import org.springframework.data.domain.Page;
-import org.springframework.data.domain.Pageable;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.regex.Pattern;
+import org.opensearch.client.opensearch.OpenSearchClient;
+import org.opensearch.client.opensearch._types.OpenSearchException;
+import org.opensearch.client.opensearch._types.SortOptions;
+import org.opensearch.client.opensearch._types.SortOrder;
+import org.opensearch.client.opensearch._types.Time;
+import org.opensearch.client.opensearch._types.aggregations.Aggregate;
+import org.opensearch.client.opensearch._types.aggregations.Aggregation;
+import org.opensearch.client.opensearch._types.aggregations.StringTermsBucket;
+import org.opensearch.client.opensearch._types.mapping.FieldType;
+import org.opensearch.client.opensearch._types.query_dsl.Query;
+import org.opensearch.client.opensearch.core.SearchResponse;
+import org.opensearch.client.opensearch.core.pit.CreatePitResponse;
+import org.opensearch.client.opensearch.core.search.Hit;
+import org.opensearch.client.opensearch.core.search.Pit;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.CrossOrigin;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
 import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
 import io.micrometer.core.instrument.Counter;
 import io.micrometer.core.instrument.MeterRegistry;
+import io.pivio.server.elasticsearch.ElasticsearchQueryHelper;
+import io.pivio.server.elasticsearch.InvalidCursorException;
+import io.pivio.server.elasticsearch.QueryCompiler;
+import io.pivio.server.elasticsearch.SearchCursor;
 import jakarta.servlet.http.HttpServletResponse;
 import lombok.extern.log4j.Log4j2;
 
@@ -24,59 +51,297 @@ import lombok.extern.log4j.Log4j2;
 @Log4j2
 public class SearchQueryController {
 
-  private final DocumentRepository documentRepository;
+  private static final Set<String> DATE_FIELDS = Set.of("created", "lastUpdate", "lastUpload");
+  // most specific path first
+  private static final List<String> NESTED_PATHS =
+      List.of("software_dependencies.licenses", "software_dependencies");
+  private static final int DEFAULT_PAGE_SIZE = 100;
+  static final String NEXT_CURSOR_HEADER = "X-Next-Cursor";
+  private static final Pattern FACET_FIELD = Pattern.compile("[A-Za-z0-9_][A-Za-z0-9_.-]*");
+  private static final String FACET_VALUES = "values";
+  private static final String FACET_DOCUMENTS = "documents";
+
+  private final OpenSearchClient client;
   private final ObjectMapper mapper;
   private final FieldFilter fieldFilter;
+  private final ElasticsearchQueryHelper queryHelper;
+  private final SearchResultCache searchResultCache;
+  private final QueryCompiler queryCompiler;
   private final Counter getDocumentsCallCounter;
+  private final Counter facetsCallCounter;
+  private final Time cursorKeepAlive;
+  // document ids are unique and make the order of equally sorted hits stable between pages
+  private final SortOptions sortByIdTieBreaker = SortOptions.of(option -> option.field(
+      fieldSort -> fieldSort.field("id.keyword").order(SortOrder.Asc)
+          .unmappedType(FieldType.Keyword)));
+
+  @Value("#{pivioIndex}")
+  private String pivioIndex;
+
+  /**
+   * If disabled, the requested fields are picked from the full documents by the {@link FieldFilter}
+   * instead of being pushed down as {@code _source} includes.
+   */
+  @Value("${pivio.search.source-filtering:true}")
+  private boolean sourceFiltering;
+
+  @Value("${pivio.search.max-page-size:1000}")
+  private int maxPageSize;
 
-  public SearchQueryController(DocumentRepository repository, ObjectMapper mapper,
-      FieldFilter fieldFilter, MeterRegistry registry) {
-    this.documentRepository = repository;
+  public SearchQueryController(OpenSearchClient client, ObjectMapper mapper,
+      FieldFilter fieldFilter, ElasticsearchQueryHelper queryHelper,
+      SearchResultCache searchResultCache, QueryCompiler queryCompiler, MeterRegistry registry,
+      @Value("${pivio.search.cursor-keep-alive:5m}") String cursorKeepAlive) {
+    this.client = client;
+    this.queryHelper = queryHelper;
+    this.searchResultCache = searchResultCache;
+    this.queryCompiler = queryCompiler;
+    this.cursorKeepAlive = Time.of(time -> time.time(cursorKeepAlive));
     this.mapper = mapper;
     this.fieldFilter = fieldFilter;
     this.getDocumentsCallCounter = registry.counter("counter.calls.document.get");
+    this.facetsCallCounter = registry.counter("counter.calls.document.facets");
   }
 
   @GetMapping(value = "/document", produces = MediaType.APPLICATION_JSON_VALUE)
   public ArrayNode search(@RequestParam(required = false) String query,
       @RequestParam(required = false) String fields, @RequestParam(required = false) String sort,
+      @RequestParam(required = false) Integer size, @RequestParam(required = false) String cursor,
       HttpServletResponse response) throws IOException {
 
     getDocumentsCallCounter.increment();
-    if (!isRequestValid(fields, sort)) {
-      log.info("Received search query with invalid parameters, fields: {}, sort: {}", fields, sort);
+    if (!isRequestValid(fields, sort, size)) {
+      log.info("Received search query with invalid parameters, fields: {}, sort: {}, size: {}",
+          fields, sort, size);
       response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
       return null;
     }
 
-    Page<PivioDocument> searchResponse = null;
-    if (query == null || query.isBlank() || query.isEmpty()) {
-      searchResponse = documentRepository.findAll(Pageable.ofSize(100));
-    } else {
-      searchResponse = documentRepository.findByUsingCustomQuery(query, Pageable.ofSize(100));
-    }
-    List<String> filterForFields = new LinkedList<>();
+    final Query searchQuery = queryCompiler.compile(query);
+
+    final List<String> filterForFields = new LinkedList<>();
     if (fields != null && fields.split(",").length > 0) {
       filterForFields.addAll(Arrays.asList(fields.split(",")));
       filterForFields.add("id");
     }
+    final boolean pushDownFields = sourceFiltering && !filterForFields.isEmpty();
+
+    final List<SortOptions> sortOptions = toSortOptions(sort);
+    if (size == null && cursor == null) {
+      return searchResultCache.get(normalizeQuery(query),
+          filterForFields.stream().map(String::trim).distinct().sorted().toList(),
+          normalizeSort(sort),
+          () -> toSearchResult(
+              executeSearch(searchQuery, sortOptions, pushDownFields, filterForFields,
+                  DEFAULT_PAGE_SIZE, null, cursor).hits().hits(),
+              filterForFields, pushDownFields));
+    }
+
+    final int pageSize = size == null ? DEFAULT_PAGE_SIZE : size;
+    final SearchCursor searchCursor = openCursor(cursor);
+    final SearchResponse<JsonNode> searchResponse = executeSearch(searchQuery, sortOptions,
+        pushDownFields, filterForFields, pageSize, searchCursor, cursor);
+    final List<Hit<JsonNode>> hits = searchResponse.hits().hits();
+    // the id of a point in time may change between searches, the latest one has to be used
+    final String pitId =
+        searchResponse.pitId() == null ? searchCursor.pitId() : searchResponse.pitId();
+    if (hits.size() == pageSize) {
+      response.setHeader(NEXT_CURSOR_HEADER,
+          new SearchCursor(pitId, hits.getLast().sort()).encode(mapper));
+    } else {
+      client.deletePit(request -> request.pitId(List.of(pitId)));
+    }
+    return toSearchResult(hits, filterForFields, pushDownFields);
+  }
+
+  private SearchResponse<JsonNode> executeSearch(Query searchQuery, List<SortOptions> sortOptions,
+      boolean pushDownFields, List<String> filterForFields, int pageSize, SearchCursor searchCursor,
+      String cursor) throws IOException {
+    try {
+      return client.search(request -> {
+        request.size(pageSize).query(searchQuery).sort(sortOptions);
+        if (searchCursor == null) {
+          request.index(pivioIndex);
+        } else {
+          // extends the keep alive of the point in time with every page
+          request.sort(sortByIdTieBreaker).pit(Pit.of(pit -> pit.id(searchCursor.pitId())
+              .keepAlive(cursorKeepAlive.time())));
+          if (!searchCursor.searchAfter().isEmpty()) {
+            request.searchAfter(searchCursor.searchAfter());
+          }
+        }
+        if (pushDownFields) {
+          request.source(source -> source.filter(filter -> filter.includes(filterForFields)));
+        }
+        return request;
+      }, JsonNode.class);
+    } catch (OpenSearchException e) {
+      if (searchCursor != null && e.status() == HttpServletResponse.SC_NOT_FOUND) {
+        throw new InvalidCursorException(cursor);
+      }
+      throw e;
+    }
+  }
 
+  private ArrayNode toSearchResult(List<Hit<JsonNode>> hits, List<String> filterForFields,
+      boolean pushDownFields) {
     ArrayNode searchResult = mapper.createArrayNode();
-    searchResponse.forEach(searchHit -> {
-      JsonNode document = mapper.valueToTree(searchHit);
-      if (filterForFields.isEmpty()) {
-        searchResult.add(document);
-      } else {
-        searchResult.add(fieldFilter.filterFields(document, filterForFields));
+    final FieldFilter.Projection projection = filterForFields.isEmpty() || pushDownFields ? null
+        : fieldFilter.compile(filterForFields);
+    for (Hit<JsonNode> searchHit : hits) {
+      JsonNode document = searchHit.source();
+      if (document == null) {
+        continue;
       }
-    });
+      searchResult.add(projection == null ? document : projection.apply(document));
+    }
     return searchResult;
   }
 
-  private boolean isRequestValid(String fields, String sort) {
+  /**
+   * Writes the query with sorted keys and without whitespace, so equal queries share a cache entry.
+   */
+  private String normalizeQuery(String query) throws IOException {
+    if (query == null || query.isBlank()) {
+      return "";
+    }
+    return mapper.writer().with(SerializationFeature.ORDER_MAP_ENTRIES_BY_KEYS)
+        .writeValueAsString(mapper.readValue(query, Object.class));
+  }
+
+  private List<String> normalizeSort(String sort) {
+    if (sort == null) {
+      return List.of();
+    }
+    return Arrays.stream(sort.split(",")).map(sortPair -> sortPair.split(":"))
+        .map(sortPair -> sortPair[0].trim() + ":" + sortPair[1].trim().toLowerCase()).toList();
+  }
+
+  /**
+   * Exports all documents matching the query as newline delimited JSON without holding the result
+   * set in memory.
+   */
+  @GetMapping(value = "/document", produces = MediaType.APPLICATION_NDJSON_VALUE)
+  public ResponseEntity<StreamingResponseBody> export(
+      @RequestParam(required = false) String query) {
+    getDocumentsCallCounter.increment();
+    final Query searchQuery = queryCompiler.compile(query);
+    return ResponseEntity.ok().contentType(MediaType.APPLICATION_NDJSON)
+        .body(out -> queryHelper.streamAllDocuments(searchQuery, out));
+  }
+
+  /**
+   * Counts the documents per value of each requested field with {@code size=0} terms aggregations.
+   * Fields of the nested software dependencies and their licenses are aggregated within their
+   * nested path and counted per catalog document.
+   */
+  @GetMapping(value = "/document/_facets", produces = MediaType.APPLICATION_JSON_VALUE)
+  public ObjectNode facets(@RequestParam String field,
+      @RequestParam(required = false) String query,
+      @RequestParam(required = false) Integer size, HttpServletResponse response)
+      throws IOException {
+    facetsCallCounter.increment();
+    final List<String> facetFields =
+        Arrays.stream(field.split(",")).map(String::trim).distinct().toList();
+    if (facetFields.stream().anyMatch(facetField -> !FACET_FIELD.matcher(facetField).matches())
+        || (size != null && (size < 1 || size > maxPageSize))) {
+      log.info("Received facet request with invalid parameters, field: {}, size: {}", field, size);
+      response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+      return null;
+    }
+
+    final Query searchQuery = queryCompiler.compile(query);
+
+    final int bucketCount = size == null ? DEFAULT_PAGE_SIZE : size;
+    final Map<String, Aggregation> aggregations = new LinkedHashMap<>();
+    for (int position = 0; position < facetFields.size(); position++) {
+      aggregations.put("facet" + position,
+          toFacetAggregation(facetFields.get(position), bucketCount));
+    }
+    final SearchResponse<JsonNode> searchResponse = client.search(request -> request
+        .index(pivioIndex).size(0).query(searchQuery).aggregations(aggregations), JsonNode.class);
+
+    final ObjectNode facets = mapper.createObjectNode();
+    for (int position = 0; position < facetFields.size(); position++) {
+      final String facetField = facetFields.get(position);
+      final Aggregate aggregate = searchResponse.aggregations().get("facet" + position);
+      final boolean nested = nestedPathOf(facetField).isPresent();
+      final List<StringTermsBucket> buckets = nested
+          ? aggregate.nested().aggregations().get(FACET_VALUES).sterms().buckets().array()
+          : aggregate.sterms().buckets().array();
+      final ArrayNode values = facets.putArray(facetField);
+      for (StringTermsBucket bucket : buckets) {
+        values.addObject().put("value", bucket.key()).put("count", nested
+            ? bucket.aggregations().get(FACET_DOCUMENTS).reverseNested().docCount()
+            : bucket.docCount());
+      }
+    }
+    return facets;
+  }
+
+  private Aggregation toFacetAggregation(String field, int bucketCount) {
+    final String keywordField = field.endsWith(".keyword") ? field : field + ".keyword";
+    final Optional<String> nestedPath = nestedPathOf(field);
+    if (nestedPath.isEmpty()) {
+      return Aggregation.of(aggregation -> aggregation
+          .terms(terms -> terms.field(keywordField).size(bucketCount)));
+    }
+    // reverse nested counts catalog documents instead of dependency entries
+    final Aggregation values = Aggregation.of(aggregation -> aggregation
+        .terms(terms -> terms.field(keywordField).size(bucketCount))
+        .aggregations(FACET_DOCUMENTS, documents -> documents.reverseNested(reverse -> reverse)));
+    return Aggregation.of(aggregation -> aggregation
+        .nested(nested -> nested.path(nestedPath.get())).aggregations(FACET_VALUES, values));
+  }
+
+  private Optional<String> nestedPathOf(String field) {
+    return NESTED_PATHS.stream().filter(path -> field.startsWith(path + ".")).findFirst();
+  }
+
+  /**
+   * Continues the given cursor or opens a point in time for the first page.
+   */
+  private SearchCursor openCursor(String cursor) throws IOException {
+    if (cursor != null) {
+      return SearchCursor.decode(cursor, mapper);
+    }
+    CreatePitResponse createPitResponse =
+        client.createPit(pit -> pit.keepAlive(cursorKeepAlive).targetIndexes(pivioIndex));
+    return new SearchCursor(createPitResponse.pitId(), List.of());
+  }
+
+  /**
+   * Compiles the validated {@code field:order} pairs into sort options. Text fields are sorted by
+   * their keyword subfield, fields of the nested software dependencies within their nested path.
+   */
+  private List<SortOptions> toSortOptions(String sort) {
+    if (sort == null) {
+      return List.of();
+    }
+    List<SortOptions> sortOptions = new ArrayList<>();
+    for (String sortPair : sort.split(",")) {
+      String[] sortPairConfig = sortPair.split(":");
+      String field = sortPairConfig[0].trim();
+      SortOrder order = "asc".equalsIgnoreCase(sortPairConfig[1]) ? SortOrder.Asc : SortOrder.Desc;
+      boolean dateField = DATE_FIELDS.contains(field);
+      Optional<String> nestedPath = nestedPathOf(field);
+      sortOptions.add(SortOptions.of(option -> option.field(fieldSort -> {
+        fieldSort.field(dateField || field.endsWith(".keyword") ? field : field + ".keyword")
+            .order(order).unmappedType(dateField ? FieldType.Date : FieldType.Keyword);
+        nestedPath.ifPresent(path -> fieldSort.nested(nested -> nested.path(path)));
+        return fieldSort;
+      })));
+    }
+    return sortOptions;
+  }
+
+  private boolean isRequestValid(String fields, String sort, Integer size) {
     if (fields != null && fields.trim().isEmpty()) {
       return false;
     }
+    if (size != null && (size < 1 || size > maxPageSize)) {
+      return false;
+    }
     if (sort == null) {
       return true;
     }
@@ -85,7 +350,7 @@ public class SearchQueryController {
     }
     for (String sortPair : sort.split(",")) {
       String[] sortPairConfig = sortPair.split(":");
-      if (sortPairConfig.length != 2) {
+      if (sortPairConfig.length != 2 || sortPairConfig[0].isBlank()) {
         return false;
       }
       if (!"asc".equalsIgnoreCase(sortPairConfig[1])
@@ -0,0 +1,107 @@
+package io.pivio.server.document;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+
+/**
+ * Caches search results per catalog generation. Concurrent misses of the same search wait for the
+ * one running backend call instead of issuing their own. Results of searches started before the
+ * latest write became visible are returned but not cached. Writes through other instances are only
+ * seen once a cached result expires after {@code pivio.search.cache.expire-after-write}.
+ */
+@Component
+public class SearchResultCache {
+
+  private final CatalogGeneration catalogGeneration;
+  private final Cache<Key, ArrayNode> cache;
+  private final ConcurrentMap<Key, CompletableFuture<ArrayNode>> inFlight =
+      new ConcurrentHashMap<>();
+  private final Counter coalescedCounter;
+  private final boolean enabled;
+
+  public SearchResultCache(CatalogGeneration catalogGeneration, MeterRegistry registry,
+      @Value("${pivio.search.cache.enabled:true}") boolean enabled,
+      @Value("${pivio.search.cache.max-entries:1000}") long maxEntries,
+      @Value("${pivio.search.cache.expire-after-write:60}") long expireAfterWriteSeconds) {
+    this.catalogGeneration = catalogGeneration;
+    this.enabled = enabled;
+    this.cache = Caffeine.newBuilder().maximumSize(maxEntries)
+        .expireAfterWrite(Duration.ofSeconds(expireAfterWriteSeconds)).recordStats().build();
+    this.coalescedCounter = registry.counter("counter.search.coalesced");
+    CaffeineCacheMetrics.monitor(registry, cache, "search-results");
+  }
+
+  /**
+   * Returns the cached result of the search or loads it. The key parts have to be normalized by the
+   * caller, the current catalog generation is added here.
+   */
+  public ArrayNode get(String query, List<String> fields, List<String> sort, Loader loader)
+      throws IOException {
+    if (!enabled) {
+      return loader.load();
+    }
+    final Key key = new Key(catalogGeneration.current(), query, fields, sort);
+    ArrayNode cached = cache.getIfPresent(key);
+    if (cached != null) {
+      return cached;
+    }
+
+    CompletableFuture<ArrayNode> load = new CompletableFuture<>();
+    CompletableFuture<ArrayNode> running = inFlight.putIfAbsent(key, load);
+    if (running != null) {
+      coalescedCounter.increment();
+      return await(running);
+    }
+    try {
+      final long start = System.nanoTime();
+      ArrayNode result = loader.load();
+      // a search started before the refresh following a write may have missed it
+      if (catalogGeneration.isVisibleTo(start)) {
+        cache.put(key, result);
+      }
+      load.complete(result);
+      return result;
+    } catch (IOException | RuntimeException e) {
+      load.completeExceptionally(e);
+      throw e;
+    } finally {
+      inFlight.remove(key, load);
+    }
+  }
+
+  private ArrayNode await(CompletableFuture<ArrayNode> running) throws IOException {
+    try {
+      return running.join();
+    } catch (CompletionException e) {
+      if (e.getCause() instanceof IOException ioException) {
+        throw ioException;
+      }
+      if (e.getCause() instanceof RuntimeException runtimeException) {
+        throw runtimeException;
+      }
+      throw new UncheckedIOException(new IOException(e.getCause()));
+    }
+  }
+
+  @FunctionalInterface
+  public interface Loader {
+    ArrayNode load() throws IOException;
+  }
+
+  private record Key(long generation, String query, List<String> fields, List<String> sort) {
+  }
+}
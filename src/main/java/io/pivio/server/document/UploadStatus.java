@@ -0,0 +1,26 @@
+package io.pivio.server.document;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonInclude.Include;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+
+/**
+ * State of an upload accepted by the {@link WriteBehindQueue}.
+ */
+@Data
+@Builder
+@AllArgsConstructor
+@JsonInclude(Include.NON_NULL)
+public class UploadStatus {
+
+  public enum State {
+    QUEUED, INDEXED, FAILED
+  }
+
+  private String ticket;
+  private String id;
+  private State state;
+  private BulkItemResult result;
+}
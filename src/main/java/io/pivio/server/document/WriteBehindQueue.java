@@ -0,0 +1,196 @@
+package io.pivio.server.document;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.pivio.server.document.UploadStatus.State;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * Optional write-behind mode for document uploads. Validated documents are accepted into a bounded
+ * queue and a background flusher writes them through {@link DocumentWriter#writeAll(List)} as soon
+ * as either {@code batch-size} uploads are queued or {@code flush-interval} has passed since the
+ * first one arrived.
+ */
+@Log4j2
+@Component
+public class WriteBehindQueue {
+
+  private final DocumentWriter documentWriter;
+  private final boolean enabled;
+  private final int batchSize;
+  private final long flushIntervalMillis;
+  private final long retryAfterSeconds;
+  private final BlockingQueue<PendingUpload> queue;
+  private final Map<String, UploadStatus> statuses;
+  private final Timer flushTimer;
+  private final Counter rejectedUploadsCounter;
+
+  private volatile boolean running;
+  private Thread flusher;
+
+  public WriteBehindQueue(DocumentWriter documentWriter, MeterRegistry registry,
+      @Value("${pivio.write-behind.enabled:false}") boolean enabled,
+      @Value("${pivio.write-behind.capacity:10000}") int capacity,
+      @Value("${pivio.write-behind.batch-size:500}") int batchSize,
+      @Value("${pivio.write-behind.flush-interval:1000}") long flushIntervalMillis,
+      @Value("${pivio.write-behind.retry-after:5}") long retryAfterSeconds) {
+    this.documentWriter = documentWriter;
+    this.enabled = enabled;
+    this.batchSize = batchSize;
+    this.flushIntervalMillis = flushIntervalMillis;
+    this.retryAfterSeconds = retryAfterSeconds;
+    this.queue = new ArrayBlockingQueue<>(capacity);
+    // keeps the status of the most recent uploads only, older tickets answer with 404
+    final int trackedStatuses = capacity * 2;
+    this.statuses = Collections.synchronizedMap(new LinkedHashMap<>(16, 0.75f, false) {
+      private static final long serialVersionUID = 1L;
+
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, UploadStatus> eldest) {
+        return size() > trackedStatuses;
+      }
+    });
+    Gauge.builder("write-behind.queue.depth", queue, BlockingQueue::size).register(registry);
+    this.flushTimer = registry.timer("write-behind.flush.latency");
+    this.rejectedUploadsCounter = registry.counter("write-behind.rejected");
+  }
+
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  /**
+   * Queues an already validated document.
+   *
+   * @return the ticket to look up the upload's status with
+   * @throws WriteQueueFullException if the queue has no capacity left
+   */
+  public String submit(ObjectNode document) {
+    final String ticket = UUID.randomUUID().toString();
+    final String documentId = document.get("id").asText();
+    statuses.put(ticket,
+        UploadStatus.builder().ticket(ticket).id(documentId).state(State.QUEUED).build());
+    if (!queue.offer(new PendingUpload(ticket, document))) {
+      statuses.remove(ticket);
+      rejectedUploadsCounter.increment();
+      log.info("Rejected upload of {} as the write-behind queue is full", documentId);
+      throw new WriteQueueFullException(retryAfterSeconds);
+    }
+    return ticket;
+  }
+
+  public Optional<UploadStatus> status(String ticket) {
+    return Optional.ofNullable(statuses.get(ticket));
+  }
+
+  @PostConstruct
+  public void start() {
+    if (!enabled) {
+      return;
+    }
+    running = true;
+    flusher = Thread.ofPlatform().daemon().name("write-behind-flusher").start(this::flushLoop);
+    log.info("Started write-behind queue with batch size {} and flush interval {}ms", batchSize,
+        flushIntervalMillis);
+  }
+
+  @PreDestroy
+  public void stop() throws InterruptedException {
+    if (flusher == null) {
+      return;
+    }
+    running = false;
+    flusher.interrupt();
+    flusher.join(TimeUnit.SECONDS.toMillis(30));
+    List<PendingUpload> remaining = new ArrayList<>();
+    queue.drainTo(remaining);
+    while (!remaining.isEmpty()) {
+      List<PendingUpload> batch = remaining.subList(0, Math.min(batchSize, remaining.size()));
+      flush(new ArrayList<>(batch));
+      batch.clear();
+    }
+  }
+
+  private void flushLoop() {
+    final List<PendingUpload> batch = new ArrayList<>(batchSize);
+    while (running) {
+      try {
+        PendingUpload first = queue.poll(flushIntervalMillis, TimeUnit.MILLISECONDS);
+        if (first == null) {
+          continue;
+        }
+        batch.add(first);
+        final long deadline =
+            System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(flushIntervalMillis);
+        while (batch.size() < batchSize) {
+          queue.drainTo(batch, batchSize - batch.size());
+          long remaining = deadline - System.nanoTime();
+          if (batch.size() >= batchSize || remaining <= 0) {
+            break;
+          }
+          PendingUpload next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+          if (next == null) {
+            break;
+          }
+          batch.add(next);
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        running = false;
+      }
+      if (!batch.isEmpty()) {
+        flush(batch);
+        batch.clear();
+      }
+    }
+  }
+
+  /**
+   * Writes the batch in upload order. Repeated uploads of the same document are all written, in
+   * consecutive rounds of {@link DocumentWriter}, so every version gets its own changeset.
+   */
+  private void flush(List<PendingUpload> batch) {
+    final List<ObjectNode> documents = batch.stream().map(PendingUpload::document).toList();
+    final long start = System.nanoTime();
+    List<BulkItemResult> results;
+    try {
+      results = documentWriter.writeAll(documents);
+    } catch (Exception e) {
+      log.error("can't flush " + documents.size() + " queued documents due to " + e.getMessage(),
+          e);
+      results = documents.stream().map(document -> BulkItemResult
+          .failed(document.get("id").asText(), 503, "flush failed: " + e.getMessage())).toList();
+    } finally {
+      flushTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+    }
+
+    for (int i = 0; i < batch.size(); i++) {
+      final PendingUpload upload = batch.get(i);
+      final BulkItemResult result = results.get(i);
+      statuses.put(upload.ticket(), UploadStatus.builder().ticket(upload.ticket())
+          .id(upload.document().get("id").asText())
+          .state(result.isFailed() ? State.FAILED : State.INDEXED).result(result).build());
+    }
+    log.debug("Flushed {} queued uploads", batch.size());
+  }
+
+  private record PendingUpload(String ticket, ObjectNode document) {
+  }
+}
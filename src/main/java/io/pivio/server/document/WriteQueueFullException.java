@@ -0,0 +1,19 @@
+package io.pivio.server.document;
+
+/**
+ * WriteQueueFullException
+ */
+public class WriteQueueFullException extends RuntimeException {
+
+  private final long retryAfterSeconds;
+
+  public WriteQueueFullException(long retryAfterSeconds) {
+    super("write-behind queue is full, retry after " + retryAfterSeconds + "s");
+    this.retryAfterSeconds = retryAfterSeconds;
+  }
+
+  public long getRetryAfterSeconds() {
+    return retryAfterSeconds;
+  }
+
+}
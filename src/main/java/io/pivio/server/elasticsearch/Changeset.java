@@ -20,7 +20,7 @@ import lombok.NoArgsConstructor;
 @Setting(settingPath = "settings.json")
 public class Changeset {
 
-  @Field(name = "document", type = FieldType.Text)
+  @Field(name = "document", type = FieldType.Keyword)
   private String document;
   @Field(name = "order", type = FieldType.Long)
   private long order;
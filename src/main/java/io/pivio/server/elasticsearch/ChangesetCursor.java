@@ -0,0 +1,33 @@
+package io.pivio.server.elasticsearch;
+
+import java.io.IOException;
+import java.util.Base64;
+import java.util.List;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Opaque position within the changesets ordered by timestamp, order and id: the sort values of the
+ * last changeset returned, which continue the search with {@code search_after}.
+ */
+public record ChangesetCursor(List<String> searchAfter) {
+
+  public String encode(ObjectMapper mapper) throws IOException {
+    return Base64.getUrlEncoder().withoutPadding().encodeToString(mapper.writeValueAsBytes(this));
+  }
+
+  /**
+   * @throws InvalidCursorException if the cursor wasn't created by {@link #encode(ObjectMapper)}
+   */
+  public static ChangesetCursor decode(String cursor, ObjectMapper mapper) {
+    try {
+      ChangesetCursor decoded =
+          mapper.readValue(Base64.getUrlDecoder().decode(cursor), ChangesetCursor.class);
+      if (decoded.searchAfter() == null || decoded.searchAfter().size() != 3) {
+        throw new InvalidCursorException(cursor);
+      }
+      return decoded;
+    } catch (IOException | IllegalArgumentException e) {
+      throw new InvalidCursorException(cursor);
+    }
+  }
+}
@@ -1,9 +1,10 @@
 package io.pivio.server.elasticsearch;
 
 import java.io.IOException;
-import java.util.ArrayList;
+import java.io.OutputStream;
 import java.util.List;
 import java.util.Optional;
+import org.opensearch.client.json.JsonData;
 import org.opensearch.client.opensearch.OpenSearchClient;
 import org.opensearch.client.opensearch._types.FieldSort;
 import org.opensearch.client.opensearch._types.FieldValue;
@@ -11,13 +12,16 @@ import org.opensearch.client.opensearch._types.OpenSearchException;
 import org.opensearch.client.opensearch._types.SortOptions;
 import org.opensearch.client.opensearch._types.SortOrder;
 import org.opensearch.client.opensearch._types.Time;
-import org.opensearch.client.opensearch._types.query_dsl.IdsQuery;
+import org.opensearch.client.opensearch._types.mapping.FieldType;
 import org.opensearch.client.opensearch._types.query_dsl.MatchQuery;
 import org.opensearch.client.opensearch._types.query_dsl.Query;
 import org.opensearch.client.opensearch.core.GetResponse;
+import org.opensearch.client.opensearch.core.MgetResponse;
 import org.opensearch.client.opensearch.core.SearchRequest;
 import org.opensearch.client.opensearch.core.SearchResponse;
+import org.opensearch.client.opensearch.core.mget.MultiGetResponseItem;
 import org.opensearch.client.opensearch.core.pit.CreatePitResponse;
+import org.opensearch.client.opensearch.core.search.Hit;
 import org.opensearch.client.opensearch.core.search.Pit;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
@@ -25,6 +29,7 @@ import org.springframework.stereotype.Component;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ArrayNode;
+import io.pivio.server.changeset.ChangesetOutbox;
 import io.pivio.server.document.PivioDocument;
 import lombok.extern.log4j.Log4j2;
 
@@ -38,18 +43,39 @@ public class ElasticsearchQueryHelper {
   @Autowired
   private OpenSearchClient client;
 
+  @Autowired
+  private SlicedExporter slicedExporter;
+
   @Autowired
   public ObjectMapper objectMapper;
 
+  @Autowired
+  private ChangesetOutbox changesetOutbox;
+
   @Value("#{pivioIndex}")
   private String pivioIndex;
 
+  @Value("${pivio.changeset.cursor-lag:10000}")
+  private long cursorLagMillis;
+
   @Value("#{changesetIndex}")
   private String changesetIndex;
 
+  private static final int PAGE_SIZE = 100;
+
   private final SortOptions sortTimestampDesc = new SortOptions.Builder()
       .field(new FieldSort.Builder().field("timestamp").order(SortOrder.Desc).build()).build();
-  private final Time stdScrollTime = Time.of(t -> t.offset(60000));
+  private final List<SortOptions> sortChangesetsNewestFirst = List.of(sortTimestampDesc,
+      SortOptions.of(s -> s.field(f -> f.field("order").order(SortOrder.Desc))),
+      SortOptions.of(s -> s.field(f -> f.field("_id").order(SortOrder.Asc))));
+  private final List<SortOptions> sortChangesetsOldestFirst = List.of(
+      SortOptions.of(s -> s.field(f -> f.field("timestamp").order(SortOrder.Asc))),
+      SortOptions.of(s -> s.field(f -> f.field("order").order(SortOrder.Asc))),
+      SortOptions.of(s -> s.field(f -> f.field("_id").order(SortOrder.Asc))));
+  private final List<SortOptions> sortByDocumentId = List.of(SortOptions
+      .of(s -> s.field(f -> f.field("id.keyword").order(SortOrder.Asc)
+          .unmappedType(FieldType.Keyword))));
+  private final Time stdScrollTime = Time.of(t -> t.time("1m"));
 
   public void searchByQuery() {
     MatchQuery matchQuery =
@@ -83,19 +109,36 @@ public class ElasticsearchQueryHelper {
   }
 
   public boolean isDocumentPresent(String id) {
-    List<String> _id = List.of(id);
-    IdsQuery idsQuery = IdsQuery.of(builder -> builder.values(_id));
-    SearchRequest searchRequest = SearchRequest.of(
-        s -> s.index("steckbrief").from(0).size(_id.size()).query(Query.of(q -> q.ids(idsQuery))));
     try {
-      SearchResponse<PivioDocument> response = client.search(searchRequest, PivioDocument.class);
-      return !response.hits().hits().isEmpty();
+      GetResponse<JsonNode> response = client.get(
+          g -> g.index(pivioIndex).id(id).realtime(true).source(source -> source.fetch(false)),
+          JsonNode.class);
+      return response.found();
     } catch (OpenSearchException | IOException e) {
       log.error("can't query OpenSearchServer due to " + e.getMessage(), e);
     }
     return false;
   }
 
+  /**
+   * Fetches the documents with a single realtime multi get. Missing documents are left out, the
+   * others keep the order of the given ids.
+   */
+  public ArrayNode retrieveDocuments(List<String> ids) throws IOException {
+    MgetResponse<JsonNode> response =
+        client.mget(request -> request.index(pivioIndex).ids(ids).realtime(true), JsonNode.class);
+    ArrayNode documents = mapper.createArrayNode();
+    for (MultiGetResponseItem<JsonNode> item : response.docs()) {
+      if (item.isResult() && item.result().found() && item.result().source() != null) {
+        documents.add(item.result().source());
+      } else if (item.isFailure()) {
+        log.warn("can't get document {} due to {}", item.failure().id(),
+            item.failure().error().reason());
+      }
+    }
+    return documents;
+  }
+
   public Optional<JsonNode> isChangesetPresent(String id) {
     SearchRequest searchRequest = SearchRequest
         .of(s -> s.index(changesetIndex).from(0).size(1).query(q -> q.ids(ids -> ids.values(id))));
@@ -110,40 +153,130 @@ public class ElasticsearchQueryHelper {
   }
 
   public ArrayNode retrieveAllDocuments(Query searchQuery) throws IOException {
-    CreatePitResponse createPitResponse =
-        client.createPit(pit -> pit.keepAlive(stdScrollTime).targetIndexes(pivioIndex));
     ArrayNode allDocuments = mapper.createArrayNode();
-    List<JsonNode> currentResultPage = new ArrayList<>(100);
-    Pit queryPit = Pit.of(builder -> builder.id(createPitResponse.pitId()));
-    SearchResponse<JsonNode> searchResponse = client.search(
-        request -> request.size(100).query(searchQuery).sort(sortTimestampDesc).pit(queryPit),
-        JsonNode.class);
-    while (!(currentResultPage = searchResponse.documents()).isEmpty()) {
-      allDocuments.addAll(currentResultPage);
-      String searchAfterParam = currentResultPage.getLast().get("timestamp").textValue();
-      searchResponse = client.search(request -> request.size(100).query(searchQuery)
-          .sort(sortTimestampDesc).pit(queryPit).searchAfter(searchAfterParam), JsonNode.class);
-    }
-    client.deletePit(request -> request.pitId(List.of(createPitResponse.pitId())));
+    forEachPage(pivioIndex, searchQuery, sortByDocumentId, allDocuments::addAll);
     return allDocuments;
   }
 
   public ArrayNode retrieveAllChangesets(Query searchQuery) throws IOException {
+    ArrayNode allChangesets = mapper.createArrayNode();
+    forEachPage(changesetIndex, searchQuery, sortChangesetsNewestFirst, allChangesets::addAll);
+    return allChangesets;
+  }
+
+  /**
+   * Returns one page of the matching changesets oldest first, following the sort values of the
+   * last changeset of the previous page. Without a point in time every page costs the same, no
+   * matter how far into the changesets it is. Pages end at {@link #settledUntil()}, so a cursor
+   * never moves past changesets that are yet to become searchable.
+   */
+  public List<Hit<JsonNode>> retrieveChangesetPage(Query searchQuery, int size,
+      List<String> searchAfter) throws IOException {
+    final long settledUntil = settledUntil();
+    final Query settledQuery = Query.of(query -> query.bool(bool -> bool.filter(searchQuery)
+        .filter(filter -> filter.range(range -> range.field("timestamp")
+            .lte(JsonData.of(settledUntil))))));
+    return client.search(request -> {
+      request.index(changesetIndex).size(size).query(settledQuery)
+          .sort(sortChangesetsOldestFirst);
+      if (!searchAfter.isEmpty()) {
+        request.searchAfter(searchAfter);
+      }
+      return request;
+    }, JsonNode.class).hits().hits();
+  }
+
+  /**
+   * Changesets become searchable some time after their timestamp: once the index is refreshed and
+   * concurrent uploads finished writing them, in outbox mode only once the worker processed their
+   * records. No changesets are expected anymore with a timestamp up to
+   * {@code pivio.changeset.cursor-lag} ms ago and before the oldest pending outbox record.
+   */
+  long settledUntil() throws IOException {
+    final long settledUntil = System.currentTimeMillis() - cursorLagMillis;
+    if (!changesetOutbox.isEnabled()) {
+      return settledUntil;
+    }
+    return changesetOutbox.oldestPending().map(enqueued -> Math.min(settledUntil, enqueued - 1))
+        .orElse(settledUntil);
+  }
+
+  /**
+   * Exports all matching documents as newline delimited JSON in parallel slices, so in no
+   * particular order.
+   */
+  public void streamAllDocuments(Query searchQuery, OutputStream out) throws IOException {
+    slicedExporter.export(pivioIndex, searchQuery, out);
+  }
+
+  /**
+   * Exports all matching changesets as newline delimited JSON in parallel slices, so in no
+   * particular order.
+   */
+  public void exportAllChangesets(Query searchQuery, OutputStream out) throws IOException {
+    slicedExporter.export(changesetIndex, searchQuery, out);
+  }
+
+  /**
+   * Writes all matching changesets newest first as newline delimited JSON, flushing after every
+   * page.
+   */
+  public void streamAllChangesets(Query searchQuery, OutputStream out) throws IOException {
+    forEachPage(changesetIndex, searchQuery, sortChangesetsNewestFirst,
+        page -> writeNdJson(page, out));
+  }
+
+  private void writeNdJson(List<JsonNode> page, OutputStream out) throws IOException {
+    for (JsonNode node : page) {
+      out.write(mapper.writeValueAsBytes(node));
+      out.write('\n');
+    }
+    out.flush();
+  }
+
+  /**
+   * Walks all hits of the query within one point in time and hands each page to the consumer as
+   * soon as it arrives. The sort has to be unique, its values of the last hit continue the search.
+   */
+  private void forEachPage(String index, Query searchQuery, List<SortOptions> sort,
+      PageConsumer consumer) throws IOException {
     CreatePitResponse createPitResponse =
-        client.createPit(pit -> pit.keepAlive(stdScrollTime).targetIndexes(changesetIndex));
-    ArrayNode allDocuments = mapper.createArrayNode();
-    List<JsonNode> currentResultPage = new ArrayList<>(100);
-    Pit queryPit = Pit.of(builder -> builder.id(createPitResponse.pitId()));
-    SearchResponse<JsonNode> searchResponse = client.search(
-        request -> request.size(100).query(searchQuery).sort(sortTimestampDesc).pit(queryPit),
-        JsonNode.class);
-    while (!(currentResultPage = searchResponse.documents()).isEmpty()) {
-      allDocuments.addAll(currentResultPage);
-      String searchAfterParam = currentResultPage.getLast().get("timestamp").textValue();
-      searchResponse = client.search(request -> request.size(100).query(searchQuery)
-          .sort(sortTimestampDesc).pit(queryPit).searchAfter(searchAfterParam), JsonNode.class);
+        client.createPit(pit -> pit.keepAlive(stdScrollTime).targetIndexes(index));
+    String pitId = createPitResponse.pitId();
+    try {
+      List<String> searchAfter = List.of();
+      while (true) {
+        final List<String> searchAfterParam = searchAfter;
+        // extends the keep alive with every page, so only a single page has to finish within it
+        final String queryPitId = pitId;
+        final Pit queryPit =
+            Pit.of(pit -> pit.id(queryPitId).keepAlive(stdScrollTime.time()));
+        SearchResponse<JsonNode> searchResponse = client.search(request -> {
+          request.size(PAGE_SIZE).query(searchQuery).sort(sort).pit(queryPit);
+          if (!searchAfterParam.isEmpty()) {
+            request.searchAfter(searchAfterParam);
+          }
+          return request;
+        }, JsonNode.class);
+        // the id of a point in time may change between searches, the latest one has to be used
+        if (searchResponse.pitId() != null) {
+          pitId = searchResponse.pitId();
+        }
+        List<Hit<JsonNode>> currentResultPage = searchResponse.hits().hits();
+        if (currentResultPage.isEmpty()) {
+          break;
+        }
+        consumer.accept(currentResultPage.stream().map(Hit::source).toList());
+        searchAfter = currentResultPage.getLast().sort();
+      }
+    } finally {
+      final String lastPitId = pitId;
+      client.deletePit(request -> request.pitId(List.of(lastPitId)));
     }
-    client.deletePit(request -> request.pitId(List.of(createPitResponse.pitId())));
-    return allDocuments;
+  }
+
+  @FunctionalInterface
+  private interface PageConsumer {
+    void accept(List<JsonNode> page) throws IOException;
   }
 }
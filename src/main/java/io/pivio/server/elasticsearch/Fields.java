@@ -2,6 +2,8 @@ package io.pivio.server.elasticsearch;
 
 import org.springframework.data.elasticsearch.annotations.Field;
 import org.springframework.data.elasticsearch.annotations.FieldType;
+import org.springframework.data.elasticsearch.annotations.InnerField;
+import org.springframework.data.elasticsearch.annotations.MultiField;
 import lombok.Builder;
 import lombok.Data;
 
@@ -12,11 +14,12 @@ import lombok.Data;
 @Builder
 public class Fields {
 
-  @Field(name = "path", type = FieldType.Text, analyzer = "simple")
+  @MultiField(mainField = @Field(name = "path", type = FieldType.Text, analyzer = "simple"),
+      otherFields = @InnerField(suffix = "keyword", type = FieldType.Keyword, ignoreAbove = 1024))
   private String path;
   @Field(name = "value", type = FieldType.Text)
   private String value;
-  @Field(name = "op", type = FieldType.Text)
+  @Field(name = "op", type = FieldType.Keyword)
   private String op;
 
 }
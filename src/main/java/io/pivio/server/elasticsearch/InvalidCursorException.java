@@ -0,0 +1,12 @@
+package io.pivio.server.elasticsearch;
+
+/**
+ * InvalidCursorException
+ */
+public class InvalidCursorException extends RuntimeException {
+
+  public InvalidCursorException(String cursor) {
+    super(cursor + " is not a valid or no longer an open cursor");
+  }
+
+}
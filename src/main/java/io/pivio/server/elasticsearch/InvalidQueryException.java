@@ -0,0 +1,12 @@
+package io.pivio.server.elasticsearch;
+
+/**
+ * InvalidQueryException
+ */
+public class InvalidQueryException extends RuntimeException {
+
+  public InvalidQueryException(String message) {
+    super(message);
+  }
+
+}
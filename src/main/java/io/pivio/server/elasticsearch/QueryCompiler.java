@@ -0,0 +1,224 @@
+package io.pivio.server.elasticsearch;
+
+import java.io.StringReader;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
+import org.opensearch.client.json.JsonpMapper;
+import org.opensearch.client.opensearch.OpenSearchClient;
+import org.opensearch.client.opensearch._types.query_dsl.Query;
+import org.opensearch.client.util.MissingRequiredPropertyException;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import jakarta.json.JsonException;
+import jakarta.json.stream.JsonParser;
+
+/**
+ * Compiles the query DSL passed by clients into typed queries. Queries are validated before they
+ * are parsed: leading wildcards and regular expressions without a literal prefix have to scan the
+ * whole term dictionary and are rejected, as are deeply nested queries. Compiled queries are
+ * immutable and cached by their text.
+ */
+@Component
+public class QueryCompiler {
+
+  private static final Query MATCH_ALL = Query.of(query -> query.matchAll(matchAll -> matchAll));
+  private static final Pattern LEADING_WILDCARD = Pattern.compile("(^|[\\s:(])[*?]");
+  // characters with a special meaning in the Lucene regular expression syntax with all flags
+  private static final String REGEXP_OPERATORS = ".?+*|{}[]()\"\\#@&<>~";
+  // quantifiers which allow to skip the character in front of them
+  private static final String OPTIONAL_QUANTIFIERS = "*?{";
+
+  private final JsonpMapper jsonpMapper;
+  private final ObjectMapper mapper;
+  private final Cache<String, Query> cache;
+  private final int maxDepth;
+  private final int maxRegexpLength;
+
+  @Autowired
+  public QueryCompiler(OpenSearchClient client, ObjectMapper mapper, MeterRegistry registry,
+      @Value("${pivio.query.cache.max-entries:1000}") long maxEntries,
+      @Value("${pivio.query.max-depth:20}") int maxDepth,
+      @Value("${pivio.query.max-regexp-length:256}") int maxRegexpLength) {
+    this(client._transport().jsonpMapper(), mapper, registry, maxEntries, maxDepth,
+        maxRegexpLength);
+  }
+
+  QueryCompiler(JsonpMapper jsonpMapper, ObjectMapper mapper, MeterRegistry registry,
+      long maxEntries, int maxDepth, int maxRegexpLength) {
+    this.jsonpMapper = jsonpMapper;
+    this.mapper = mapper;
+    this.maxDepth = maxDepth;
+    this.maxRegexpLength = maxRegexpLength;
+    this.cache = Caffeine.newBuilder().maximumSize(maxEntries).recordStats().build();
+    CaffeineCacheMetrics.monitor(registry, cache, "queries");
+  }
+
+  /**
+   * Returns the compiled query, a match all query for a missing one.
+   *
+   * @throws InvalidQueryException if the query can't be parsed or is too costly
+   */
+  public Query compile(String query) {
+    if (query == null || query.isBlank()) {
+      return MATCH_ALL;
+    }
+    return cache.get(query, this::parse);
+  }
+
+  private Query parse(String query) {
+    final JsonNode tree;
+    try {
+      tree = mapper.readTree(query);
+    } catch (JsonProcessingException e) {
+      throw new InvalidQueryException("query is no valid JSON: " + e.getOriginalMessage());
+    }
+    if (!tree.isObject()) {
+      throw new InvalidQueryException("query has to be a JSON object");
+    }
+    validate(tree, 0);
+    try (JsonParser parser = jsonpMapper.jsonProvider().createParser(new StringReader(query))) {
+      return Query._DESERIALIZER.deserialize(parser, jsonpMapper);
+    } catch (JsonException | MissingRequiredPropertyException | IllegalArgumentException
+        | IllegalStateException e) {
+      // the client reports unknown or incomplete queries with runtime exceptions while building
+      throw new InvalidQueryException("query can't be parsed: " + e.getMessage());
+    }
+  }
+
+  private void validate(JsonNode node, int depth) {
+    if (depth > maxDepth) {
+      throw new InvalidQueryException("query is nested deeper than " + maxDepth + " levels");
+    }
+    if (node.isArray()) {
+      for (JsonNode element : node) {
+        validate(element, depth + 1);
+      }
+      return;
+    }
+    Iterator<Map.Entry<String, JsonNode>> fields = node.fields();
+    while (fields.hasNext()) {
+      Map.Entry<String, JsonNode> field = fields.next();
+      switch (field.getKey()) {
+        case "wildcard" -> forEachTermValue(field.getValue(), this::validateWildcard, "value",
+            "wildcard");
+        case "regexp" -> forEachTermValue(field.getValue(), this::validateRegexp, "value");
+        case "query_string" -> validateQueryString(field.getValue());
+        default -> {
+          if (field.getValue().isContainerNode()) {
+            validate(field.getValue(), depth + 1);
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Term level queries either map the field to the value or to an object holding it under one of
+   * the given keys.
+   */
+  private void forEachTermValue(JsonNode query, Consumer<String> validator,
+      String... valueFields) {
+    query.fields().forEachRemaining(field -> {
+      if (!field.getValue().isObject()) {
+        validateText(field.getValue(), validator);
+        return;
+      }
+      for (String valueField : valueFields) {
+        validateText(field.getValue().path(valueField), validator);
+      }
+    });
+  }
+
+  private void validateText(JsonNode value, Consumer<String> validator) {
+    if (value.isTextual()) {
+      validator.accept(value.textValue());
+    }
+  }
+
+  private void validateWildcard(String pattern) {
+    if (pattern.startsWith("*") || pattern.startsWith("?")) {
+      throw new InvalidQueryException("wildcard " + pattern + " must not start with a wildcard");
+    }
+  }
+
+  private void validateRegexp(String pattern) {
+    if (pattern.length() > maxRegexpLength) {
+      throw new InvalidQueryException(
+          "regexp is longer than " + maxRegexpLength + " characters");
+    }
+    if (!hasLiteralPrefix(pattern)) {
+      throw new InvalidQueryException("regexp " + pattern + " must start with a literal prefix");
+    }
+  }
+
+  /**
+   * Only a regular expression whose matches all start with the same character can seek in the term
+   * dictionary. It has to start with a literal character, which is not made optional by a
+   * quantifier, and must not offer alternatives on its top level.
+   */
+  static boolean hasLiteralPrefix(String pattern) {
+    if (pattern.isEmpty()) {
+      return true;
+    }
+    final int next;
+    if (pattern.charAt(0) == '\\') {
+      next = 2;
+    } else if (REGEXP_OPERATORS.indexOf(pattern.charAt(0)) < 0) {
+      next = 1;
+    } else {
+      return false;
+    }
+    if (next > pattern.length()
+        || next < pattern.length() && OPTIONAL_QUANTIFIERS.indexOf(pattern.charAt(next)) >= 0) {
+      return false;
+    }
+    return !hasTopLevelAlternative(pattern);
+  }
+
+  private static boolean hasTopLevelAlternative(String pattern) {
+    int depth = 0;
+    boolean inClass = false;
+    boolean inQuotes = false;
+    for (int i = 0; i < pattern.length(); i++) {
+      char c = pattern.charAt(i);
+      if (c == '\\') {
+        i++;
+      } else if (inQuotes) {
+        inQuotes = c != '"';
+      } else if (inClass) {
+        inClass = c != ']';
+      } else if (c == '"') {
+        inQuotes = true;
+      } else if (c == '[') {
+        inClass = true;
+      } else if (c == '(') {
+        depth++;
+      } else if (c == ')') {
+        depth--;
+      } else if (c == '|' && depth <= 0) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private void validateQueryString(JsonNode queryString) {
+    if (queryString.path("allow_leading_wildcard").asBoolean(false)) {
+      throw new InvalidQueryException("query_string must not allow leading wildcards");
+    }
+    String text = queryString.path("query").asText("");
+    if (LEADING_WILDCARD.matcher(text).find()) {
+      throw new InvalidQueryException("query_string " + text + " contains a leading wildcard");
+    }
+  }
+}
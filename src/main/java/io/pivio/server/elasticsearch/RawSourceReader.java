@@ -0,0 +1,50 @@
+package io.pivio.server.elasticsearch;
+
+import java.io.IOException;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Optional;
+import org.apache.http.util.EntityUtils;
+import org.opensearch.client.Request;
+import org.opensearch.client.Response;
+import org.opensearch.client.ResponseException;
+import org.opensearch.client.RestClient;
+import org.opensearch.client.opensearch.OpenSearchClient;
+import org.opensearch.client.transport.rest_client.RestClientTransport;
+import org.springframework.stereotype.Component;
+
+/**
+ * Reads the stored {@code _source} of a document as raw bytes through the low-level REST client,
+ * bypassing the JSON mapping of the Java client.
+ */
+@Component
+public class RawSourceReader {
+
+  private final RestClient restClient;
+
+  public RawSourceReader(OpenSearchClient client) {
+    if (!(client._transport() instanceof RestClientTransport transport)) {
+      throw new IllegalStateException(
+          "raw source reads need a RestClientTransport, got " + client._transport().getClass());
+    }
+    this.restClient = transport.restClient();
+  }
+
+  /**
+   * @return the realtime {@code _source} of the document or empty if it doesn't exist
+   */
+  public Optional<byte[]> read(String index, String id) throws IOException {
+    Request request = new Request("GET", "/" + index + "/_source/"
+        + URLEncoder.encode(id, StandardCharsets.UTF_8).replace("+", "%20"));
+    request.addParameter("realtime", "true");
+    try {
+      Response response = restClient.performRequest(request);
+      return Optional.of(EntityUtils.toByteArray(response.getEntity()));
+    } catch (ResponseException e) {
+      if (e.getResponse().getStatusLine().getStatusCode() == 404) {
+        return Optional.empty();
+      }
+      throw e;
+    }
+  }
+}
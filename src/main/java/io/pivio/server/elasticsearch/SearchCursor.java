@@ -0,0 +1,33 @@
+package io.pivio.server.elasticsearch;
+
+import java.io.IOException;
+import java.util.Base64;
+import java.util.List;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Opaque position within a point in time search: the id of the point in time and the sort values
+ * of the last hit returned, which continue the search with {@code search_after}.
+ */
+public record SearchCursor(String pitId, List<String> searchAfter) {
+
+  public String encode(ObjectMapper mapper) throws IOException {
+    return Base64.getUrlEncoder().withoutPadding().encodeToString(mapper.writeValueAsBytes(this));
+  }
+
+  /**
+   * @throws InvalidCursorException if the cursor wasn't created by {@link #encode(ObjectMapper)}
+   */
+  public static SearchCursor decode(String cursor, ObjectMapper mapper) {
+    try {
+      SearchCursor decoded =
+          mapper.readValue(Base64.getUrlDecoder().decode(cursor), SearchCursor.class);
+      if (decoded.pitId() == null || decoded.searchAfter() == null) {
+        throw new InvalidCursorException(cursor);
+      }
+      return decoded;
+    } catch (IOException | IllegalArgumentException e) {
+      throw new InvalidCursorException(cursor);
+    }
+  }
+}
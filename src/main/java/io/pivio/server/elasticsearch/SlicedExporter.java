@@ -0,0 +1,169 @@
+package io.pivio.server.elasticsearch;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.opensearch.client.opensearch.OpenSearchClient;
+import org.opensearch.client.opensearch._types.SortOptions;
+import org.opensearch.client.opensearch._types.Time;
+import org.opensearch.client.opensearch._types.query_dsl.Query;
+import org.opensearch.client.opensearch.core.SearchResponse;
+import org.opensearch.client.opensearch.core.pit.CreatePitResponse;
+import org.opensearch.client.opensearch.core.search.Hit;
+import org.opensearch.client.opensearch.core.search.Pit;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * Exports a whole index as newline delimited JSON. One point in time is opened and its slices are
+ * read concurrently in {@code _doc} order, which is the cheapest order and unique within the single
+ * shard of the pivio indices. The page size of every slice adapts to the size of its documents so
+ * that a page is about {@code pivio.export.target-page-bytes} large. Pages of different slices are
+ * written as a whole, but in no particular order.
+ */
+@Log4j2
+@Component
+public class SlicedExporter {
+
+  private final OpenSearchClient client;
+  private final ObjectMapper mapper;
+  private final ExecutorService workers;
+  private final int slices;
+  private final int targetPageBytes;
+  private final int minPageSize;
+  private final int maxPageSize;
+
+  private final Time keepAlive = Time.of(t -> t.time("2m"));
+  private final SortOptions sortByDoc = SortOptions.of(s -> s.field(f -> f.field("_doc")));
+
+  public SlicedExporter(OpenSearchClient client, ObjectMapper mapper,
+      @Value("${pivio.export.workers:4}") int workers,
+      @Value("${pivio.export.slices:4}") int slices,
+      @Value("${pivio.export.target-page-bytes:1048576}") int targetPageBytes,
+      @Value("${pivio.export.min-page-size:10}") int minPageSize,
+      @Value("${pivio.export.max-page-size:1000}") int maxPageSize) {
+    this.client = client;
+    this.mapper = mapper;
+    this.workers = Executors.newFixedThreadPool(workers,
+        Thread.ofPlatform().daemon().name("export-worker-", 0).factory());
+    this.slices = Math.max(1, slices);
+    this.targetPageBytes = targetPageBytes;
+    this.minPageSize = minPageSize;
+    this.maxPageSize = maxPageSize;
+  }
+
+  @PreDestroy
+  public void shutdown() {
+    workers.shutdownNow();
+  }
+
+  /**
+   * Writes every document of the index matching the query to the output stream.
+   *
+   * @return the number of exported documents
+   */
+  public long export(String index, Query query, OutputStream out) throws IOException {
+    CreatePitResponse createPitResponse =
+        client.createPit(pit -> pit.keepAlive(keepAlive).targetIndexes(index));
+    final String pitId = createPitResponse.pitId();
+    final List<Future<Long>> exportedSlices = new ArrayList<>(slices);
+    try {
+      for (int slice = 0; slice < slices; slice++) {
+        final int sliceId = slice;
+        exportedSlices.add(workers.submit(() -> exportSlice(pitId, sliceId, query, out)));
+      }
+      long exported = 0;
+      for (Future<Long> exportedSlice : exportedSlices) {
+        exported += exportedSlice.get();
+      }
+      log.debug("Exported {} documents of {} in {} slices", exported, index, slices);
+      return exported;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("export of " + index + " has been interrupted", e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof IOException ioException) {
+        throw ioException;
+      }
+      if (e.getCause() instanceof UncheckedIOException uncheckedIOException) {
+        throw uncheckedIOException.getCause();
+      }
+      throw new IOException("can't export " + index + " due to " + e.getCause().getMessage(),
+          e.getCause());
+    } finally {
+      exportedSlices.forEach(exportedSlice -> exportedSlice.cancel(true));
+      try {
+        client.deletePit(request -> request.pitId(List.of(pitId)));
+      } catch (IOException | RuntimeException e) {
+        log.warn("can't delete point in time of export of {} due to {}", index, e.getMessage());
+      }
+    }
+  }
+
+  private long exportSlice(String pitId, int sliceId, Query query, OutputStream out)
+      throws IOException {
+    long exported = 0;
+    int pageSize = Math.max(minPageSize, Math.min(100, maxPageSize));
+    List<String> searchAfter = List.of();
+    while (true) {
+      // a slice cut short must fail the export instead of leaving rows out of it
+      if (Thread.currentThread().isInterrupted()) {
+        throw new InterruptedIOException("slice " + sliceId + " of the export was interrupted");
+      }
+      final int requestedSize = pageSize;
+      final List<String> searchAfterParam = searchAfter;
+      SearchResponse<JsonNode> searchResponse = client.search(request -> {
+        // every slice keeps the point in time alive while it pages
+        request.size(requestedSize).query(query).sort(sortByDoc)
+            .pit(Pit.of(pit -> pit.id(pitId).keepAlive(keepAlive.time())));
+        if (slices > 1) {
+          request.slice(slice -> slice.id(sliceId).max(slices));
+        }
+        if (!searchAfterParam.isEmpty()) {
+          request.searchAfter(searchAfterParam);
+        }
+        return request;
+      }, JsonNode.class);
+      List<Hit<JsonNode>> hits = searchResponse.hits().hits();
+      if (hits.isEmpty()) {
+        break;
+      }
+
+      ByteArrayOutputStream page = new ByteArrayOutputStream();
+      for (Hit<JsonNode> hit : hits) {
+        page.write(mapper.writeValueAsBytes(hit.source()));
+        page.write('\n');
+      }
+      synchronized (out) {
+        page.writeTo(out);
+        out.flush();
+      }
+      exported += hits.size();
+
+      if (hits.size() < requestedSize) {
+        break;
+      }
+      searchAfter = hits.getLast().sort();
+      pageSize = adaptPageSize(hits.size(), page.size());
+    }
+    return exported;
+  }
+
+  private int adaptPageSize(int hits, int pageBytes) {
+    long averageDocumentBytes = Math.max(1, pageBytes / hits);
+    long pageSize = targetPageBytes / averageDocumentBytes;
+    return (int) Math.max(minPageSize, Math.min(maxPageSize, pageSize));
+  }
+}
@@ -0,0 +1,11 @@
+package io.pivio.server.notification;
+
+/**
+ * A subscription without a valid http(s) URL or with a path not starting with a slash.
+ */
+public class InvalidSubscriptionException extends RuntimeException {
+
+  InvalidSubscriptionException(String message) {
+    super(message);
+  }
+}
@@ -0,0 +1,193 @@
+package io.pivio.server.notification;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import org.opensearch.client.json.JsonData;
+import org.opensearch.client.opensearch.OpenSearchClient;
+import org.opensearch.client.opensearch._types.FieldValue;
+import org.opensearch.client.opensearch._types.OpenSearchException;
+import org.opensearch.client.opensearch._types.query_dsl.Query;
+import org.opensearch.client.opensearch.core.search.Hit;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.pivio.server.changeset.ChangesetQueries;
+import io.pivio.server.elasticsearch.ElasticsearchQueryHelper;
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * Delivers the changesets matching each {@link Subscription} once per
+ * {@code pivio.notification.window} ms. All changesets of a subscription since its last delivery,
+ * at most {@code pivio.notification.batch-size} of them, are coalesced into one request; the rest
+ * follows in the next window. The cursor of a subscription only advances after its webhook
+ * accepted the batch, so a failed or interrupted delivery is repeated and webhooks have to
+ * tolerate duplicates.
+ *
+ * <p>
+ * Type and owner filters are resolved to the ids of at most
+ * {@code pivio.notification.max-documents} matching documents in every window.
+ */
+@Log4j2
+@Component
+public class NotificationDispatcher {
+
+  private final SubscriptionStore subscriptionStore;
+  private final WebhookClient webhookClient;
+  private final ElasticsearchQueryHelper queryHelper;
+  private final OpenSearchClient client;
+  private final ObjectMapper mapper;
+  private final boolean enabled;
+  private final int batchSize;
+  private final int maxDocuments;
+  private final Set<String> inFlight = ConcurrentHashMap.newKeySet();
+  private final Counter deliveredCounter;
+  private final Counter failedCounter;
+
+  @Value("#{pivioIndex}")
+  private String pivioIndex;
+
+  public NotificationDispatcher(SubscriptionStore subscriptionStore, WebhookClient webhookClient,
+      ElasticsearchQueryHelper queryHelper, OpenSearchClient client, ObjectMapper mapper,
+      MeterRegistry registry, @Value("${pivio.notification.enabled:true}") boolean enabled,
+      @Value("${pivio.notification.batch-size:100}") int batchSize,
+      @Value("${pivio.notification.max-documents:10000}") int maxDocuments) {
+    this.subscriptionStore = subscriptionStore;
+    this.webhookClient = webhookClient;
+    this.queryHelper = queryHelper;
+    this.client = client;
+    this.mapper = mapper;
+    this.enabled = enabled;
+    this.batchSize = batchSize;
+    this.maxDocuments = maxDocuments;
+    this.deliveredCounter = registry.counter("notification.delivered");
+    this.failedCounter = registry.counter("notification.failed");
+  }
+
+  @Scheduled(initialDelayString = "${pivio.notification.window:10000}",
+      fixedDelayString = "${pivio.notification.window:10000}")
+  public void dispatch() {
+    if (!enabled) {
+      return;
+    }
+    final List<Subscription> subscriptions;
+    try {
+      subscriptions = subscriptionStore.list();
+    } catch (OpenSearchException | IOException e) {
+      log.error("can't read subscriptions due to " + e.getMessage(), e);
+      return;
+    }
+    for (Subscription subscription : subscriptions) {
+      // a subscription still retrying its last batch waits for the next window
+      if (!inFlight.add(subscription.getId())) {
+        continue;
+      }
+      try {
+        if (!dispatch(subscription)) {
+          inFlight.remove(subscription.getId());
+        }
+      } catch (OpenSearchException | IOException | IllegalArgumentException e) {
+        inFlight.remove(subscription.getId());
+        log.warn("can't dispatch changesets of subscription {} due to {}", subscription.getId(),
+            e.getMessage());
+      }
+    }
+  }
+
+  /**
+   * @return whether a delivery was started
+   */
+  private boolean dispatch(Subscription subscription) throws IOException {
+    final Optional<Query> query = toQuery(subscription);
+    if (query.isEmpty()) {
+      return false;
+    }
+    final List<String> cursor =
+        subscription.getCursor() == null ? List.of() : subscription.getCursor();
+    final List<Hit<JsonNode>> changesets =
+        queryHelper.retrieveChangesetPage(query.get(), batchSize, cursor);
+    if (changesets.isEmpty()) {
+      return false;
+    }
+
+    final ObjectNode payload = mapper.createObjectNode().put("subscription", subscription.getId());
+    final ArrayNode batch = payload.putArray("changesets");
+    changesets.forEach(changeset -> batch.add(changeset.source()));
+    final List<String> next = changesets.getLast().sort();
+    webhookClient.post(URI.create(subscription.getUrl()), subscription.getId(),
+        mapper.writeValueAsBytes(payload)).whenComplete((delivered, error) -> {
+          try {
+            if (Boolean.TRUE.equals(delivered)) {
+              subscriptionStore.advance(subscription.getId(), next, System.currentTimeMillis());
+              deliveredCounter.increment(changesets.size());
+            } else {
+              failedCounter.increment();
+            }
+          } catch (OpenSearchException | IOException e) {
+            log.error("can't store cursor of subscription " + subscription.getId() + " due to "
+                + e.getMessage(), e);
+          } finally {
+            inFlight.remove(subscription.getId());
+          }
+        });
+    return true;
+  }
+
+  /**
+   * Combines the filters of the subscription, empty if its type and owner filters match no
+   * document.
+   */
+  private Optional<Query> toQuery(Subscription subscription) throws IOException {
+    final List<Query> filters = new ArrayList<>();
+    if (subscription.getCursor() == null) {
+      filters.add(Query.of(query -> query.range(range -> range.field("timestamp")
+          .gte(JsonData.of(subscription.getCreated())))));
+    }
+    if (!subscription.getDocuments().isEmpty()) {
+      filters.add(ChangesetQueries.ofDocuments(subscription.getDocuments()));
+    }
+    if (!subscription.getTypes().isEmpty() || !subscription.getOwners().isEmpty()) {
+      final List<String> ids = findDocuments(subscription);
+      if (ids.isEmpty()) {
+        return Optional.empty();
+      }
+      filters.add(ChangesetQueries.ofDocuments(ids));
+    }
+    if (!subscription.getPaths().isEmpty()) {
+      filters.add(ChangesetQueries.changingFields(subscription.getPaths(), List.of()));
+    }
+    if (filters.isEmpty()) {
+      return Optional.of(Query.of(query -> query.matchAll(all -> all)));
+    }
+    return Optional.of(Query.of(query -> query.bool(bool -> bool.filter(filters))));
+  }
+
+  private List<String> findDocuments(Subscription subscription) throws IOException {
+    final List<Query> filters = new ArrayList<>();
+    if (!subscription.getTypes().isEmpty()) {
+      filters.add(terms("type.keyword", subscription.getTypes()));
+    }
+    if (!subscription.getOwners().isEmpty()) {
+      filters.add(terms("owner.keyword", subscription.getOwners()));
+    }
+    return client.search(request -> request.index(pivioIndex).size(maxDocuments)
+        .source(source -> source.fetch(false))
+        .query(query -> query.bool(bool -> bool.filter(filters))), JsonNode.class).hits().hits()
+        .stream().map(Hit::id).toList();
+  }
+
+  private Query terms(String field, List<String> values) {
+    return Query.of(query -> query.terms(terms -> terms.field(field)
+        .terms(list -> list.value(values.stream().map(FieldValue::of).toList()))));
+  }
+}
@@ -0,0 +1,34 @@
+package io.pivio.server.notification;
+
+import java.util.ArrayList;
+import java.util.List;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * A webhook receiving the changesets of the documents matching all of its non-empty filters.
+ * {@code cursor} holds the sort values of the last changeset delivered, {@code created} and
+ * {@code lastDelivery} are epoch milliseconds.
+ */
+@Data
+@Builder
+@AllArgsConstructor
+@NoArgsConstructor
+public class Subscription {
+
+  private String id;
+  private String url;
+  @Builder.Default
+  private List<String> documents = new ArrayList<>();
+  @Builder.Default
+  private List<String> types = new ArrayList<>();
+  @Builder.Default
+  private List<String> owners = new ArrayList<>();
+  @Builder.Default
+  private List<String> paths = new ArrayList<>();
+  private long created;
+  private List<String> cursor;
+  private Long lastDelivery;
+}
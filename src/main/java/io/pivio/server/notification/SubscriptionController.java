@@ -0,0 +1,105 @@
+package io.pivio.server.notification;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.List;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.CrossOrigin;
+import org.springframework.web.bind.annotation.DeleteMapping;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.util.UriComponentsBuilder;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.log4j.Log4j2;
+
+@CrossOrigin
+@RestController
+@RequestMapping(value = "/notification/subscription")
+@Log4j2
+public class SubscriptionController {
+
+  private final SubscriptionStore subscriptionStore;
+  private final Counter postSubscriptionCallsCounter;
+  private final Counter getSubscriptionCallsCounter;
+  private final Counter deleteSubscriptionCallsCounter;
+
+  public SubscriptionController(SubscriptionStore subscriptionStore, MeterRegistry registry) {
+    this.subscriptionStore = subscriptionStore;
+    this.postSubscriptionCallsCounter =
+        registry.counter("counter.calls.notification.subscription.post");
+    this.getSubscriptionCallsCounter =
+        registry.counter("counter.calls.notification.subscription.get");
+    this.deleteSubscriptionCallsCounter =
+        registry.counter("counter.calls.notification.subscription.delete");
+  }
+
+  @PostMapping(consumes = MediaType.APPLICATION_JSON_VALUE,
+      produces = MediaType.APPLICATION_JSON_VALUE)
+  public ResponseEntity<Subscription> create(@RequestBody Subscription subscription,
+      UriComponentsBuilder uriBuilder) throws IOException {
+    postSubscriptionCallsCounter.increment();
+    validate(subscription);
+    final Subscription created = subscriptionStore.create(subscription);
+    log.info("Created subscription {} for {}", created.getId(), created.getUrl());
+    return ResponseEntity.created(uriBuilder.path("/notification/subscription/{id}")
+        .buildAndExpand(created.getId()).toUri()).body(created);
+  }
+
+  @GetMapping(produces = MediaType.APPLICATION_JSON_VALUE)
+  public List<Subscription> list() throws IOException {
+    getSubscriptionCallsCounter.increment();
+    return subscriptionStore.list();
+  }
+
+  @GetMapping(value = "/{id}", produces = MediaType.APPLICATION_JSON_VALUE)
+  public ResponseEntity<Subscription> get(@PathVariable String id) throws IOException {
+    getSubscriptionCallsCounter.increment();
+    return ResponseEntity.of(subscriptionStore.get(id));
+  }
+
+  @DeleteMapping(value = "/{id}")
+  public ResponseEntity<Void> delete(@PathVariable String id) throws IOException {
+    deleteSubscriptionCallsCounter.increment();
+    log.info("Try to delete subscription {}", id);
+    return subscriptionStore.delete(id) ? ResponseEntity.noContent().build()
+        : ResponseEntity.notFound().build();
+  }
+
+  /**
+   * Requires an absolute http(s) URL and paths starting with a slash, missing filters are empty.
+   *
+   * @throws InvalidSubscriptionException if the subscription can't be delivered
+   */
+  private void validate(Subscription subscription) {
+    try {
+      final URI url = new URI(subscription.getUrl() == null ? "" : subscription.getUrl());
+      if (!"http".equals(url.getScheme()) && !"https".equals(url.getScheme())
+          || url.getHost() == null) {
+        throw new InvalidSubscriptionException(
+            subscription.getUrl() + " is not an absolute http or https URL");
+      }
+    } catch (URISyntaxException e) {
+      throw new InvalidSubscriptionException(subscription.getUrl() + " is not a valid URL");
+    }
+    subscription.setDocuments(orEmpty(subscription.getDocuments()));
+    subscription.setTypes(orEmpty(subscription.getTypes()));
+    subscription.setOwners(orEmpty(subscription.getOwners()));
+    subscription.setPaths(orEmpty(subscription.getPaths()));
+    if (subscription.getPaths().stream().anyMatch(path -> path == null || !path.startsWith("/"))) {
+      throw new InvalidSubscriptionException(
+          "paths " + subscription.getPaths() + " have to start with a slash");
+    }
+  }
+
+  private List<String> orEmpty(List<String> values) {
+    return values == null ? new ArrayList<>() : values;
+  }
+}
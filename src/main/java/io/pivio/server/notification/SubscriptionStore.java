@@ -0,0 +1,112 @@
+package io.pivio.server.notification;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import org.opensearch.client.opensearch.OpenSearchClient;
+import org.opensearch.client.opensearch._types.OpenSearchException;
+import org.opensearch.client.opensearch._types.Refresh;
+import org.opensearch.client.opensearch._types.Result;
+import org.opensearch.client.opensearch._types.SortOrder;
+import org.opensearch.client.opensearch.core.GetResponse;
+import org.opensearch.client.opensearch.core.search.Hit;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * Keeps the subscriptions and their delivery cursors in the {@code notification-subscription}
+ * index, so deliveries continue where they stopped after a restart.
+ */
+@Log4j2
+@Component
+public class SubscriptionStore {
+
+  private final OpenSearchClient client;
+  private final int maxSubscriptions;
+
+  @Value("#{notificationSubscriptionIndex}")
+  private String subscriptionIndex;
+
+  public SubscriptionStore(OpenSearchClient client,
+      @Value("${pivio.notification.max-subscriptions:1000}") int maxSubscriptions) {
+    this.client = client;
+    this.maxSubscriptions = maxSubscriptions;
+  }
+
+  /**
+   * Stores the subscription with a new id. Its first delivery starts with the changesets following
+   * its creation.
+   */
+  public Subscription create(Subscription subscription) throws IOException {
+    subscription.setId(UUID.randomUUID().toString());
+    subscription.setCreated(System.currentTimeMillis());
+    subscription.setCursor(null);
+    subscription.setLastDelivery(null);
+    client.index(request -> request.index(subscriptionIndex).id(subscription.getId())
+        .document(subscription).refresh(Refresh.WaitFor));
+    return subscription;
+  }
+
+  public Optional<Subscription> get(String id) throws IOException {
+    try {
+      GetResponse<Subscription> response =
+          client.get(request -> request.index(subscriptionIndex).id(id), Subscription.class);
+      return response.found() ? Optional.ofNullable(response.source()) : Optional.empty();
+    } catch (OpenSearchException e) {
+      if (e.status() == 404) {
+        return Optional.empty();
+      }
+      throw e;
+    }
+  }
+
+  /**
+   * @return at most {@code pivio.notification.max-subscriptions} subscriptions, oldest first
+   */
+  public List<Subscription> list() throws IOException {
+    try {
+      return client.search(request -> request.index(subscriptionIndex).size(maxSubscriptions)
+          .sort(sort -> sort.field(field -> field.field("created").order(SortOrder.Asc))),
+          Subscription.class).hits().hits().stream().map(Hit::source).toList();
+    } catch (OpenSearchException e) {
+      if (e.status() == 404) {
+        return List.of();
+      }
+      throw e;
+    }
+  }
+
+  /**
+   * @return whether the subscription existed
+   */
+  public boolean delete(String id) throws IOException {
+    try {
+      return client.delete(request -> request.index(subscriptionIndex).id(id)
+          .refresh(Refresh.WaitFor)).result() == Result.Deleted;
+    } catch (OpenSearchException e) {
+      if (e.status() == 404) {
+        return false;
+      }
+      throw e;
+    }
+  }
+
+  /**
+   * Moves the cursor of the subscription behind the changesets just delivered.
+   */
+  public void advance(String id, List<String> cursor, long deliveredAt) throws IOException {
+    final Map<String, Object> update = Map.of("cursor", cursor, "lastDelivery", deliveredAt);
+    try {
+      client.update(request -> request.index(subscriptionIndex).id(id).doc(update),
+          Subscription.class);
+    } catch (OpenSearchException e) {
+      if (e.status() != 404) {
+        throw e;
+      }
+      log.debug("subscription {} was deleted during its delivery", id);
+    }
+  }
+}
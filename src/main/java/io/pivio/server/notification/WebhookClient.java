@@ -0,0 +1,122 @@
+package io.pivio.server.notification;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * Posts JSON payloads to webhooks without blocking the caller. At most
+ * {@code pivio.notification.max-concurrent-deliveries} requests are in flight at a time. Failed
+ * attempts, that is connection errors, timeouts, {@code 429} and {@code 5xx} answers, are retried
+ * up to {@code pivio.notification.max-attempts} times with a backoff doubling from
+ * {@code pivio.notification.initial-backoff} up to {@code pivio.notification.max-backoff} ms. Other
+ * answers fail right away.
+ */
+@Log4j2
+@Component
+public class WebhookClient {
+
+  static final String SUBSCRIPTION_HEADER = "X-Pivio-Subscription";
+
+  private final HttpClient httpClient;
+  private final Semaphore permits;
+  private final ScheduledExecutorService retries = Executors.newSingleThreadScheduledExecutor(
+      Thread.ofPlatform().daemon().name("webhook-retry").factory());
+  private final int maxAttempts;
+  private final long initialBackoffMillis;
+  private final long maxBackoffMillis;
+  private final Duration timeout;
+
+  public WebhookClient(
+      @Value("${pivio.notification.max-concurrent-deliveries:8}") int maxConcurrentDeliveries,
+      @Value("${pivio.notification.max-attempts:5}") int maxAttempts,
+      @Value("${pivio.notification.initial-backoff:1000}") long initialBackoffMillis,
+      @Value("${pivio.notification.max-backoff:60000}") long maxBackoffMillis,
+      @Value("${pivio.notification.timeout:10000}") long timeoutMillis) {
+    this.timeout = Duration.ofMillis(timeoutMillis);
+    this.httpClient = HttpClient.newBuilder().connectTimeout(timeout)
+        .executor(Executors.newVirtualThreadPerTaskExecutor()).build();
+    this.permits = new Semaphore(Math.max(1, maxConcurrentDeliveries));
+    this.maxAttempts = Math.max(1, maxAttempts);
+    this.initialBackoffMillis = initialBackoffMillis;
+    this.maxBackoffMillis = maxBackoffMillis;
+  }
+
+  @PreDestroy
+  public void shutdown() {
+    retries.shutdownNow();
+  }
+
+  /**
+   * Posts the payload until it is accepted or the attempts are used up.
+   *
+   * @return completes with {@code true} once a {@code 2xx} answer arrived, {@code false} otherwise
+   */
+  public CompletableFuture<Boolean> post(URI url, String subscription, byte[] payload) {
+    final HttpRequest request = HttpRequest.newBuilder(url).timeout(timeout)
+        .header("Content-Type", "application/json").header(SUBSCRIPTION_HEADER, subscription)
+        .POST(HttpRequest.BodyPublishers.ofByteArray(payload)).build();
+    final CompletableFuture<Boolean> delivered = new CompletableFuture<>();
+    Thread.ofVirtual().name("webhook-" + subscription).start(() -> attempt(request, 1, delivered));
+    return delivered;
+  }
+
+  private void attempt(HttpRequest request, int attempt, CompletableFuture<Boolean> delivered) {
+    final int status;
+    try {
+      permits.acquire();
+      try {
+        status = httpClient.send(request, HttpResponse.BodyHandlers.discarding()).statusCode();
+      } finally {
+        permits.release();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      delivered.complete(false);
+      return;
+    } catch (IOException e) {
+      retryOrGiveUp(request, attempt, delivered, e.toString());
+      return;
+    }
+    if (status >= 200 && status < 300) {
+      delivered.complete(true);
+    } else if (status == 429 || status >= 500) {
+      retryOrGiveUp(request, attempt, delivered, "status " + status);
+    } else {
+      log.warn("webhook {} rejected delivery with status {}", request.uri(), status);
+      delivered.complete(false);
+    }
+  }
+
+  private void retryOrGiveUp(HttpRequest request, int attempt,
+      CompletableFuture<Boolean> delivered, String reason) {
+    if (attempt >= maxAttempts) {
+      log.warn("giving up delivery to {} after {} attempts, last failed with {}", request.uri(),
+          attempt, reason);
+      delivered.complete(false);
+      return;
+    }
+    final long backoff =
+        Math.min(maxBackoffMillis, initialBackoffMillis << Math.min(attempt - 1, 20));
+    log.debug("delivery to {} failed with {}, retrying in {}ms", request.uri(), reason, backoff);
+    try {
+      retries.schedule(() -> Thread.ofVirtual().start(() -> attempt(request, attempt + 1,
+          delivered)), backoff, TimeUnit.MILLISECONDS);
+    } catch (RuntimeException e) {
+      // rejected while shutting down
+      delivered.complete(false);
+    }
+  }
+}
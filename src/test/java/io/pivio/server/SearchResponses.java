@@ -0,0 +1,66 @@
+package io.pivio.server;
+
+import java.io.StringReader;
+import java.util.List;
+import java.util.function.Function;
+import org.opensearch.client.json.JsonpDeserializer;
+import org.opensearch.client.json.JsonpMapper;
+import org.opensearch.client.json.jackson.JacksonJsonpMapper;
+import org.opensearch.client.opensearch.core.SearchRequest;
+import org.opensearch.client.opensearch.core.SearchResponse;
+import org.opensearch.client.opensearch.core.pit.CreatePitResponse;
+import org.opensearch.client.opensearch.core.search.Hit;
+import org.opensearch.client.opensearch.core.search.TotalHitsRelation;
+import org.opensearch.client.util.ObjectBuilder;
+
+/**
+ * Builds the search requests and responses exchanged with a mocked {@code OpenSearchClient}.
+ */
+public final class SearchResponses {
+
+  private SearchResponses() {}
+
+  public static SearchRequest build(Object requestFunction) {
+    return build(requestFunction, new SearchRequest.Builder());
+  }
+
+  /**
+   * Applies a request function passed to the client to a fresh builder of the request.
+   */
+  @SuppressWarnings("unchecked")
+  public static <B, R> R build(Object requestFunction, B builder) {
+    return ((Function<B, ObjectBuilder<R>>) requestFunction).apply(builder).build();
+  }
+
+  /**
+   * Reads a search response as returned with typed keys, which allows to stub aggregations.
+   */
+  public static <T> SearchResponse<T> parse(String json, Class<T> type) {
+    JsonpMapper jsonpMapper = new JacksonJsonpMapper();
+    return SearchResponse.createSearchResponseDeserializer(JsonpDeserializer.of(type))
+        .deserialize(jsonpMapper.jsonProvider().createParser(new StringReader(json)), jsonpMapper);
+  }
+
+  @SafeVarargs
+  public static <T> SearchResponse<T> of(String pitId, Hit<T>... hits) {
+    return new SearchResponse.Builder<T>().took(1).timedOut(false).pitId(pitId)
+        .shards(shards -> shards.total(1).successful(1).failed(0))
+        .hits(metadata -> metadata.hits(List.of(hits))
+            .total(total -> total.value(hits.length).relation(TotalHitsRelation.Eq)))
+        .build();
+  }
+
+  @SafeVarargs
+  public static <T> SearchResponse<T> of(Hit<T>... hits) {
+    return of(null, hits);
+  }
+
+  public static CreatePitResponse pit(String pitId) {
+    return CreatePitResponse.of(pit -> pit.pitId(pitId).creationTime(0L)
+        .shards(shards -> shards.total(1).successful(1).failed(0)));
+  }
+
+  public static <T> Hit<T> hit(String id, T source, String... sort) {
+    return Hit.of(hit -> hit.index("index").id(id).source(source).sort(List.of(sort)));
+  }
+}
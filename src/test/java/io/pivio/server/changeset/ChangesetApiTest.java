@@ -13,6 +13,7 @@ import java.util.function.Function;
 import java.util.stream.Collectors;
 import org.apache.http.HttpHost;
 import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.jupiter.api.AfterAll;
@@ -44,6 +45,7 @@ import io.pivio.server.AbstractApiTestCase;
 import io.pivio.server.document.PivioDocument;
 import io.pivio.server.elasticsearch.Changeset;
 import io.pivio.server.elasticsearch.ElasticsearchQueryHelper;
+import io.pivio.server.elasticsearch.Fields;
 import net.minidev.json.JSONArray;
 
 
@@ -374,7 +376,139 @@ public class ChangesetApiTest extends AbstractApiTestCase {
 
   @Test
   public void changeset_cannot_be_requested_when_query_uses_since_filter_with_unsupported_time_unit() {
-    assertThatChangesetSinceRequestResultsInBadRequestResponse("32h");
+    assertThatChangesetSinceRequestResultsInBadRequestResponse("32y");
+  }
+
+  @Test
+  public void changesets_per_document_since_12_hours_are_returned() throws Exception {
+    // given
+    persistDocumentWithoutCreatingChangeset(document);
+    Changeset today = createChangesetDaysAgo(2L, 0);
+
+    // when
+    persistChangesets(today, createChangesetDaysAgo(1L, 1));
+
+    // then
+    assertThatChangesetsExistSince("12h", today);
+  }
+
+  @Test
+  public void changesets_between_from_and_to_are_returned() throws Exception {
+    // given
+    persistDocumentWithoutCreatingChangeset(document);
+    Changeset fiveDaysAgo = createChangesetDaysAgo(2L, 5);
+
+    // when
+    persistChangesets(createChangesetDaysAgo(3L, 1), fiveDaysAgo, createChangesetDaysAgo(1L, 9));
+
+    // then
+    DateTime now = DateTime.now(DateTimeZone.UTC);
+    assertThatChangesetsExist(
+        "/changeset?from=" + now.minusDays(7) + "&to=" + now.minusDays(3), fiveDaysAgo);
+  }
+
+  @Test
+  public void changeset_cannot_be_requested_with_invalid_from_timestamp() {
+    postDocument(document);
+
+    assertThat(restTemplate.getForEntity(DOCUMENT_CHANGESET_URL_TEMPLATE + "?from=yesterday",
+        JsonNode.class, SOME_ID).getStatusCode()).isEqualTo(HttpStatus.BAD_REQUEST);
+  }
+
+  @Test
+  public void changesets_are_paged_oldest_first_with_a_cursor() throws Exception {
+    // given
+    persistDocumentWithoutCreatingChangeset(document);
+    Changeset threeDaysAgo = createChangesetDaysAgo(1L, 3);
+    Changeset twoDaysAgo = createChangesetDaysAgo(2L, 2);
+    Changeset oneDayAgo = createChangesetDaysAgo(3L, 1);
+    persistChangesets(oneDayAgo, threeDaysAgo, twoDaysAgo);
+
+    // when
+    ResponseEntity<JsonNode> firstPage =
+        restTemplate.getForEntity("/changeset?size=2", JsonNode.class);
+    String cursor = firstPage.getHeaders().getFirst(ChangesetController.NEXT_CURSOR_HEADER);
+    ResponseEntity<JsonNode> secondPage =
+        restTemplate.getForEntity("/changeset?size=2&cursor={cursor}", JsonNode.class, cursor);
+    ResponseEntity<JsonNode> emptyPage = restTemplate.getForEntity("/changeset?cursor={cursor}",
+        JsonNode.class, secondPage.getHeaders().getFirst(ChangesetController.NEXT_CURSOR_HEADER));
+
+    // then
+    assertThat(toList(firstPage.getBody()).stream().map(c -> c.get("order").longValue()))
+        .containsExactly(1L, 2L);
+    assertThat(toList(secondPage.getBody()).stream().map(c -> c.get("order").longValue()))
+        .containsExactly(3L);
+    assertThat(emptyPage.getBody()).isEmpty();
+    assertThat(emptyPage.getHeaders().getFirst(ChangesetController.NEXT_CURSOR_HEADER))
+        .isEqualTo(secondPage.getHeaders().getFirst(ChangesetController.NEXT_CURSOR_HEADER));
+  }
+
+  @Test
+  public void changeset_stats_count_changesets_per_day_document_and_path() throws Exception {
+    // given
+    persistDocumentWithoutCreatingChangeset(document);
+    Changeset owner = createChangesetDaysAgo(2L, 1);
+    owner.setFields(
+        List.of(Fields.builder().op(REPLACE_OPERATION).path("/owner").value("a").build(),
+            Fields.builder().op(ADD_OPERATION).path("/description").value("b").build()));
+    Changeset ownerAgain = createChangesetDaysAgo(3L, 1);
+    ownerAgain.setFields(
+        List.of(Fields.builder().op(REPLACE_OPERATION).path("/owner").value("c").build()));
+
+    // when
+    persistChangesets(owner, ownerAgain, createChangesetDaysAgo(1L, 20));
+    ResponseEntity<JsonNode> response =
+        restTemplate.getForEntity("/changeset/_stats?since=7d", JsonNode.class);
+
+    // then
+    assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+    assertThat(response.getBody().get("total").asLong()).isEqualTo(2L);
+    assertThat(response.getBody().get("histogram")).hasSize(1);
+    assertThat(response.getBody().at("/documents/0/document").asText()).isEqualTo(SOME_ID);
+    assertThat(response.getBody().at("/paths/0/path").asText()).isEqualTo("/owner");
+    assertThat(response.getBody().at("/paths/0/changesets").asLong()).isEqualTo(2L);
+  }
+
+  @Test
+  public void changesets_of_all_documents_are_filtered_by_field_path_and_operation()
+      throws Exception {
+    // given
+    persistDocumentWithoutCreatingChangeset(document);
+    persistDocumentWithoutCreatingChangeset(document.deepCopy().put("id", ANOTHER_ID));
+    Changeset ownerReplaced = createChangesetDaysAgo(2L, 1);
+    ownerReplaced.setFields(
+        List.of(Fields.builder().op(REPLACE_OPERATION).path("/owner").value("a").build()));
+    Changeset ownersAdded = createChangesetDaysAgo(ANOTHER_ID, 2L, 1);
+    ownersAdded.setFields(
+        List.of(Fields.builder().op(ADD_OPERATION).path("/owners").value("b").build(),
+            Fields.builder().op(REPLACE_OPERATION).path("/name").value("c").build()));
+
+    // when
+    persistChangesets(ownerReplaced, ownersAdded, createChangesetDaysAgo(1L, 2));
+
+    // then
+    assertThatChangesetsExist("/changeset?path=/owner&op=replace&since=7d", ownerReplaced);
+    assertThat(restTemplate
+        .getForEntity("/changeset?path=/owner,/owners&distinct=true", JsonNode.class).getBody())
+        .extracting(JsonNode::asText).containsExactly(ANOTHER_ID, SOME_ID);
+  }
+
+  @Test
+  public void changesets_cannot_be_filtered_by_unknown_operation() {
+    assertThat(restTemplate.getForEntity("/changeset?path=/owner&op=rename", JsonNode.class)
+        .getStatusCode()).isEqualTo(HttpStatus.BAD_REQUEST);
+  }
+
+  @Test
+  public void changeset_stats_cannot_be_requested_with_unsupported_interval() {
+    assertThat(restTemplate.getForEntity("/changeset/_stats?interval=fortnight", JsonNode.class)
+        .getStatusCode()).isEqualTo(HttpStatus.BAD_REQUEST);
+  }
+
+  @Test
+  public void changeset_page_size_above_maximum_is_rejected() {
+    assertThat(restTemplate.getForEntity("/changeset?size=100000", JsonNode.class)
+        .getStatusCode()).isEqualTo(HttpStatus.BAD_REQUEST);
   }
 
   @Test
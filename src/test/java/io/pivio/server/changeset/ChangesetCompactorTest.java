@@ -0,0 +1,160 @@
+package io.pivio.server.changeset;
+
+import static io.pivio.server.SearchResponses.hit;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+import org.joda.time.DateTime;
+import org.junit.Before;
+import org.junit.Test;
+import org.opensearch.client.opensearch.OpenSearchClient;
+import org.opensearch.client.opensearch._types.query_dsl.Query;
+import org.opensearch.client.opensearch._types.query_dsl.RangeQuery;
+import org.opensearch.client.opensearch.core.BulkRequest;
+import org.opensearch.client.opensearch.core.BulkResponse;
+import org.opensearch.client.opensearch.core.DeleteByQueryRequest;
+import org.opensearch.client.opensearch.core.DeleteByQueryResponse;
+import org.opensearch.client.opensearch.core.SearchRequest;
+import org.opensearch.client.opensearch.core.search.Hit;
+import org.springframework.test.util.ReflectionTestUtils;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.pivio.server.SearchResponses;
+
+public class ChangesetCompactorTest {
+
+  private final ObjectMapper mapper = new ObjectMapper();
+  private final OpenSearchClient client = mock(OpenSearchClient.class);
+  private final List<SearchRequest> historyRequests = new ArrayList<>();
+  private final List<BulkRequest> bulkRequests = new ArrayList<>();
+  private final List<DeleteByQueryRequest> deleteRequests = new ArrayList<>();
+  private final List<String> historyStates = new ArrayList<>();
+
+  @Before
+  public void setUp() throws Exception {
+    when(client.search(any(Function.class), eq(JsonNode.class))).thenAnswer(invocation -> {
+      historyRequests.add(SearchResponses.build(invocation.getArgument(0)));
+      return SearchResponses.parse(historyStatesResponse(), JsonNode.class);
+    });
+    when(client.bulk(any(Function.class))).thenAnswer(invocation -> {
+      bulkRequests.add(SearchResponses.build(invocation.getArgument(0), new BulkRequest.Builder()));
+      return BulkResponse.of(response -> response.took(1).errors(false).items(List.of()));
+    });
+    when(client.deleteByQuery(any(Function.class))).thenAnswer(invocation -> {
+      deleteRequests.add(
+          SearchResponses.build(invocation.getArgument(0), new DeleteByQueryRequest.Builder()));
+      return DeleteByQueryResponse.of(response -> response.deleted(1L));
+    });
+  }
+
+  @Test
+  public void snapshotsNewDocumentsRightAway() throws Exception {
+    stubLatestSnapshots(latest("fresh", 3));
+
+    compactor(0).compact();
+
+    assertThat(snapshotIds()).containsExactly("fresh-3");
+  }
+
+  @Test
+  public void snapshotsDocumentsAfterEnoughChangesets() throws Exception {
+    historyState("due", 10, 0);
+    historyState("recent", 40, 0);
+    historyState("unchanged", 60, 0);
+    stubLatestSnapshots(latest("due", 60), latest("recent", 60), latest("unchanged", 60),
+        LatestSnapshot.builder().document("deleted").order(7).build());
+
+    compactor(0).compact();
+
+    assertThat(snapshotIds()).containsExactly("due-60");
+    verify(client, never()).deleteByQuery(any(Function.class));
+  }
+
+  @Test
+  public void rollsUpHistoryOlderThanRetention() throws Exception {
+    historyState("rolled", 120, 40);
+    historyState("kept", 100, 0);
+    stubLatestSnapshots(latest("rolled", 120), latest("kept", 100));
+
+    compactor(30).compact();
+
+    RangeQuery expired = historyRequests.getFirst().aggregations().get("documents")
+        .aggregations().get("expired").filter().range();
+    assertThat(expired.lt().to(Long.class))
+        .isCloseTo(DateTime.now().minusDays(30).getMillis(), within(60_000L));
+    assertThat(deleteRequests).extracting(request -> request.index().getFirst())
+        .containsExactly("changeset", "changeset-history");
+    assertThat(rollUpRange(deleteRequests.get(0)).lte().to(Long.class)).isEqualTo(40L);
+    assertThat(rollUpRange(deleteRequests.get(1)).lt().to(Long.class)).isEqualTo(40L);
+  }
+
+  @Test
+  public void keepsHistoryWithoutRetention() throws Exception {
+    stubLatestSnapshots(latest("kept", 100));
+
+    compactor(0).compact();
+
+    RangeQuery expired = historyRequests.getFirst().aggregations().get("documents")
+        .aggregations().get("expired").filter().range();
+    assertThat(expired.lt().to(Long.class)).isZero();
+    verify(client, never()).deleteByQuery(any(Function.class));
+  }
+
+  private ChangesetCompactor compactor(int retentionDays) {
+    ChangesetCompactor compactor =
+        new ChangesetCompactor(client, new SimpleMeterRegistry(), true, 50, retentionDays, 100);
+    ReflectionTestUtils.setField(compactor, "latestSnapshotIndex", "changeset-latest");
+    ReflectionTestUtils.setField(compactor, "changesetHistoryIndex", "changeset-history");
+    ReflectionTestUtils.setField(compactor, "changesetIndex", "changeset");
+    return compactor;
+  }
+
+  private LatestSnapshot latest(String document, long order) {
+    return LatestSnapshot.builder().document(document).order(order)
+        .snapshot(mapper.createObjectNode().put("id", document)
+            .put("lastUpdate", "2024-05-01T12:00:00.000Z"))
+        .build();
+  }
+
+  private void stubLatestSnapshots(LatestSnapshot... latestSnapshots) throws Exception {
+    List<Hit<LatestSnapshot>> hits = new ArrayList<>();
+    for (LatestSnapshot latestSnapshot : latestSnapshots) {
+      hits.add(hit(latestSnapshot.getDocument(), latestSnapshot, latestSnapshot.getDocument()));
+    }
+    when(client.search(any(Function.class), eq(LatestSnapshot.class)))
+        .thenReturn(SearchResponses.of(hits.toArray(Hit[]::new))).thenReturn(SearchResponses.of());
+  }
+
+  private void historyState(String document, long latestOrder, long expiredOrder) {
+    historyStates.add("{\"key\":\"" + document + "\",\"doc_count\":1,\"max#latest\":{\"value\":"
+        + latestOrder + "},\"filter#expired\":{\"doc_count\":" + (expiredOrder > 0 ? 1 : 0)
+        + ",\"max#order\":{\"value\":" + (expiredOrder > 0 ? expiredOrder : "null") + "}}}");
+  }
+
+  private String historyStatesResponse() {
+    return "{\"took\":1,\"timed_out\":false,"
+        + "\"_shards\":{\"total\":1,\"successful\":1,\"failed\":0},"
+        + "\"hits\":{\"total\":{\"value\":0,\"relation\":\"eq\"},\"hits\":[]},"
+        + "\"aggregations\":{\"sterms#documents\":{\"doc_count_error_upper_bound\":0,"
+        + "\"sum_other_doc_count\":0,\"buckets\":[" + String.join(",", historyStates) + "]}}}";
+  }
+
+  private List<String> snapshotIds() {
+    return bulkRequests.stream().flatMap(request -> request.operations().stream())
+        .map(operation -> operation.index().id()).toList();
+  }
+
+  private RangeQuery rollUpRange(DeleteByQueryRequest request) {
+    Query rollUp = request.query().bool().should().getFirst();
+    return rollUp.bool().filter().get(1).range();
+  }
+}
@@ -0,0 +1,176 @@
+package io.pivio.server.changeset;
+
+import static io.pivio.server.SearchResponses.hit;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.opensearch.client.opensearch._types.query_dsl.Query;
+import org.opensearch.client.opensearch._types.query_dsl.RangeQuery;
+import org.opensearch.client.opensearch.core.search.Hit;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.pivio.server.elasticsearch.ChangesetCursor;
+import io.pivio.server.elasticsearch.ElasticsearchQueryHelper;
+
+public class ChangesetControllerTest {
+
+  private final ObjectMapper mapper = new ObjectMapper();
+  private final ElasticsearchQueryHelper queryHelper = mock(ElasticsearchQueryHelper.class);
+  private final ChangesetStats changesetStats = mock(ChangesetStats.class);
+  private final MockHttpServletResponse response = new MockHttpServletResponse();
+  private ChangesetController controller;
+
+  @Before
+  public void setUp() throws Exception {
+    controller = new ChangesetController(new SimpleMeterRegistry(), queryHelper,
+        mock(ChangesetFeed.class), changesetStats, mapper);
+    ReflectionTestUtils.setField(controller, "maxPageSize", 50);
+    when(queryHelper.retrieveAllChangesets(any(Query.class)))
+        .thenReturn(mapper.createArrayNode());
+    when(queryHelper.retrieveChangesetPage(any(Query.class), anyInt(), anyList()))
+        .thenReturn(List.of());
+  }
+
+  @Test
+  public void pushesSinceDownAsDateMath() throws Exception {
+    controller.listAll("3d", null, null, null, null, false, null, null, response);
+
+    RangeQuery range = capturedQuery().range();
+    assertThat(range.field()).isEqualTo("timestamp");
+    assertThat(range.gte().to(String.class)).isEqualTo("now-3d");
+    assertThat(range.lte().to(String.class)).isEqualTo("now");
+  }
+
+  @Test
+  public void prefersFromOverSinceAndNormalizesTimestamps() throws Exception {
+    controller.listAll("3d", "2024-05-01T12:00:00+02:00", "2024-05-02T12:00:00.000Z", null, null,
+        false, null, null, response);
+
+    RangeQuery range = capturedQuery().range();
+    assertThat(range.gte().to(String.class)).isEqualTo("2024-05-01T12:00:00.000+02:00");
+    assertThat(range.lte().to(String.class)).isEqualTo("2024-05-02T12:00:00.000Z");
+  }
+
+  @Test
+  public void rejectsInvalidTimeParameters() {
+    assertThatThrownBy(() -> controller.listAll("3y", null, null, null, null, false, null, null,
+        response)).isInstanceOf(InvalidSinceParameterException.class);
+    assertThatThrownBy(() -> controller.listAll(null, "yesterday", null, null, null, false, null,
+        null, response)).isInstanceOf(InvalidSinceParameterException.class)
+        .hasMessage("from=yesterday is not a valid parameter");
+  }
+
+  @Test
+  public void rejectsInvalidPageSizesAndFieldFilters() {
+    assertThatThrownBy(() -> controller.listAll(null, null, null, null, null, false, 0, null,
+        response)).isInstanceOf(InvalidChangesetParameterException.class)
+        .hasMessage("size=0 is not a valid parameter");
+    assertThatThrownBy(() -> controller.listAll(null, null, null, null, null, true, 51, null,
+        response)).isInstanceOf(InvalidChangesetParameterException.class);
+    assertThatThrownBy(() -> controller.listAll(null, null, null, "name", null, false, null,
+        null, response)).isInstanceOf(InvalidChangesetParameterException.class);
+    assertThatThrownBy(() -> controller.listAll(null, null, null, null, "move", false, null,
+        null, response)).isInstanceOf(InvalidChangesetParameterException.class);
+    assertThatThrownBy(() -> controller.stats(null, null, null, "fortnight", null))
+        .isInstanceOf(InvalidChangesetParameterException.class)
+        .hasMessage("interval=fortnight is not a valid parameter");
+  }
+
+  @Test
+  public void returnsTheCursorOfTheLastChangesetOfAPage() throws Exception {
+    when(queryHelper.retrieveChangesetPage(any(Query.class), eq(2), eq(List.of())))
+        .thenReturn(
+            List.of(changeset("a", "1000", "1", "a-1"), changeset("b", "2000", "1", "b-1")));
+
+    assertThat(controller.listAll(null, null, null, null, null, false, 2, null, response))
+        .extracting(changeset -> changeset.path("document").asText()).containsExactly("a", "b");
+
+    String cursor = response.getHeader(ChangesetController.NEXT_CURSOR_HEADER);
+    assertThat(ChangesetCursor.decode(cursor, mapper).searchAfter())
+        .containsExactly("2000", "1", "b-1");
+  }
+
+  @Test
+  public void continuesAfterTheCursorAndHandsItBackOnAnEmptyPage() throws Exception {
+    String cursor = new ChangesetCursor(List.of("2000", "1", "b-1")).encode(mapper);
+
+    assertThat(controller.listAll(null, null, null, null, null, false, null, cursor, response))
+        .isEmpty();
+
+    verify(queryHelper).retrieveChangesetPage(any(Query.class), eq(100),
+        eq(List.of("2000", "1", "b-1")));
+    assertThat(response.getHeader(ChangesetController.NEXT_CURSOR_HEADER)).isEqualTo(cursor);
+  }
+
+  @Test
+  public void streamsAllChangesetsAsNdjson() throws Exception {
+    doAnswer(invocation -> {
+      invocation.<OutputStream>getArgument(1).write(
+          "{\"document\":\"a\"}\n".getBytes(StandardCharsets.UTF_8));
+      return null;
+    }).when(queryHelper).exportAllChangesets(any(Query.class), any(OutputStream.class));
+
+    ResponseEntity<StreamingResponseBody> entity =
+        controller.streamAll("3d", null, null, null, null);
+
+    assertThat(entity.getHeaders().getContentType()).isEqualTo(MediaType.APPLICATION_NDJSON);
+    assertThat(written(entity)).isEqualTo("{\"document\":\"a\"}\n");
+    ArgumentCaptor<Query> query = ArgumentCaptor.forClass(Query.class);
+    verify(queryHelper).exportAllChangesets(query.capture(), any(OutputStream.class));
+    assertThat(query.getValue().range().gte().to(String.class)).isEqualTo("now-3d");
+  }
+
+  @Test
+  public void streamsTheChangesetsOfOneDocument() throws Exception {
+    when(queryHelper.isDocumentPresent("a")).thenReturn(true);
+
+    written(controller.stream("a", null, null, null));
+
+    verify(queryHelper).streamAllChangesets(any(Query.class), any(OutputStream.class));
+  }
+
+  @Test
+  public void rejectsStreamingChangesetsOfMissingDocuments() throws Exception {
+    assertThatThrownBy(() -> controller.stream("missing", null, null, null))
+        .isInstanceOf(DocumentNotFoundException.class);
+
+    verify(queryHelper, never()).streamAllChangesets(any(Query.class), any(OutputStream.class));
+  }
+
+  private String written(ResponseEntity<StreamingResponseBody> entity) throws Exception {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    entity.getBody().writeTo(out);
+    return out.toString(StandardCharsets.UTF_8);
+  }
+
+  private Query capturedQuery() throws Exception {
+    ArgumentCaptor<Query> query = ArgumentCaptor.forClass(Query.class);
+    verify(queryHelper).retrieveAllChangesets(query.capture());
+    return query.getValue();
+  }
+
+  private Hit<JsonNode> changeset(String document, String... sort) {
+    return hit(document, mapper.createObjectNode().put("document", document), sort);
+  }
+}
@@ -0,0 +1,197 @@
+package io.pivio.server.changeset;
+
+import static io.pivio.server.SearchResponses.hit;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.awaitility.Awaitility.await;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import org.joda.time.DateTime;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.opensearch.client.opensearch.OpenSearchClient;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.pivio.server.SearchResponses;
+import io.pivio.server.changeset.ChangesetFeed.ResumeToken;
+import io.pivio.server.elasticsearch.Changeset;
+import io.pivio.server.elasticsearch.Fields;
+
+public class ChangesetFeedTest {
+
+  private final ObjectMapper mapper = new ObjectMapper();
+  private final OpenSearchClient client = mock(OpenSearchClient.class);
+  private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+  private final List<RecordingEmitter> emitters = new CopyOnWriteArrayList<>();
+  private ChangesetFeed feed;
+
+  @Before
+  public void setUp() {
+    feed = new ChangesetFeed(client, mapper, registry, 2, 60000) {
+      @Override
+      SseEmitter newEmitter() {
+        RecordingEmitter emitter = new RecordingEmitter();
+        emitters.add(emitter);
+        return emitter;
+      }
+    };
+    ReflectionTestUtils.setField(feed, "changesetIndex", "changeset");
+  }
+
+  @After
+  public void tearDown() {
+    feed.shutdown();
+  }
+
+  @Test
+  public void publishesChangesetsToLiveSubscribers() {
+    RecordingEmitter emitter = subscribe(Optional.empty(), Optional.empty(), Optional.empty());
+
+    feed.publish(changeset("a", 1, 1000L, "/name"));
+    feed.publish(Changeset.builder().document("a").order(2).timestamp(new DateTime(2000L))
+        .build());
+    feed.publish(changeset("b", 1, 3000L, "/owner"));
+
+    await().atMost(5, TimeUnit.SECONDS)
+        .untilAsserted(() -> assertThat(emitter.ids).containsExactly("1000:1:a", "3000:1:b"));
+    assertThat(emitter.changesets.getFirst().path("fields").get(0).path("path").asText())
+        .isEqualTo("/name");
+  }
+
+  @Test
+  public void filtersByDocumentAndPathPrefix() {
+    RecordingEmitter emitter =
+        subscribe(Optional.of("a"), Optional.of("/owner"), Optional.empty());
+
+    feed.publish(changeset("b", 1, 1000L, "/owner"));
+    feed.publish(changeset("a", 1, 2000L, "/name"));
+    feed.publish(changeset("a", 2, 3000L, "/name", "/owner/name"));
+
+    await().atMost(5, TimeUnit.SECONDS)
+        .untilAsserted(() -> assertThat(emitter.ids).containsExactly("3000:2:a"));
+    assertThat(emitter.changesets.getFirst().path("fields")).hasSize(1);
+    assertThat(emitter.changesets.getFirst().path("fields").get(0).path("path").asText())
+        .isEqualTo("/owner/name");
+  }
+
+  @Test
+  public void disconnectsSubscribersWhoseBufferOverflows() throws Exception {
+    CountDownLatch replay = new CountDownLatch(1);
+    when(client.search(any(Function.class), eq(JsonNode.class))).thenAnswer(invocation -> {
+      replay.await(5, TimeUnit.SECONDS);
+      return SearchResponses.of();
+    });
+    RecordingEmitter emitter = subscribe(Optional.empty(), Optional.empty(), Optional.of("0:0:a"));
+
+    // nothing is sent while catching up, so the buffer of two changesets overflows
+    feed.publish(changeset("a", 1, 1000L, "/name"));
+    feed.publish(changeset("a", 2, 2000L, "/name"));
+    feed.publish(changeset("a", 3, 3000L, "/name"));
+    replay.countDown();
+
+    assertThat(emitter.completed).isTrue();
+    assertThat(registry.counter("changeset.feed.dropped").count()).isEqualTo(1.0);
+  }
+
+  @Test
+  public void resumesWithoutDuplicatesAndKeepsLaterChangesets() throws Exception {
+    when(client.search(any(Function.class), eq(JsonNode.class))).thenAnswer(invocation -> {
+      // published while the replay reads it
+      feed.publish(changeset("a", 2, 2000L, "/name"));
+      JsonNode replayed = mapper.createObjectNode().put("document", "a").put("order", 2);
+      return SearchResponses.of(hit("a-2", replayed, "2000", "a", "2"));
+    });
+
+    RecordingEmitter emitter =
+        subscribe(Optional.empty(), Optional.empty(), Optional.of("1000:1:a"));
+    await().atMost(5, TimeUnit.SECONDS)
+        .untilAsserted(() -> assertThat(emitter.ids).containsExactly("2000:2:a"));
+    // an older timestamp than the last one sent, as written by a slow upload
+    feed.publish(changeset("b", 1, 1500L, "/owner"));
+
+    await().atMost(5, TimeUnit.SECONDS)
+        .untilAsserted(() -> assertThat(emitter.ids).containsExactly("2000:2:a", "1500:1:b"));
+  }
+
+  @Test
+  public void resumeTokensSurviveEncoding() {
+    ResumeToken token = new ResumeToken(1700000000000L, "service:with:colons", 42L);
+
+    assertThat(ResumeToken.parse(token.encode())).isEqualTo(token);
+  }
+
+  @Test
+  public void resumeTokensAreOrderedByTimestampDocumentAndOrder() {
+    ResumeToken first = new ResumeToken(1000L, "b", 7L);
+    ResumeToken sameTimeOtherDocument = new ResumeToken(1000L, "c", 1L);
+    ResumeToken sameDocumentNextOrder = new ResumeToken(1000L, "c", 2L);
+    ResumeToken later = new ResumeToken(2000L, "a", 1L);
+
+    assertThat(first).isLessThan(sameTimeOtherDocument);
+    assertThat(sameTimeOtherDocument).isLessThan(sameDocumentNextOrder);
+    assertThat(sameDocumentNextOrder).isLessThan(later);
+  }
+
+  @Test
+  public void rejectsMalformedResumeTokens() {
+    assertThatThrownBy(() -> ResumeToken.parse("yesterday"))
+        .isInstanceOf(InvalidResumeTokenException.class);
+    assertThatThrownBy(() -> ResumeToken.parse("1000:x:doc"))
+        .isInstanceOf(InvalidResumeTokenException.class);
+    assertThatThrownBy(() -> ResumeToken.parse("1000:1:"))
+        .isInstanceOf(InvalidResumeTokenException.class);
+  }
+
+  private RecordingEmitter subscribe(Optional<String> document, Optional<String> path,
+      Optional<String> resumeToken) {
+    feed.subscribe(document, path, resumeToken);
+    return emitters.getLast();
+  }
+
+  private Changeset changeset(String document, long order, long timestamp, String... paths) {
+    return Changeset.builder().document(document).order(order).timestamp(new DateTime(timestamp))
+        .fields(Arrays.stream(paths)
+            .map(path -> Fields.builder().op("replace").path(path).value("x").build()).toList())
+        .build();
+  }
+
+  /**
+   * Records the ids and data of the sent events instead of writing them to a response.
+   */
+  private static final class RecordingEmitter extends SseEmitter {
+
+    private final List<String> ids = new CopyOnWriteArrayList<>();
+    private final List<JsonNode> changesets = new CopyOnWriteArrayList<>();
+    private volatile boolean completed;
+
+    @Override
+    public void send(SseEventBuilder builder) {
+      builder.build().forEach(data -> {
+        if (data.getData() instanceof JsonNode changeset) {
+          changesets.add(changeset);
+        } else {
+          data.getData().toString().lines().filter(line -> line.startsWith("id:"))
+              .forEach(line -> ids.add(line.substring(3)));
+        }
+      });
+    }
+
+    @Override
+    public void complete() {
+      completed = true;
+    }
+  }
+}
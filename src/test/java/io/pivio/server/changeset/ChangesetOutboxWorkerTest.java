@@ -0,0 +1,212 @@
+package io.pivio.server.changeset;
+
+import static io.pivio.server.SearchResponses.hit;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Function;
+import java.util.stream.Stream;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.opensearch.client.opensearch.OpenSearchClient;
+import org.opensearch.client.opensearch.core.BulkRequest;
+import org.opensearch.client.opensearch.core.BulkResponse;
+import org.opensearch.client.opensearch.core.bulk.BulkOperation;
+import org.opensearch.client.opensearch.core.bulk.BulkResponseItem;
+import org.opensearch.client.opensearch.core.bulk.OperationType;
+import org.opensearch.client.opensearch.core.search.Hit;
+import org.springframework.test.util.ReflectionTestUtils;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.pivio.server.SearchResponses;
+import io.pivio.server.elasticsearch.Changeset;
+
+public class ChangesetOutboxWorkerTest {
+
+  private static final String OUTBOX = "changeset-outbox";
+  private static final String LATEST = "changeset-latest";
+  private static final String CHANGESETS = "changeset";
+
+  private final ObjectMapper mapper = new ObjectMapper();
+  private final OpenSearchClient client = mock(OpenSearchClient.class);
+  private final ChangesetFeed changesetFeed = mock(ChangesetFeed.class);
+  private final ExecutorService workers = Executors.newFixedThreadPool(2);
+  private final List<BulkRequest> bulkRequests = new ArrayList<>();
+  private final Set<String> conflictingClaims = new HashSet<>();
+  private final Set<String> failingChangesets = new HashSet<>();
+  private LatestSnapshotStore latestSnapshotStore;
+  private ChangesetOutboxWorker worker;
+
+  @Before
+  public void setUp() throws Exception {
+    SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    ChangesetOutbox outbox = new ChangesetOutbox(client, "outbox");
+    ReflectionTestUtils.setField(outbox, "changesetOutboxIndex", OUTBOX);
+    latestSnapshotStore = spy(new LatestSnapshotStore(client, registry, 100));
+    ReflectionTestUtils.setField(latestSnapshotStore, "latestSnapshotIndex", LATEST);
+    doReturn(Map.of()).when(latestSnapshotStore).getAll(anyCollection());
+    worker = new ChangesetOutboxWorker(outbox,
+        new ChangesetService(mapper, new StructuralDiff("name,id,key")), latestSnapshotStore,
+        changesetFeed, client, registry, 500, 500, 2);
+    ReflectionTestUtils.setField(worker, "changesetIndex", CHANGESETS);
+    ReflectionTestUtils.setField(worker, "workers", workers);
+
+    when(client.bulk(any(Function.class))).thenAnswer(invocation -> {
+      BulkRequest request =
+          SearchResponses.build(invocation.getArgument(0), new BulkRequest.Builder());
+      bulkRequests.add(request);
+      return BulkResponse.of(response -> response.took(1).errors(false)
+          .items(request.operations().stream().map(this::respond).toList()));
+    });
+  }
+
+  @After
+  public void tearDown() {
+    workers.shutdownNow();
+  }
+
+  @Test
+  public void computesChangesetsOfEachDocumentInOrder() throws Exception {
+    stubOutbox(record("r1", "a", "A1", 1000L), record("r2", "b", "B1", 2000L),
+        record("r3", "a", "A2", 3000L));
+
+    assertThat(worker.processNext()).isEqualTo(3);
+
+    List<Changeset> changesets = documents(bulkRequests.get(0), CHANGESETS, Changeset.class);
+    assertThat(changesets).extracting(changeset -> changeset.getDocument() + "-"
+        + changeset.getOrder()).containsExactly("a-1", "a-2", "b-1");
+    Changeset secondOfA = changesets.get(1);
+    assertThat(secondOfA.getTimestamp().getMillis()).isEqualTo(3000L);
+    assertThat(secondOfA.getFields()).extracting(field -> field.getOp() + " " + field.getPath())
+        .containsExactly("replace /name");
+
+    List<LatestSnapshot> claims = documents(bulkRequests.get(1), LATEST, LatestSnapshot.class);
+    assertThat(claims).extracting(claim -> claim.getDocument() + "-" + claim.getOrder())
+        .containsExactly("a-2", "b-1");
+    assertThat(claims.get(0).getSnapshot().path("name").asText()).isEqualTo("A2");
+    assertThat(deletedRecords(bulkRequests.get(2))).containsExactlyInAnyOrder("r1", "r2", "r3");
+    verify(changesetFeed, times(3)).publish(any(Changeset.class));
+  }
+
+  @Test
+  public void keepsRecordsOfConflictingClaimsForTheNextPass() throws Exception {
+    LatestSnapshot stale = latest("a", 3, 5L);
+    doReturn(Map.of("a", stale)).when(latestSnapshotStore).getAll(anyCollection());
+    stubOutbox(record("r1", "a", "A2", 1000L));
+    conflictingClaims.add("a");
+
+    worker.processNext();
+
+    BulkOperation claim = bulkRequests.get(1).operations().getFirst();
+    assertThat(claim.index().ifSeqNo()).isEqualTo(5L);
+    assertThat(bulkRequests).hasSize(2);
+    verify(latestSnapshotStore).invalidate("a");
+    verify(changesetFeed, never()).publish(any(Changeset.class));
+
+    // the next pass reads the snapshot the other writer persisted and succeeds
+    conflictingClaims.clear();
+    bulkRequests.clear();
+    doReturn(Map.of("a", latest("a", 4, 6L))).when(latestSnapshotStore)
+        .getAll(anyCollection());
+
+    worker.processNext();
+
+    assertThat(documents(bulkRequests.get(0), CHANGESETS, Changeset.class))
+        .extracting(Changeset::getOrder).containsExactly(5L);
+    assertThat(bulkRequests.get(1).operations().getFirst().index().ifSeqNo()).isEqualTo(6L);
+    assertThat(deletedRecords(bulkRequests.get(2))).containsExactly("r1");
+    verify(changesetFeed).publish(any(Changeset.class));
+  }
+
+  @Test
+  public void keepsRecordsWhoseChangesetsCouldNotBeIndexed() throws Exception {
+    stubOutbox(record("r1", "a", "A1", 1000L), record("r2", "b", "B1", 2000L));
+    failingChangesets.add("a-1");
+
+    worker.processNext();
+
+    assertThat(documents(bulkRequests.get(1), LATEST, LatestSnapshot.class))
+        .extracting(LatestSnapshot::getDocument).containsExactly("b");
+    assertThat(deletedRecords(bulkRequests.get(2))).containsExactly("r2");
+  }
+
+  @Test
+  public void deletesNothingOfAnEmptyOutbox() throws Exception {
+    stubOutbox();
+
+    assertThat(worker.processNext()).isZero();
+
+    verify(client, never()).bulk(any(Function.class));
+  }
+
+  @SafeVarargs
+  private void stubOutbox(Hit<OutboxRecord>... records) throws Exception {
+    when(client.search(any(Function.class), eq(OutboxRecord.class)))
+        .thenReturn(SearchResponses.of(records));
+  }
+
+  private Hit<OutboxRecord> record(String id, String document, String name, long enqueued) {
+    return hit(id, OutboxRecord.builder().document(document).enqueued(enqueued)
+        .snapshot(mapper.createObjectNode().put("id", document).put("name", name)).build());
+  }
+
+  private LatestSnapshot latest(String document, long order, Long seqNo) {
+    return LatestSnapshot.builder().document(document).order(order)
+        .snapshot(mapper.createObjectNode().put("id", document).put("name", "A1")).seqNo(seqNo)
+        .primaryTerm(1L).build();
+  }
+
+  private BulkResponseItem respond(BulkOperation operation) {
+    if (operation.isDelete()) {
+      return BulkResponseItem.of(item -> item.operationType(OperationType.Delete)
+          .index(operation.delete().index()).id(operation.delete().id()).status(200));
+    }
+    String index = operation.isIndex() ? operation.index().index() : operation.create().index();
+    String id = operation.isIndex() ? operation.index().id() : operation.create().id();
+    boolean conflict = LATEST.equals(index) && conflictingClaims.contains(id);
+    boolean failure = CHANGESETS.equals(index) && failingChangesets.contains(id);
+    return BulkResponseItem.of(item -> {
+      item.operationType(operation.isIndex() ? OperationType.Index : OperationType.Create)
+          .index(index).id(id).seqNo(7L).primaryTerm(1L);
+      if (conflict || failure) {
+        return item.status(conflict ? 409 : 500)
+            .error(error -> error.type("error").reason(conflict ? "version conflict" : "failed"));
+      }
+      return item.status(201);
+    });
+  }
+
+  private <T> List<T> documents(BulkRequest request, String index, Class<T> type) {
+    return request.operations().stream().flatMap(operation -> {
+      if (operation.isIndex() && index.equals(operation.index().index())) {
+        return Stream.of(type.cast(operation.index().document()));
+      }
+      if (operation.isCreate() && index.equals(operation.create().index())) {
+        return Stream.of(type.cast(operation.create().document()));
+      }
+      return Stream.empty();
+    }).toList();
+  }
+
+  private List<String> deletedRecords(BulkRequest request) {
+    return request.operations().stream().filter(BulkOperation::isDelete)
+        .filter(operation -> OUTBOX.equals(operation.delete().index()))
+        .map(operation -> operation.delete().id()).toList();
+  }
+}
@@ -0,0 +1,71 @@
+package io.pivio.server.changeset;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import org.junit.Test;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+public class ChangesetReplayTest {
+
+  private final ObjectMapper mapper = new ObjectMapper();
+  private final StructuralDiff structuralDiff = new StructuralDiff("name,id");
+  private final ChangesetReplay changesetReplay = new ChangesetReplay(mapper);
+
+  @Test
+  public void replaysAddedRemovedAndReplacedFields() throws Exception {
+    assertRoundTrip("{\"id\":\"a\",\"name\":\"A\",\"owner\":\"x\",\"port\":80}",
+        "{\"id\":\"a\",\"name\":\"B\",\"port\":8080,\"links\":{\"homepage\":\"http://a\"}}");
+  }
+
+  @Test
+  public void replaysArraysMatchedByKey() throws Exception {
+    assertRoundTrip(
+        "{\"software_dependencies\":[{\"name\":\"a\",\"version\":\"1\"},"
+            + "{\"name\":\"b\",\"version\":\"1\"},{\"name\":\"c\",\"version\":\"1\"}]}",
+        "{\"software_dependencies\":[{\"name\":\"new\",\"version\":\"1\"},"
+            + "{\"name\":\"a\",\"version\":\"1\"},{\"name\":\"c\",\"version\":\"2\"}]}");
+  }
+
+  @Test
+  public void replaysArraysComparedByPosition() throws Exception {
+    assertRoundTrip("{\"tags\":[\"a\",\"b\",\"c\"]}", "{\"tags\":[\"a\",\"x\"]}");
+    assertRoundTrip("{\"tags\":[\"a\"]}", "{\"tags\":[\"a\",\"b\",{\"c\":true}]}");
+  }
+
+  @Test
+  public void keepsStringsThatLookLikeOtherValues() throws Exception {
+    assertRoundTrip("{\"version\":\"1\",\"flag\":\"yes\"}",
+        "{\"version\":\"2\",\"flag\":\"true\"}");
+  }
+
+  @Test
+  public void replaysEscapedFieldNames() throws Exception {
+    assertRoundTrip("{\"a/b\":{\"c~d\":1}}", "{\"a/b\":{\"c~d\":2}}");
+  }
+
+  @Test
+  public void replaysSuccessiveChangesetsFromAnEmptyDocument() throws Exception {
+    JsonNode first = mapper.readTree("{\"id\":\"a\",\"name\":\"A\"}");
+    JsonNode second = mapper.readTree("{\"id\":\"a\",\"name\":\"B\",\"tags\":[\"x\"]}");
+
+    JsonNode document = changesetReplay.apply(mapper.createObjectNode(),
+        fields(mapper.createObjectNode(), first));
+    document = changesetReplay.apply(document, fields(first, second));
+
+    assertThat(document).isEqualTo(second);
+  }
+
+  private void assertRoundTrip(String source, String target) throws Exception {
+    JsonNode sourceDocument = mapper.readTree(source);
+    JsonNode targetDocument = mapper.readTree(target);
+
+    JsonNode replayed =
+        changesetReplay.apply(sourceDocument.deepCopy(), fields(sourceDocument, targetDocument));
+
+    assertThat(replayed).isEqualTo(targetDocument);
+  }
+
+  private JsonNode fields(JsonNode source, JsonNode target) {
+    return mapper.valueToTree(structuralDiff.diff(source, target));
+  }
+}
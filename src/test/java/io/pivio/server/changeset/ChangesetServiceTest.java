@@ -0,0 +1,54 @@
+package io.pivio.server.changeset;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.tuple;
+import java.util.Optional;
+import org.junit.Test;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.pivio.server.elasticsearch.Changeset;
+import io.pivio.server.elasticsearch.Fields;
+
+public class ChangesetServiceTest {
+
+  private final ObjectMapper mapper = new ObjectMapper();
+  private final ChangesetService changesetService = new ChangesetService(mapper, new StructuralDiff("name,id,key"));
+
+  @Test
+  public void firstUploadAddsAllFieldsWithOrderOne() throws Exception {
+    JsonNode document = mapper.readTree("{\"id\":\"a\",\"name\":\"A\"}");
+
+    Changeset changeset = changesetService.computeNext(document, Optional.empty());
+
+    assertThat(changeset.getOrder()).isEqualTo(1L);
+    assertThat(changeset.getFields()).extracting(Fields::getOp, Fields::getPath)
+        .containsExactlyInAnyOrder(tuple("add", "/id"), tuple("add", "/name"));
+  }
+
+  @Test
+  public void diffsAgainstLatestSnapshotAndContinuesItsOrder() throws Exception {
+    JsonNode previous = mapper.readTree("{\"id\":\"a\",\"name\":\"A\","
+        + "\"lastUpdate\":\"2020-01-01T00:00:00.000Z\",\"contentHash\":\"x\"}");
+    LatestSnapshot latest = LatestSnapshot.builder().document("a").order(7L).contentHash("x")
+        .snapshot(previous).build();
+    JsonNode document = mapper.readTree("{\"id\":\"a\",\"name\":\"B\",\"contentHash\":\"y\"}");
+
+    Changeset changeset = changesetService.computeNext(document, Optional.of(latest));
+
+    assertThat(changeset.getOrder()).isEqualTo(8L);
+    assertThat(changeset.getFields()).hasSize(1);
+    assertThat(changeset.getFields().get(0).getOp()).isEqualTo("replace");
+    assertThat(changeset.getFields().get(0).getPath()).isEqualTo("/name");
+  }
+
+  @Test
+  public void reuploadAfterDeleteAddsAllFieldsAndKeepsCounting() throws Exception {
+    LatestSnapshot deleted = LatestSnapshot.builder().document("a").order(3L).build();
+    JsonNode document = mapper.readTree("{\"id\":\"a\",\"name\":\"A\"}");
+
+    Changeset changeset = changesetService.computeNext(document, Optional.of(deleted));
+
+    assertThat(changeset.getOrder()).isEqualTo(4L);
+    assertThat(changeset.getFields()).hasSize(2);
+  }
+}
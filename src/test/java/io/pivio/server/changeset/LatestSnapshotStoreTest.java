@@ -0,0 +1,154 @@
+package io.pivio.server.changeset;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.function.Function;
+import org.junit.Before;
+import org.junit.Test;
+import org.opensearch.client.opensearch.OpenSearchClient;
+import org.opensearch.client.opensearch._types.ErrorResponse;
+import org.opensearch.client.opensearch._types.OpenSearchException;
+import org.opensearch.client.opensearch._types.Result;
+import org.opensearch.client.opensearch.core.CreateResponse;
+import org.opensearch.client.opensearch.core.IndexRequest;
+import org.opensearch.client.opensearch.core.IndexResponse;
+import org.opensearch.client.opensearch.core.MgetResponse;
+import org.springframework.test.util.ReflectionTestUtils;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.pivio.server.SearchResponses;
+
+public class LatestSnapshotStoreTest {
+
+  private static final String LATEST = "changeset-latest";
+
+  private final ObjectMapper mapper = new ObjectMapper();
+  private final OpenSearchClient client = mock(OpenSearchClient.class);
+  private final List<IndexRequest<?>> indexRequests = new ArrayList<>();
+  private LatestSnapshotStore latestSnapshotStore;
+
+  @Before
+  public void setUp() throws Exception {
+    latestSnapshotStore = new LatestSnapshotStore(client, new SimpleMeterRegistry(), 100);
+    ReflectionTestUtils.setField(latestSnapshotStore, "latestSnapshotIndex", LATEST);
+    ReflectionTestUtils.setField(latestSnapshotStore, "pivioIndex", "steckbrief");
+  }
+
+  @Test
+  public void marksDocumentDeletedIfItsSnapshotIsStillLatest() throws Exception {
+    stubPersisted(persisted(3, 5L));
+    stubIndex(false);
+
+    latestSnapshotStore.markDeleted("a");
+
+    IndexRequest<?> request = indexRequests.getFirst();
+    assertThat(request.ifSeqNo()).isEqualTo(5L);
+    assertThat(((LatestSnapshot) request.document()).isDeleted()).isTrue();
+    assertThat(((LatestSnapshot) request.document()).getOrder()).isEqualTo(3L);
+  }
+
+  @Test
+  public void rereadsTheSnapshotWhenItWasModifiedWhileDeleting() throws Exception {
+    stubPersisted(persisted(3, 5L), persisted(4, 6L));
+    stubIndex(true);
+
+    latestSnapshotStore.markDeleted("a");
+
+    assertThat(indexRequests).extracting(IndexRequest::ifSeqNo).containsExactly(5L, 6L);
+    assertThat(((LatestSnapshot) indexRequests.get(1).document()).getOrder()).isEqualTo(4L);
+  }
+
+  @Test
+  public void givesUpDeletingAfterRepeatedConflicts() throws Exception {
+    stubPersisted(persisted(3, 5L));
+    when(client.index(any(Function.class))).thenThrow(conflict());
+
+    assertThatThrownBy(() -> latestSnapshotStore.markDeleted("a"))
+        .isInstanceOf(OpenSearchException.class);
+    verify(client, times(3)).index(any(Function.class));
+  }
+
+  @Test
+  public void createsTheDeletedRecordOfABootstrappedSnapshot() throws Exception {
+    when(client.mget(any(Function.class), eq(LatestSnapshot.class))).thenReturn(notFound());
+    when(client.mget(any(Function.class), eq(JsonNode.class)))
+        .thenReturn(MgetResponse.of(response -> response.docs(item -> item.result(result -> result
+            .index("steckbrief").id("a").found(true)
+            .source(mapper.createObjectNode().put("id", "a"))))));
+    when(client.search(any(Function.class), eq(JsonNode.class)))
+        .thenReturn(SearchResponses.of());
+    when(client.create(any(Function.class))).thenReturn(
+        CreateResponse.of(response -> response.index(LATEST)
+            .id("a").result(Result.Created).seqNo(1L).primaryTerm(1L).version(1L)
+            .shards(shards -> shards.total(1).successful(1).failed(0))));
+
+    latestSnapshotStore.markDeleted("a");
+
+    verify(client).create(any(Function.class));
+    verify(client, never()).index(any(Function.class));
+  }
+
+  @Test
+  public void keepsSnapshotsReplacedBeforeTheyCouldBeRestored() throws Exception {
+    when(client.index(any(Function.class))).thenThrow(conflict());
+
+    latestSnapshotStore.restore("a", persisted(4, 6L), Optional.of(persisted(3, 5L)));
+
+    verify(client).index(any(Function.class));
+  }
+
+  private LatestSnapshot persisted(long order, Long seqNo) {
+    return LatestSnapshot.builder().document("a").order(order)
+        .snapshot(mapper.createObjectNode().put("id", "a")).seqNo(seqNo).primaryTerm(1L).build();
+  }
+
+  private void stubPersisted(LatestSnapshot first, LatestSnapshot... more) throws Exception {
+    MgetResponse[] responses = new MgetResponse[more.length];
+    for (int i = 0; i < more.length; i++) {
+      responses[i] = found(more[i]);
+    }
+    when(client.mget(any(Function.class), eq(LatestSnapshot.class)))
+        .thenReturn(found(first), responses);
+  }
+
+  private void stubIndex(boolean conflictFirst) throws Exception {
+    when(client.index(any(Function.class))).thenAnswer(invocation -> {
+      IndexRequest<?> request = SearchResponses.build(invocation.getArgument(0),
+          new IndexRequest.Builder<>());
+      indexRequests.add(request);
+      if (conflictFirst && indexRequests.size() == 1) {
+        throw conflict();
+      }
+      return IndexResponse.of(response -> response.index(LATEST).id("a").result(Result.Updated)
+          .seqNo(request.ifSeqNo() + 1).primaryTerm(1L).version(1L)
+          .shards(shards -> shards.total(1).successful(1).failed(0)));
+    });
+  }
+
+  private MgetResponse<LatestSnapshot> found(LatestSnapshot snapshot) {
+    return MgetResponse.of(response -> response.docs(item -> item.result(result -> result
+        .index(LATEST).id("a").found(true).seqNo(snapshot.getSeqNo()).primaryTerm(1L)
+        .source(snapshot))));
+  }
+
+  private MgetResponse<LatestSnapshot> notFound() {
+    return MgetResponse.of(response -> response.docs(item -> item.result(result -> result
+        .index(LATEST).id("a").found(false))));
+  }
+
+  private OpenSearchException conflict() {
+    return new OpenSearchException(ErrorResponse.of(response -> response.status(409)
+        .error(error -> error.type("version_conflict_engine_exception").reason("conflict"))));
+  }
+}
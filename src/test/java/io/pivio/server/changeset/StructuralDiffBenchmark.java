@@ -0,0 +1,86 @@
+package io.pivio.server.changeset;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.flipkart.zjsonpatch.JsonDiff;
+
+/**
+ * Compares the {@link StructuralDiff} with zjsonpatch on documents with many software
+ * dependencies, where one dependency is inserted at the front and another one changes its version.
+ * Run its main method on the test classpath, e.g. from the IDE.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class StructuralDiffBenchmark {
+
+  @Param({"10", "100", "500"})
+  public int dependencies;
+
+  private final ObjectMapper mapper = new ObjectMapper();
+  private final StructuralDiff structuralDiff = new StructuralDiff("name,id,key");
+  private JsonNode previous;
+  private JsonNode uploaded;
+
+  @Setup
+  public void createDocuments() {
+    previous = createDocument(dependencies, false);
+    uploaded = createDocument(dependencies, true);
+  }
+
+  @Benchmark
+  public Object structuralDiff() {
+    return structuralDiff.diff(previous, uploaded);
+  }
+
+  @Benchmark
+  public Object zjsonpatch() {
+    return JsonDiff.asJson(previous, uploaded);
+  }
+
+  private JsonNode createDocument(int dependencyCount, boolean changed) {
+    ObjectNode document = mapper.createObjectNode().put("id", "service").put("name", "Service")
+        .put("type", "service").put("owner", "lambda")
+        .put("description", "A service of the benchmark catalog");
+    ArrayNode softwareDependencies = document.putArray("software_dependencies");
+    if (changed) {
+      addDependency(softwareDependencies, "org.new:new-lib", "1.0");
+    }
+    for (int i = 0; i < dependencyCount; i++) {
+      String version = changed && i == dependencyCount / 2 ? "2." + i : "1." + i;
+      addDependency(softwareDependencies, "org.lib:lib-" + i, version);
+    }
+    return document;
+  }
+
+  private void addDependency(ArrayNode softwareDependencies, String name, String version) {
+    ObjectNode dependency =
+        softwareDependencies.addObject().put("name", name).put("version", version);
+    dependency.putArray("licenses").addObject().put("key", "apache-2.0")
+        .put("fullName", "Apache License 2.0").put("url", "http://apache.org/licenses");
+  }
+
+  public static void main(String[] args) throws Exception {
+    new Runner(
+        new OptionsBuilder().include(StructuralDiffBenchmark.class.getSimpleName()).build()).run();
+  }
+}
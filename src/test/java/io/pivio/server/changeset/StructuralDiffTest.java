@@ -0,0 +1,76 @@
+package io.pivio.server.changeset;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.tuple;
+import java.util.List;
+import org.junit.Test;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import io.pivio.server.elasticsearch.Fields;
+
+public class StructuralDiffTest {
+
+  private final ObjectMapper mapper = new ObjectMapper();
+  private final StructuralDiff structuralDiff = new StructuralDiff("name,id");
+
+  @Test
+  public void identicalDocumentsHaveNoChanges() throws Exception {
+    String document = "{\"id\":\"a\",\"links\":{\"x\":1,\"y\":[1,2]}}";
+    String reordered = "{\"links\":{\"y\":[1,2],\"x\":1},\"id\":\"a\"}";
+
+    assertThat(diff(document, reordered)).isEmpty();
+  }
+
+  @Test
+  public void comparesNumbersByTheirValue() throws Exception {
+    ObjectNode source = mapper.createObjectNode().put("port", 8080);
+    ObjectNode target = mapper.createObjectNode().put("port", 8080L);
+
+    assertThat(structuralDiff.diff(source, target)).isEmpty();
+    assertThat(structuralDiff.diff(source, target.put("port", 8081L)))
+        .extracting(Fields::getPath).containsExactly("/port");
+  }
+
+  @Test
+  public void reportsAddedRemovedAndReplacedFields() throws Exception {
+    List<Fields> fields = diff("{\"id\":\"a\",\"name\":\"A\",\"owner\":\"x\"}",
+        "{\"id\":\"a\",\"name\":\"B\",\"links\":{\"homepage\":\"http://a\"}}");
+
+    assertThat(fields).extracting(Fields::getOp, Fields::getPath, Fields::getValue)
+        .containsExactly(tuple("replace", "/name", "B"), tuple("remove", "/owner", null),
+            tuple("add", "/links", "{\"homepage\":\"http://a\"}"));
+  }
+
+  @Test
+  public void matchesArrayElementsByKey() throws Exception {
+    List<Fields> fields = diff(
+        "{\"software_dependencies\":[{\"name\":\"a\",\"version\":\"1\"},"
+            + "{\"name\":\"b\",\"version\":\"1\"},{\"name\":\"c\",\"version\":\"1\"}]}",
+        "{\"software_dependencies\":[{\"name\":\"new\",\"version\":\"1\"},"
+            + "{\"name\":\"a\",\"version\":\"1\"},{\"name\":\"c\",\"version\":\"2\"}]}");
+
+    assertThat(fields).extracting(Fields::getOp, Fields::getPath, Fields::getValue)
+        .containsExactly(tuple("remove", "/software_dependencies/1", null),
+            tuple("add", "/software_dependencies/0", "{\"name\":\"new\",\"version\":\"1\"}"),
+            tuple("replace", "/software_dependencies/2/version", "2"));
+  }
+
+  @Test
+  public void comparesArraysWithoutKeysByPosition() throws Exception {
+    List<Fields> fields = diff("{\"tags\":[\"a\",\"b\",\"c\"]}", "{\"tags\":[\"a\",\"x\"]}");
+
+    assertThat(fields).extracting(Fields::getOp, Fields::getPath)
+        .containsExactly(tuple("remove", "/tags/2"), tuple("replace", "/tags/1"));
+  }
+
+  @Test
+  public void escapesFieldNamesInPaths() throws Exception {
+    List<Fields> fields = diff("{}", "{\"a/b\":1,\"c~d\":2}");
+
+    assertThat(fields).extracting(Fields::getPath).containsExactly("/a~1b", "/c~0d");
+  }
+
+  private List<Fields> diff(String source, String target) throws Exception {
+    return structuralDiff.diff(mapper.readTree(source), mapper.readTree(target));
+  }
+}
@@ -0,0 +1,95 @@
+package io.pivio.server.document;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Test;
+import org.opensearch.client.opensearch.OpenSearchClient;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.pivio.server.changeset.ChangesetAdvice;
+import io.pivio.server.changeset.ChangesetOutbox;
+import io.pivio.server.changeset.DocumentHistory;
+import io.pivio.server.changeset.LatestSnapshotStore;
+import io.pivio.server.elasticsearch.ElasticsearchQueryHelper;
+
+public class BulkUploadTest {
+
+  private final ObjectMapper mapper = new ObjectMapper();
+  private final DocumentWriter documentWriter = mock(DocumentWriter.class);
+  private final List<List<ObjectNode>> writtenDocuments = new ArrayList<>();
+  private MockMvc mvc;
+
+  @Before
+  public void setUp() throws Exception {
+    DocumentController controller = new DocumentController(new DocumentValidator(mapper),
+        documentWriter, mock(WriteBehindQueue.class), mock(ElasticsearchQueryHelper.class),
+        mock(DocumentCache.class), new CatalogGeneration(0), mock(LatestSnapshotStore.class),
+        new DocumentLocks(16), mock(ChangesetOutbox.class), mock(DocumentHistory.class), mapper,
+        new SimpleMeterRegistry(), mock(OpenSearchClient.class));
+    mvc = MockMvcBuilders.standaloneSetup(controller).setControllerAdvice(new ChangesetAdvice())
+        .build();
+    when(documentWriter.writeAll(anyList())).thenAnswer(invocation -> {
+      List<ObjectNode> documents = invocation.getArgument(0);
+      writtenDocuments.add(documents);
+      List<BulkItemResult> results = new ArrayList<>();
+      for (ObjectNode document : documents) {
+        String id = document.get("id").asText();
+        results.add("broken".equals(id) ? BulkItemResult.failed(id, 500, "failed")
+            : BulkItemResult.succeeded(id, 201, "created"));
+      }
+      return results;
+    });
+  }
+
+  @Test
+  public void reportsEveryLineOfNdjsonOnItsOwn() throws Exception {
+    String body = document("a") + "\n" + "{not json\n" + "\n"
+        + "{\"id\":\"b\",\"name\":\"B\"}\n" + document("broken") + "\n";
+
+    mvc.perform(post("/document/_bulk").contentType(MediaType.APPLICATION_NDJSON).content(body))
+        .andExpect(status().isOk()).andExpect(jsonPath("$.errors").value(true))
+        .andExpect(jsonPath("$.items.length()").value(4))
+        .andExpect(jsonPath("$.items[0].id").value("a"))
+        .andExpect(jsonPath("$.items[0].status").value(201))
+        .andExpect(jsonPath("$.items[1].status").value(400))
+        .andExpect(jsonPath("$.items[1].error").value("item 1 is not a JSON object"))
+        .andExpect(jsonPath("$.items[2].id").value("b"))
+        .andExpect(jsonPath("$.items[2].status").value(400))
+        .andExpect(jsonPath("$.items[3].status").value(500));
+
+    assertThat(writtenDocuments).singleElement().satisfies(documents -> assertThat(documents)
+        .extracting(document -> document.get("id").asText()).containsExactly("a", "broken"));
+  }
+
+  @Test
+  public void acceptsAJsonArray() throws Exception {
+    String body = "[\n" + document("a") + ",\n" + document("b") + "\n]";
+
+    mvc.perform(post("/document/_bulk").contentType(MediaType.APPLICATION_JSON).content(body))
+        .andExpect(status().isOk()).andExpect(jsonPath("$.errors").value(false))
+        .andExpect(jsonPath("$.items[1].id").value("b"));
+  }
+
+  @Test
+  public void rejectsAMalformedJsonArray() throws Exception {
+    mvc.perform(post("/document/_bulk").contentType(MediaType.APPLICATION_JSON)
+        .content("[" + document("a") + ",")).andExpect(status().isBadRequest());
+  }
+
+  private String document(String id) {
+    return "{\"id\":\"" + id + "\",\"name\":\"" + id + "\",\"type\":\"service\","
+        + "\"owner\":\"lambda\",\"description\":\"test\"}";
+  }
+}
@@ -0,0 +1,37 @@
+package io.pivio.server.document;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import org.junit.Test;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+public class ContentHasherTest {
+
+  private final ObjectMapper mapper = new ObjectMapper();
+  private final ContentHasher contentHasher = new ContentHasher(mapper);
+
+  @Test
+  public void hashIgnoresKeyOrder() throws Exception {
+    JsonNode document = mapper.readTree("{\"id\":\"a\",\"name\":\"A\",\"links\":{\"x\":1,\"y\":2}}");
+    JsonNode reordered = mapper.readTree("{\"links\":{\"y\":2,\"x\":1},\"name\":\"A\",\"id\":\"a\"}");
+
+    assertThat(contentHasher.hash(document)).isEqualTo(contentHasher.hash(reordered));
+  }
+
+  @Test
+  public void hashIgnoresServerMaintainedFields() throws Exception {
+    JsonNode document = mapper.readTree("{\"id\":\"a\",\"name\":\"A\"}");
+    JsonNode stored = mapper.readTree("{\"id\":\"a\",\"name\":\"A\",\"created\":\"2016\","
+        + "\"lastUpdate\":\"2017\",\"lastUpload\":\"2018\",\"contentHash\":\"abc\"}");
+
+    assertThat(contentHasher.hash(document)).isEqualTo(contentHasher.hash(stored));
+  }
+
+  @Test
+  public void hashChangesWithContent() throws Exception {
+    JsonNode document = mapper.readTree("{\"id\":\"a\",\"tags\":[\"x\",\"y\"]}");
+    JsonNode changed = mapper.readTree("{\"id\":\"a\",\"tags\":[\"y\",\"x\"]}");
+
+    assertThat(contentHasher.hash(document)).isNotEqualTo(contentHasher.hash(changed));
+  }
+}
@@ -0,0 +1,123 @@
+package io.pivio.server.document;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.awaitility.Awaitility.await;
+import static org.mockito.Mockito.atLeast;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Optional;
+import org.junit.Before;
+import org.junit.Test;
+import org.opensearch.client.opensearch.OpenSearchClient;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.pivio.server.changeset.ChangesetOutbox;
+import io.pivio.server.changeset.DocumentHistory;
+import io.pivio.server.changeset.LatestSnapshotStore;
+import io.pivio.server.elasticsearch.ElasticsearchQueryHelper;
+import io.pivio.server.elasticsearch.RawSourceReader;
+
+public class DocumentCacheTest {
+
+  private static final byte[] SOURCE =
+      "{\"id\":\"a\",\"contentHash\":\"abc\",\"name\":\"A\"}".getBytes(StandardCharsets.UTF_8);
+
+  private final ObjectMapper mapper = new ObjectMapper();
+  private final RawSourceReader rawSourceReader = mock(RawSourceReader.class);
+  private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+  private DocumentCache documentCache;
+
+  @Before
+  public void setUp() throws Exception {
+    documentCache = cache(1 << 20);
+    when(rawSourceReader.read("steckbrief", "a")).thenReturn(Optional.of(SOURCE));
+    when(rawSourceReader.read("steckbrief", "missing")).thenReturn(Optional.empty());
+  }
+
+  @Test
+  public void servesHitsWithoutReadingAgain() throws Exception {
+    CachedDocument first = documentCache.get("a").get();
+    CachedDocument second = documentCache.get("a").get();
+
+    assertThat(second).isSameAs(first);
+    assertThat(first.eTag()).isEqualTo("W/\"abc\"");
+    verify(rawSourceReader, times(1)).read("steckbrief", "a");
+  }
+
+  @Test
+  public void doesNotCacheMissingDocuments() throws Exception {
+    assertThat(documentCache.get("missing")).isEmpty();
+    assertThat(documentCache.get("missing")).isEmpty();
+
+    verify(rawSourceReader, times(2)).read("steckbrief", "missing");
+  }
+
+  @Test
+  public void readsInvalidatedDocumentsAgain() throws Exception {
+    documentCache.get("a");
+    documentCache.invalidate("a");
+    documentCache.get("a");
+
+    verify(rawSourceReader, times(2)).read("steckbrief", "a");
+  }
+
+  @Test
+  public void evictsDocumentsBeyondTheMaximumWeight() throws Exception {
+    documentCache = cache(SOURCE.length - 1);
+
+    // eviction runs asynchronously after the entry has been added
+    await().atMost(Duration.ofSeconds(5)).untilAsserted(() -> {
+      documentCache.get("a");
+      verify(rawSourceReader, atLeast(2)).read("steckbrief", "a");
+    });
+  }
+
+  @Test
+  public void tagsDocumentsWithoutContentHashByTheirLastUpdate() throws Exception {
+    when(rawSourceReader.read("steckbrief", "legacy")).thenReturn(Optional.of(
+        ("{\"id\":\"legacy\",\"links\":{\"contentHash\":\"nested\"},"
+            + "\"lastUpdate\":\"2024-05-01T12:00:00.000Z\"}").getBytes(StandardCharsets.UTF_8)));
+
+    assertThat(documentCache.get("legacy").get().eTag())
+        .isEqualTo("W/\"2024-05-01T12:00:00.000Z\"");
+  }
+
+  @Test
+  public void answersNotModifiedForAMatchingEntityTag() throws Exception {
+    MockMvc mvc = MockMvcBuilders.standaloneSetup(controller()).build();
+
+    mvc.perform(get("/document/a")).andExpect(status().isOk())
+        .andExpect(header().string("ETag", "W/\"abc\"")).andExpect(content().bytes(SOURCE));
+    mvc.perform(get("/document/a").header("If-None-Match", "\"abc\""))
+        .andExpect(status().isNotModified()).andExpect(header().string("ETag", "W/\"abc\""));
+    mvc.perform(get("/document/a").header("If-None-Match", "W/\"older\""))
+        .andExpect(status().isOk());
+    mvc.perform(get("/document/missing")).andExpect(status().isNotFound());
+  }
+
+  private DocumentCache cache(long maxWeightInBytes) {
+    DocumentCache cache =
+        new DocumentCache(rawSourceReader, mapper, registry, maxWeightInBytes, 30);
+    ReflectionTestUtils.setField(cache, "pivioIndex", "steckbrief");
+    return cache;
+  }
+
+  private DocumentController controller() {
+    return new DocumentController(mock(DocumentValidator.class), mock(DocumentWriter.class),
+        mock(WriteBehindQueue.class), mock(ElasticsearchQueryHelper.class), documentCache,
+        new CatalogGeneration(0), mock(LatestSnapshotStore.class), new DocumentLocks(16),
+        mock(ChangesetOutbox.class), mock(DocumentHistory.class), mapper, registry,
+        mock(OpenSearchClient.class));
+  }
+}
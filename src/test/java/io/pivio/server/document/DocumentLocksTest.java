@@ -0,0 +1,60 @@
+package io.pivio.server.document;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+public class DocumentLocksTest {
+
+  private final DocumentLocks documentLocks = new DocumentLocks(16);
+
+  @Test
+  public void serializesWritesOfTheSameDocument() throws Exception {
+    final int[] counter = new int[1];
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+    try {
+      List<Future<?>> futures = new ArrayList<>();
+      for (int thread = 0; thread < 8; thread++) {
+        futures.add(executor.submit(() -> {
+          for (int i = 0; i < 10000; i++) {
+            try (DocumentLocks.Lock lock = documentLocks.lock(List.of("a", "b"))) {
+              counter[0]++;
+            }
+          }
+        }));
+      }
+      for (Future<?> future : futures) {
+        future.get(30, TimeUnit.SECONDS);
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+    assertThat(counter[0]).isEqualTo(80000);
+  }
+
+  @Test
+  public void locksBatchesSharingStripesWithoutDeadlock() throws Exception {
+    ExecutorService executor = Executors.newFixedThreadPool(2);
+    try {
+      Future<?> forward = executor.submit(() -> {
+        for (int i = 0; i < 10000; i++) {
+          documentLocks.lock(List.of("x", "y", "z")).close();
+        }
+      });
+      Future<?> backward = executor.submit(() -> {
+        for (int i = 0; i < 10000; i++) {
+          documentLocks.lock(List.of("z", "y", "x")).close();
+        }
+      });
+      forward.get(30, TimeUnit.SECONDS);
+      backward.get(30, TimeUnit.SECONDS);
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+}
@@ -0,0 +1,76 @@
+package io.pivio.server.document;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.mock;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+import org.junit.Test;
+import org.opensearch.client.opensearch.OpenSearchClient;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.pivio.server.changeset.ChangesetAdvice;
+import io.pivio.server.changeset.ChangesetOutbox;
+import io.pivio.server.changeset.DocumentHistory;
+import io.pivio.server.changeset.DocumentNotFoundException;
+import io.pivio.server.changeset.LatestSnapshotStore;
+import io.pivio.server.elasticsearch.ElasticsearchQueryHelper;
+
+public class DocumentValidatorTest {
+
+  private final ObjectMapper mapper = new ObjectMapper();
+  private final DocumentValidator validator = new DocumentValidator(mapper);
+
+  @Test
+  public void acceptsCompleteDocumentsWithoutTheirNullValues() throws Exception {
+    ObjectNode document = document("a").putNull("lifecycle");
+
+    validator.validate(document);
+
+    assertThat(document.has("lifecycle")).isFalse();
+  }
+
+  @Test
+  public void rejectsEmptyIds() {
+    assertThatThrownBy(() -> validator.validate(document("")))
+        .isInstanceOf(DocumentNotFoundException.class);
+  }
+
+  @Test
+  public void rejectsMissingAndEmptyMandatoryFields() {
+    assertThatThrownBy(() -> validator.validate(document("a").put("owner", "")))
+        .isInstanceOf(MandatoryFieldMissingOrEmptyException.class)
+        .hasMessage("{\"error\":\"mandatory field 'owner' is empty\"}");
+    assertThatThrownBy(() -> validator.validate(mapper.createObjectNode().put("id", "a")))
+        .isInstanceOf(MandatoryFieldMissingOrEmptyException.class)
+        .hasMessage("{\"error\":\"mandatory field 'type' is missing\"}");
+  }
+
+  @Test
+  public void answersBadRequestForAnEmptyMandatoryField() throws Exception {
+    MockMvc mvc = MockMvcBuilders.standaloneSetup(controller())
+        .setControllerAdvice(new ChangesetAdvice()).build();
+
+    mvc.perform(post("/document").contentType(MediaType.APPLICATION_JSON)
+        .content(document("a").put("name", "").toString())).andExpect(status().isBadRequest())
+        .andExpect(content().string("{\"error\":\"mandatory field 'name' is empty\"}"));
+  }
+
+  private ObjectNode document(String id) {
+    return mapper.createObjectNode().put("id", id).put("type", "service").put("name", "A")
+        .put("owner", "lambda").put("description", "test");
+  }
+
+  private DocumentController controller() {
+    return new DocumentController(validator, mock(DocumentWriter.class),
+        mock(WriteBehindQueue.class), mock(ElasticsearchQueryHelper.class),
+        mock(DocumentCache.class), new CatalogGeneration(0), mock(LatestSnapshotStore.class),
+        new DocumentLocks(16), mock(ChangesetOutbox.class), mock(DocumentHistory.class), mapper,
+        new SimpleMeterRegistry(), mock(OpenSearchClient.class));
+  }
+}
@@ -0,0 +1,178 @@
+package io.pivio.server.document;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.opensearch.client.opensearch.OpenSearchClient;
+import org.opensearch.client.opensearch.core.BulkRequest;
+import org.opensearch.client.opensearch.core.BulkResponse;
+import org.opensearch.client.opensearch.core.DeleteRequest;
+import org.opensearch.client.opensearch.core.bulk.BulkOperation;
+import org.opensearch.client.opensearch.core.bulk.BulkResponseItem;
+import org.opensearch.client.opensearch.core.bulk.OperationType;
+import org.springframework.test.util.ReflectionTestUtils;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.pivio.server.SearchResponses;
+import io.pivio.server.changeset.ChangesetFeed;
+import io.pivio.server.changeset.ChangesetOutbox;
+import io.pivio.server.changeset.ChangesetService;
+import io.pivio.server.changeset.LatestSnapshot;
+import io.pivio.server.changeset.LatestSnapshotStore;
+import io.pivio.server.changeset.StructuralDiff;
+
+public class DocumentWriterTest {
+
+  private static final String LATEST = "changeset-latest";
+
+  private final ObjectMapper mapper = new ObjectMapper();
+  private final OpenSearchClient client = mock(OpenSearchClient.class);
+  private final ContentHasher contentHasher = new ContentHasher(mapper);
+  private final DocumentLocks documentLocks = spy(new DocumentLocks(256));
+  private final List<BulkRequest> bulkRequests = new ArrayList<>();
+  private final Set<String> failingDocuments = new HashSet<>();
+  private LatestSnapshotStore latestSnapshotStore;
+  private DocumentWriter writer;
+
+  @Before
+  public void setUp() throws Exception {
+    SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    latestSnapshotStore = spy(new LatestSnapshotStore(client, registry, 100));
+    ReflectionTestUtils.setField(latestSnapshotStore, "latestSnapshotIndex", LATEST);
+    doReturn(Map.of()).when(latestSnapshotStore).getAll(anyCollection());
+    writer = new DocumentWriter(new ChangesetService(mapper, new StructuralDiff("name,id,key")),
+        contentHasher, mock(DocumentCache.class), new CatalogGeneration(0), latestSnapshotStore,
+        documentLocks, mock(ChangesetOutbox.class), mock(ChangesetFeed.class), client, registry);
+    ReflectionTestUtils.setField(writer, "pivioIndex", "steckbrief");
+    ReflectionTestUtils.setField(writer, "changesetIndex", "changeset");
+    ReflectionTestUtils.setField(writer, "batchSize", 500);
+    ReflectionTestUtils.setField(writer, "maxRetries", 3);
+    ReflectionTestUtils.setField(writer, "lockGroupSize", 2);
+
+    when(client.bulk(any(Function.class))).thenAnswer(invocation -> {
+      BulkRequest request =
+          SearchResponses.build(invocation.getArgument(0), new BulkRequest.Builder());
+      bulkRequests.add(request);
+      return BulkResponse.of(response -> response.took(1).errors(false)
+          .items(request.operations().stream().map(this::respond).toList()));
+    });
+  }
+
+  @Test
+  public void writesDocumentsInBatchesKeepingTheirOrder() throws Exception {
+    ReflectionTestUtils.setField(writer, "batchSize", 2);
+    ReflectionTestUtils.setField(writer, "lockGroupSize", 32);
+    failingDocuments.add("b");
+
+    List<BulkItemResult> results =
+        writer.writeAll(List.of(document("a", "A"), document("b", "B"), document("c", "C")));
+
+    assertThat(results).extracting(BulkItemResult::getId).containsExactly("a", "b", "c");
+    assertThat(results).extracting(BulkItemResult::isFailed).containsExactly(false, true, false);
+    assertThat(bulkRequests).filteredOn(request -> request.operations().stream()
+        .allMatch(operation -> operation.isCreate() && LATEST.equals(operation.create().index())))
+        .extracting(request -> request.operations().size()).containsExactly(2, 1);
+  }
+
+  @Test
+  public void locksOnlyOneGroupOfDocumentsAtATime() throws Exception {
+    writer.writeAll(List.of(document("a", "A"), document("b", "B"), document("c", "C"),
+        document("d", "D"), document("e", "E")));
+
+    ArgumentCaptor<Collection<String>> locked = ArgumentCaptor.forClass(Collection.class);
+    verify(documentLocks, times(3)).lock(locked.capture());
+    assertThat(locked.getAllValues()).extracting(ids -> List.copyOf(ids))
+        .containsExactly(List.of("a", "b"), List.of("c", "d"), List.of("e"));
+  }
+
+  @Test
+  public void checksSeeminglyUnchangedUploadsAgainstARealtimeRead() throws Exception {
+    ObjectNode upload = document("a", "A1");
+    LatestSnapshot cached = latest("a", "A1", 1, contentHasher.hash(upload), 5L);
+    doReturn(Map.of("a", cached)).when(latestSnapshotStore).getAll(anyCollection());
+    // another instance has changed the document since it was cached
+    doReturn(Map.of("a", latest("a", "A2", 2, "newer", 6L))).when(latestSnapshotStore)
+        .reload(List.of("a"));
+
+    writer.writeAll(List.of(upload));
+
+    BulkOperation claim = bulkRequests.get(0).operations().getFirst();
+    assertThat(claim.index().index()).isEqualTo(LATEST);
+    assertThat(claim.index().ifSeqNo()).isEqualTo(6L);
+    assertThat(((LatestSnapshot) claim.index().document()).getOrder()).isEqualTo(3L);
+  }
+
+  @Test
+  public void skipsUploadsThatAreUnchangedAccordingToTheRealtimeRead() throws Exception {
+    ObjectNode upload = document("a", "A1");
+    LatestSnapshot unchanged = latest("a", "A1", 1, contentHasher.hash(upload), 5L);
+    doReturn(Map.of("a", unchanged)).when(latestSnapshotStore).getAll(anyCollection());
+    doReturn(Map.of("a", unchanged)).when(latestSnapshotStore).reload(List.of("a"));
+
+    writer.writeAll(List.of(upload));
+
+    assertThat(bulkRequests).hasSize(1);
+    assertThat(bulkRequests.get(0).operations()).singleElement()
+        .satisfies(operation -> assertThat(operation.isUpdate()).isTrue());
+  }
+
+  @Test
+  public void restoresTheSnapshotOnlyIfTheClaimIsStillLatest() throws Exception {
+    failingDocuments.add("a");
+
+    assertThat(writer.writeAll(List.of(document("a", "A1"))).get(0).isFailed()).isTrue();
+
+    ArgumentCaptor<Function> restore = ArgumentCaptor.forClass(Function.class);
+    verify(client).delete(restore.capture());
+    DeleteRequest request =
+        SearchResponses.build(restore.getValue(), new DeleteRequest.Builder());
+    assertThat(request.index()).isEqualTo(LATEST);
+    assertThat(request.ifSeqNo()).isEqualTo(7L);
+    assertThat(request.ifPrimaryTerm()).isEqualTo(1L);
+  }
+
+  private ObjectNode document(String id, String name) {
+    return mapper.createObjectNode().put("id", id).put("name", name);
+  }
+
+  private LatestSnapshot latest(String id, String name, long order, String contentHash,
+      Long seqNo) {
+    return LatestSnapshot.builder().document(id).order(order).contentHash(contentHash)
+        .snapshot(document(id, name)).seqNo(seqNo).primaryTerm(1L).build();
+  }
+
+  private BulkResponseItem respond(BulkOperation operation) {
+    if (operation.isUpdate()) {
+      return BulkResponseItem.of(item -> item.operationType(OperationType.Update)
+          .index(operation.update().index()).id(operation.update().id()).status(200));
+    }
+    String index = operation.isIndex() ? operation.index().index() : operation.create().index();
+    String id = operation.isIndex() ? operation.index().id() : operation.create().id();
+    boolean failure = "steckbrief".equals(index) && failingDocuments.contains(id);
+    return BulkResponseItem.of(item -> {
+      item.operationType(operation.isIndex() ? OperationType.Index : OperationType.Create)
+          .index(index).id(id).seqNo(7L).primaryTerm(1L);
+      if (failure) {
+        return item.status(500).error(error -> error.type("error").reason("failed"));
+      }
+      return item.status(201);
+    });
+  }
+}
@@ -0,0 +1,99 @@
+package io.pivio.server.document;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the trie based {@link FieldFilter} with the {@link LegacyFieldFilter} on a page of large
+ * pivio documents. Run its main method on the test classpath, e.g. from the IDE.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FieldFilterBenchmark {
+
+    @Param({"10", "200"})
+    public int dependencies;
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final FieldFilter fieldFilter = new FieldFilter(mapper);
+    private final LegacyFieldFilter legacyFieldFilter = new LegacyFieldFilter(mapper);
+    private final List<String> fields = List.of("id", "name", "owner", "links.homepage",
+            "service.provides", "software_dependencies", "demo.sub.subsub");
+    private List<JsonNode> documents;
+
+    @Setup
+    public void createDocuments() {
+        documents = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            documents.add(createDocument(i));
+        }
+    }
+
+    @Benchmark
+    public void trie(Blackhole blackhole) {
+        FieldFilter.Projection projection = fieldFilter.compile(fields);
+        for (JsonNode document : documents) {
+            blackhole.consume(projection.apply(document));
+        }
+    }
+
+    @Benchmark
+    public void legacy(Blackhole blackhole) {
+        for (JsonNode document : documents) {
+            blackhole.consume(legacyFieldFilter.filterFields(document, fields));
+        }
+    }
+
+    private JsonNode createDocument(int number) {
+        ObjectNode document = mapper.createObjectNode().put("id", "service-" + number)
+                .put("name", "Service " + number).put("short_name", "S" + number)
+                .put("type", "service").put("owner", "team-" + number % 7)
+                .put("description", "A service of the benchmark catalog with a longer description");
+        document.putObject("links").put("homepage", "http://service-" + number)
+                .put("buildchain", "http://ci/service-" + number);
+        document.putObject("demo").putObject("sub").put("subsub", "yes");
+        ObjectNode service = document.putObject("service");
+        ArrayNode provides = service.putArray("provides");
+        for (int i = 0; i < 20; i++) {
+            provides.addObject().put("description", "endpoint " + i).put("service_name", "ep-" + i)
+                    .put("protocol", "https").put("port", 8000 + i);
+        }
+        ArrayNode softwareDependencies = document.putArray("software_dependencies");
+        for (int i = 0; i < dependencies; i++) {
+            ObjectNode dependency = softwareDependencies.addObject().put("name", "org.lib:lib-" + i)
+                    .put("version", "1." + i);
+            dependency.putArray("licenses").addObject().put("key", "apache-2.0")
+                    .put("fullName", "Apache License 2.0").put("url", "http://apache.org/licenses");
+        }
+        return document;
+    }
+
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder().include(FieldFilterBenchmark.class.getSimpleName()).build())
+                .run();
+    }
+}
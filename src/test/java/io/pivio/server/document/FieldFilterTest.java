@@ -5,6 +5,7 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import org.junit.Test;
 
 import java.util.ArrayList;
+import java.util.List;
 
 import static org.assertj.core.api.Assertions.*;
 
@@ -60,4 +61,45 @@ public class FieldFilterTest {
 
         assertThat(jsonNode.toString()).isEqualTo("{\"name\":\"Pivio Client\",\"links\":{\"homepage\":\"http://none\"},\"demo\":{\"sub\":{\"subsub\":\"yes\"}}}");
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testFilterFieldsAtArbitraryDepth() throws Exception {
+        ObjectMapper mapper = new ObjectMapper();
+        FieldFilter fieldFilter = new FieldFilter(mapper);
+
+        JsonNode document = mapper.readTree("{\"a\":{\"b\":{\"c\":{\"d\":1,\"e\":2},\"f\":3}},\"g\":4}");
+
+        JsonNode jsonNode = fieldFilter.filterFields(document, List.of("a.b.c.d", "g"));
+
+        assertThat(jsonNode.toString()).isEqualTo("{\"a\":{\"b\":{\"c\":{\"d\":1}}},\"g\":4}");
+    }
+
+    @Test
+    public void testFilterFieldsWithinArrays() throws Exception {
+        ObjectMapper mapper = new ObjectMapper();
+        FieldFilter fieldFilter = new FieldFilter(mapper);
+
+        JsonNode document = mapper.readTree("{\"id\":\"x\",\"software_dependencies\":["
+                + "{\"name\":\"one\",\"version\":\"1\",\"licenses\":[{\"key\":\"apl\",\"fullName\":\"Apache\"}]},"
+                + "{\"name\":\"two\",\"version\":\"2\"}]}");
+
+        JsonNode jsonNode = fieldFilter.filterFields(document,
+                List.of("software_dependencies.name", "software_dependencies.licenses.key"));
+
+        assertThat(jsonNode.toString()).isEqualTo("{\"software_dependencies\":["
+                + "{\"name\":\"one\",\"licenses\":[{\"key\":\"apl\"}]},{\"name\":\"two\"}]}");
+    }
+
+    @Test
+    public void testFilterFieldsOmitsMissingAndShadowedPaths() throws Exception {
+        ObjectMapper mapper = new ObjectMapper();
+        FieldFilter fieldFilter = new FieldFilter(mapper);
+
+        JsonNode document = mapper.readTree("{\"links\":{\"homepage\":\"http://none\"},\"demo\":{\"sub\":\"yes\"}}");
+
+        JsonNode jsonNode = fieldFilter.filterFields(document,
+                List.of("links.missing", "demo.sub.deeper", "demo", "unknown"));
+
+        assertThat(jsonNode.toString()).isEqualTo("{\"demo\":{\"sub\":\"yes\"}}");
+    }
+}
@@ -0,0 +1,80 @@
+package io.pivio.server.document;
+
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+import java.io.IOException;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Test;
+import org.opensearch.client.opensearch.OpenSearchClient;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.pivio.server.changeset.ChangesetOutbox;
+import io.pivio.server.changeset.DocumentHistory;
+import io.pivio.server.changeset.LatestSnapshotStore;
+import io.pivio.server.elasticsearch.ElasticsearchQueryHelper;
+
+public class MultiGetTest {
+
+  private final ObjectMapper mapper = new ObjectMapper();
+  private final ElasticsearchQueryHelper queryHelper = mock(ElasticsearchQueryHelper.class);
+  private MockMvc mvc;
+
+  @Before
+  public void setUp() throws Exception {
+    DocumentController controller = new DocumentController(mock(DocumentValidator.class),
+        mock(DocumentWriter.class), mock(WriteBehindQueue.class), queryHelper,
+        mock(DocumentCache.class), new CatalogGeneration(0), mock(LatestSnapshotStore.class),
+        new DocumentLocks(16), mock(ChangesetOutbox.class), mock(DocumentHistory.class), mapper,
+        new SimpleMeterRegistry(), mock(OpenSearchClient.class));
+    mvc = MockMvcBuilders.standaloneSetup(controller).build();
+    when(queryHelper.retrieveDocuments(List.of("a", "b")))
+        .thenReturn(mapper.createArrayNode().add(mapper.createObjectNode().put("id", "a")));
+  }
+
+  @Test
+  public void fetchesTheNonBlankIdsOfTheQuery() throws Exception {
+    mvc.perform(get("/document/_mget").param("ids", "a, ,b")).andExpect(status().isOk())
+        .andExpect(jsonPath("$.length()").value(1)).andExpect(jsonPath("$[0].id").value("a"));
+  }
+
+  @Test
+  public void fetchesTheIdsOfTheBody() throws Exception {
+    mvc.perform(post("/document/_mget").contentType(MediaType.APPLICATION_JSON)
+        .content("{\"ids\":[\"a\",\"b\"]}")).andExpect(status().isOk())
+        .andExpect(jsonPath("$[0].id").value("a"));
+  }
+
+  @Test
+  public void answersEmptyWithoutQueryingForNoIds() throws Exception {
+    mvc.perform(post("/document/_mget").contentType(MediaType.APPLICATION_JSON)
+        .content("{\"ids\":[]}")).andExpect(status().isOk())
+        .andExpect(jsonPath("$.length()").value(0));
+
+    verify(queryHelper, never()).retrieveDocuments(anyList());
+  }
+
+  @Test
+  public void rejectsABodyWithoutIds() throws Exception {
+    mvc.perform(post("/document/_mget").contentType(MediaType.APPLICATION_JSON)
+        .content("{\"id\":\"a\"}")).andExpect(status().isBadRequest());
+  }
+
+  @Test
+  public void answersServiceUnavailableWhenTheBackendFails() throws Exception {
+    when(queryHelper.retrieveDocuments(anyList())).thenThrow(new IOException("timeout"));
+
+    mvc.perform(get("/document/_mget").param("ids", "a"))
+        .andExpect(status().isServiceUnavailable());
+  }
+}
@@ -316,6 +316,37 @@ public class SearchApiTest extends AbstractApiTestCase {
     assertThatSearchRequestWithSortParameterResultsInBadRequestResponse("short_name:asce");
   }
 
+  @Test
+  public void facets_count_documents_per_owner_matching_query() throws Exception {
+    // given
+    String query = URLEncoder.encode(createOwnerLambdaQuery().toString(), "UTF-8");
+
+    // when
+    ResponseEntity<JsonNode> responseEntity = restTemplate.getForEntity(
+        "/document/_facets?field={field}&query={query}", JsonNode.class, "owner,type", query);
+
+    // then
+    assertThat(responseEntity.getStatusCode()).isEqualTo(HttpStatus.OK);
+    JsonNode facets = responseEntity.getBody();
+    assertThat(facets.get("owner")).hasSize(1);
+    assertThat(facets.get("owner").get(0).get("value").asText()).isEqualTo("lambda");
+    assertThat(facets.get("owner").get(0).get("count").asLong()).isEqualTo(3);
+    assertThat(facets.get("type").get(0).get("count").asLong()).isEqualTo(3);
+  }
+
+  @Test
+  public void facets_count_documents_per_nested_license() throws Exception {
+    // when
+    ResponseEntity<JsonNode> responseEntity = restTemplate.getForEntity(
+        "/document/_facets?field={field}", JsonNode.class, "software_dependencies.licenses.key");
+
+    // then
+    assertThat(responseEntity.getStatusCode()).isEqualTo(HttpStatus.OK);
+    assertThat(responseEntity.getBody().get("software_dependencies.licenses.key"))
+        .extracting(bucket -> bucket.get("value").asText())
+        .containsExactlyInAnyOrder("prop", "apl", "gpl");
+  }
+
   private ObjectNode createOwnerLambdaQuery() {
     ObjectNode query = objectMapper.createObjectNode();
     ObjectNode match = query.putObject("match");
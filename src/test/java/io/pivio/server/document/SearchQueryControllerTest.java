@@ -0,0 +1,181 @@
+package io.pivio.server.document;
+
+import static io.pivio.server.SearchResponses.hit;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.opensearch.client.opensearch.OpenSearchClient;
+import org.opensearch.client.opensearch._types.FieldSort;
+import org.opensearch.client.opensearch._types.SortOptions;
+import org.opensearch.client.opensearch._types.SortOrder;
+import org.opensearch.client.opensearch._types.mapping.FieldType;
+import org.opensearch.client.opensearch._types.query_dsl.Query;
+import org.opensearch.client.opensearch.core.SearchRequest;
+import org.opensearch.client.opensearch.core.pit.DeletePitRequest;
+import org.opensearch.client.opensearch.core.search.Hit;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.test.util.ReflectionTestUtils;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.pivio.server.SearchResponses;
+import io.pivio.server.elasticsearch.ElasticsearchQueryHelper;
+import io.pivio.server.elasticsearch.QueryCompiler;
+import io.pivio.server.elasticsearch.SearchCursor;
+
+public class SearchQueryControllerTest {
+
+  private final ObjectMapper mapper = new ObjectMapper();
+  private final OpenSearchClient client = mock(OpenSearchClient.class);
+  private final QueryCompiler queryCompiler = mock(QueryCompiler.class);
+  private final List<SearchRequest> requests = new ArrayList<>();
+  private SearchQueryController controller;
+
+  @Before
+  public void setUp() throws Exception {
+    SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    controller = new SearchQueryController(client, mapper, new FieldFilter(mapper),
+        mock(ElasticsearchQueryHelper.class),
+        new SearchResultCache(new CatalogGeneration(0), registry, false, 10, 60),
+        queryCompiler, registry, "1m");
+    when(queryCompiler.compile(null)).thenReturn(Query.of(query -> query.matchAll(all -> all)));
+    ReflectionTestUtils.setField(controller, "pivioIndex", "steckbrief");
+    ReflectionTestUtils.setField(controller, "maxPageSize", 1000);
+    when(client.createPit(any(Function.class)))
+        .thenReturn(SearchResponses.pit("pit-1"));
+  }
+
+  @Test
+  public void pagesThroughPointInTimeWithCursor() throws Exception {
+    when(client.search(any(Function.class), eq(JsonNode.class))).thenAnswer(invocation -> {
+      requests.add(SearchResponses.build(invocation.getArgument(0)));
+      return switch (requests.size()) {
+        case 1 -> SearchResponses.of("pit-2", document("a", "1"), document("b", "2"));
+        default -> SearchResponses.of("pit-3", document("c", "3"));
+      };
+    });
+
+    MockHttpServletResponse firstResponse = new MockHttpServletResponse();
+    ArrayNode firstPage = controller.search(null, null, null, 2, null, firstResponse);
+    String cursor = firstResponse.getHeader(SearchQueryController.NEXT_CURSOR_HEADER);
+    MockHttpServletResponse lastResponse = new MockHttpServletResponse();
+    ArrayNode lastPage = controller.search(null, null, null, 2, cursor, lastResponse);
+
+    assertThat(firstPage).extracting(document -> document.get("id").asText())
+        .containsExactly("a", "b");
+    assertThat(lastPage).extracting(document -> document.get("id").asText())
+        .containsExactly("c");
+    assertThat(SearchCursor.decode(cursor, mapper))
+        .isEqualTo(new SearchCursor("pit-2", List.of("2")));
+    assertThat(lastResponse.getHeader(SearchQueryController.NEXT_CURSOR_HEADER)).isNull();
+
+    assertThat(requests.get(0).pit().id()).isEqualTo("pit-1");
+    assertThat(requests.get(0).searchAfter()).isEmpty();
+    assertThat(requests.get(1).pit().id()).isEqualTo("pit-2");
+    assertThat(requests.get(1).searchAfter()).containsExactly("2");
+    assertThat(requests).allSatisfy(request -> {
+      assertThat(request.pit().keepAlive()).isEqualTo("1m");
+      assertThat(request.index()).isEmpty();
+    });
+    ArgumentCaptor<Function> deletePit = ArgumentCaptor.forClass(Function.class);
+    verify(client).deletePit(deletePit.capture());
+    DeletePitRequest.Builder deleteRequest = new DeletePitRequest.Builder();
+    deletePit.getValue().apply(deleteRequest);
+    assertThat(deleteRequest.build().pitId()).containsExactly("pit-3");
+  }
+
+  @Test
+  public void keepsPointInTimeOpenForFullPages() throws Exception {
+    when(client.search(any(Function.class), eq(JsonNode.class)))
+        .thenReturn(SearchResponses.of("pit-1", document("a", "1")));
+
+    MockHttpServletResponse response = new MockHttpServletResponse();
+    controller.search(null, null, null, 1, null, response);
+
+    assertThat(response.getHeader(SearchQueryController.NEXT_CURSOR_HEADER)).isNotNull();
+    verify(client, never()).deletePit(any(DeletePitRequest.class));
+    verify(client, never()).deletePit(any(Function.class));
+  }
+
+  @Test
+  public void pushesRequestedFieldsDownAsSourceIncludes() throws Exception {
+    ReflectionTestUtils.setField(controller, "sourceFiltering", true);
+    stubSearch(hit("a", mapper.createObjectNode().put("id", "a").put("name", "A")));
+
+    ArrayNode result =
+        controller.search(null, "name,owner", null, null, null, new MockHttpServletResponse());
+
+    SearchRequest request = requests.getFirst();
+    assertThat(request.index()).containsExactly("steckbrief");
+    assertThat(request.source().filter().includes()).containsExactly("name", "owner", "id");
+    assertThat(result.get(0).fieldNames()).toIterable().containsExactly("id", "name");
+  }
+
+  @Test
+  public void projectsFieldsInProcessWithoutSourceFiltering() throws Exception {
+    ReflectionTestUtils.setField(controller, "sourceFiltering", false);
+    stubSearch(hit("a",
+        mapper.createObjectNode().put("id", "a").put("name", "A").put("owner", "team")));
+
+    ArrayNode result =
+        controller.search(null, "name", null, null, null, new MockHttpServletResponse());
+
+    assertThat(requests.getFirst().source()).isNull();
+    assertThat(result.get(0).fieldNames()).toIterable().containsExactlyInAnyOrder("id", "name");
+  }
+
+  @Test
+  public void sortsInOpenSearch() throws Exception {
+    stubSearch();
+
+    controller.search(null, null, "name:asc, lastUpdate:DESC,software_dependencies.name:asc",
+        null, null, new MockHttpServletResponse());
+
+    List<FieldSort> sorts =
+        requests.getFirst().sort().stream().map(SortOptions::field).toList();
+    assertThat(sorts).extracting(FieldSort::field)
+        .containsExactly("name.keyword", "lastUpdate", "software_dependencies.name.keyword");
+    assertThat(sorts).extracting(FieldSort::order)
+        .containsExactly(SortOrder.Asc, SortOrder.Desc, SortOrder.Asc);
+    assertThat(sorts).extracting(FieldSort::unmappedType)
+        .containsExactly(FieldType.Keyword, FieldType.Date, FieldType.Keyword);
+    assertThat(sorts.get(0).nested()).isNull();
+    assertThat(sorts.get(2).nested().path()).isEqualTo("software_dependencies");
+  }
+
+  @Test
+  public void rejectsInvalidSortsAndFields() throws Exception {
+    for (String sort : List.of("name", "name:up", ":asc", " ")) {
+      MockHttpServletResponse response = new MockHttpServletResponse();
+      assertThat(controller.search(null, null, sort, null, null, response)).isNull();
+      assertThat(response.getStatus()).isEqualTo(400);
+    }
+    MockHttpServletResponse response = new MockHttpServletResponse();
+    controller.search(null, " ", null, null, null, response);
+    assertThat(response.getStatus()).isEqualTo(400);
+    verify(client, never()).search(any(Function.class), eq(JsonNode.class));
+  }
+
+  @SafeVarargs
+  private void stubSearch(Hit<JsonNode>... hits) throws Exception {
+    when(client.search(any(Function.class), eq(JsonNode.class))).thenAnswer(invocation -> {
+      requests.add(SearchResponses.build(invocation.getArgument(0)));
+      return SearchResponses.of(hits);
+    });
+  }
+
+  private Hit<JsonNode> document(String id, String sort) {
+    return hit(id, mapper.createObjectNode().put("id", id), sort);
+  }
+}
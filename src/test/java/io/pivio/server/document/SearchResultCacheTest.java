@@ -0,0 +1,93 @@
+package io.pivio.server.document;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.*;
+
+public class SearchResultCacheTest {
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final CatalogGeneration catalogGeneration = new CatalogGeneration(0);
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private final SearchResultCache cache =
+            new SearchResultCache(catalogGeneration, registry, true, 100, 60);
+
+    @Test
+    public void testServesCachedResultUntilCatalogChanges() throws Exception {
+        AtomicInteger loads = new AtomicInteger();
+        SearchResultCache.Loader loader = () -> {
+            loads.incrementAndGet();
+            return mapper.createArrayNode().add(loads.get());
+        };
+
+        ArrayNode first = cache.get("{}", List.of("id"), List.of(), loader);
+        ArrayNode second = cache.get("{}", List.of("id"), List.of(), loader);
+        assertThat(second).isSameAs(first);
+        assertThat(loads.get()).isEqualTo(1);
+
+        catalogGeneration.advance();
+        ArrayNode third = cache.get("{}", List.of("id"), List.of(), loader);
+        assertThat(third.get(0).asInt()).isEqualTo(2);
+    }
+
+    @Test
+    public void testDoesNotCacheResultsBeforeWriteIsVisible() throws Exception {
+        CatalogGeneration refreshing = new CatalogGeneration(60_000);
+        SearchResultCache refreshingCache =
+                new SearchResultCache(refreshing, registry, true, 100, 60);
+        AtomicInteger loads = new AtomicInteger();
+        SearchResultCache.Loader loader =
+                () -> mapper.createArrayNode().add(loads.incrementAndGet());
+
+        refreshing.advance();
+        refreshingCache.get("{}", List.of("id"), List.of(), loader);
+        ArrayNode second = refreshingCache.get("{}", List.of("id"), List.of(), loader);
+
+        assertThat(second.get(0).asInt()).isEqualTo(2);
+        assertThat(refreshing.isVisibleTo(System.nanoTime() + 61_000_000_000L)).isTrue();
+    }
+
+    @Test
+    public void testCoalescesConcurrentMisses() throws Exception {
+        AtomicInteger loads = new AtomicInteger();
+        CountDownLatch release = new CountDownLatch(1);
+        SearchResultCache.Loader slowLoader = () -> {
+            loads.incrementAndGet();
+            try {
+                release.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return mapper.createArrayNode();
+        };
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<ArrayNode>> results = List.of(
+                    executor.submit(() -> cache.get("{}", List.of(), List.of(), slowLoader)),
+                    executor.submit(() -> cache.get("{}", List.of(), List.of(), slowLoader)),
+                    executor.submit(() -> cache.get("{}", List.of(), List.of(), slowLoader)));
+            while (registry.counter("counter.search.coalesced").count() < 2) {
+                Thread.sleep(10);
+            }
+            release.countDown();
+            for (Future<ArrayNode> result : results) {
+                assertThat(result.get(5, TimeUnit.SECONDS)).isEmpty();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        assertThat(loads.get()).isEqualTo(1);
+    }
+}
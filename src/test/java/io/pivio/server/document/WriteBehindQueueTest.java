@@ -0,0 +1,147 @@
+package io.pivio.server.document;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.awaitility.Awaitility.await;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.After;
+import org.junit.Test;
+import org.opensearch.client.opensearch.OpenSearchClient;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.pivio.server.changeset.ChangesetAdvice;
+import io.pivio.server.changeset.ChangesetOutbox;
+import io.pivio.server.changeset.DocumentHistory;
+import io.pivio.server.changeset.LatestSnapshotStore;
+import io.pivio.server.document.UploadStatus.State;
+import io.pivio.server.elasticsearch.ElasticsearchQueryHelper;
+
+public class WriteBehindQueueTest {
+
+  private final ObjectMapper mapper = new ObjectMapper();
+  private final DocumentWriter documentWriter = mock(DocumentWriter.class);
+  private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+  private final List<List<ObjectNode>> writtenBatches = new ArrayList<>();
+  private WriteBehindQueue queue;
+
+  @After
+  public void tearDown() throws Exception {
+    queue.stop();
+  }
+
+  @Test
+  public void writesEveryQueuedUploadInOrder() throws Exception {
+    queue = queue(10);
+    when(documentWriter.writeAll(anyList())).thenAnswer(invocation -> {
+      List<ObjectNode> documents = invocation.getArgument(0);
+      writtenBatches.add(documents);
+      List<BulkItemResult> results = new ArrayList<>();
+      for (ObjectNode document : documents) {
+        results.add(BulkItemResult.succeeded(document.get("id").asText(), 200,
+            document.get("name").asText()));
+      }
+      return results;
+    });
+    String first = queue.submit(document("a", "A1"));
+    String other = queue.submit(document("b", "B1"));
+    String second = queue.submit(document("a", "A2"));
+    assertThat(queue.status(first).get().getState()).isEqualTo(State.QUEUED);
+
+    queue.start();
+    await().atMost(Duration.ofSeconds(5))
+        .until(() -> queue.status(second).get().getState() == State.INDEXED);
+
+    assertThat(writtenBatches).singleElement().satisfies(batch -> assertThat(batch)
+        .extracting(document -> document.get("name").asText()).containsExactly("A1", "B1", "A2"));
+    assertThat(queue.status(first).get().getResult().getResult()).isEqualTo("A1");
+    assertThat(queue.status(other).get().getResult().getResult()).isEqualTo("B1");
+    assertThat(queue.status(second).get().getResult().getResult()).isEqualTo("A2");
+  }
+
+  @Test
+  public void failsEveryTicketOfAFailedFlush() throws Exception {
+    queue = queue(10);
+    when(documentWriter.writeAll(anyList())).thenThrow(new IOException("connection reset"));
+    String first = queue.submit(document("a", "A1"));
+    String second = queue.submit(document("a", "A2"));
+
+    queue.start();
+    await().atMost(Duration.ofSeconds(5))
+        .until(() -> queue.status(second).get().getState() == State.FAILED);
+
+    assertThat(queue.status(first).get().getState()).isEqualTo(State.FAILED);
+    assertThat(queue.status(first).get().getResult().getStatus()).isEqualTo(503);
+  }
+
+  @Test
+  public void rejectsUploadsBeyondCapacity() {
+    queue = queue(1);
+    queue.submit(document("a", "A1"));
+
+    assertThatThrownBy(() -> queue.submit(document("b", "B1")))
+        .isInstanceOf(WriteQueueFullException.class)
+        .satisfies(e -> assertThat(((WriteQueueFullException) e).getRetryAfterSeconds())
+            .isEqualTo(7));
+    assertThat(registry.counter("write-behind.rejected").count()).isEqualTo(1);
+    assertThat(registry.get("write-behind.queue.depth").gauge().value()).isEqualTo(1);
+  }
+
+  @Test
+  public void acceptsUploadsWithAStatusLocation() throws Exception {
+    queue = queue(1);
+    MockMvc mvc = mvc();
+
+    String location = mvc.perform(post("/document").contentType(MediaType.APPLICATION_JSON)
+        .content("{\"id\":\"a\",\"name\":\"A1\"}")).andExpect(status().isAccepted())
+        .andReturn().getResponse().getHeader("Location");
+
+    assertThat(location).contains("/document/_status/");
+    mvc.perform(get(location.substring(location.indexOf("/document/"))))
+        .andExpect(status().isOk()).andExpect(jsonPath("$.id").value("a"))
+        .andExpect(jsonPath("$.state").value("QUEUED"));
+    mvc.perform(get("/document/_status/unknown")).andExpect(status().isNotFound());
+  }
+
+  @Test
+  public void answersTooManyRequestsWhenTheQueueIsFull() throws Exception {
+    queue = queue(1);
+    queue.submit(document("a", "A1"));
+
+    mvc().perform(post("/document").contentType(MediaType.APPLICATION_JSON)
+        .content("{\"id\":\"b\",\"name\":\"B1\"}")).andExpect(status().isTooManyRequests())
+        .andExpect(header().string("Retry-After", "7"));
+  }
+
+  private WriteBehindQueue queue(int capacity) {
+    return new WriteBehindQueue(documentWriter, registry, true, capacity, 500, 50, 7);
+  }
+
+  private MockMvc mvc() {
+    DocumentController controller = new DocumentController(mock(DocumentValidator.class),
+        documentWriter, queue, mock(ElasticsearchQueryHelper.class), mock(DocumentCache.class),
+        new CatalogGeneration(0), mock(LatestSnapshotStore.class), new DocumentLocks(16),
+        mock(ChangesetOutbox.class), mock(DocumentHistory.class), mapper, registry,
+        mock(OpenSearchClient.class));
+    return MockMvcBuilders.standaloneSetup(controller).setControllerAdvice(new ChangesetAdvice())
+        .build();
+  }
+
+  private ObjectNode document(String id, String name) {
+    return mapper.createObjectNode().put("id", id).put("name", name);
+  }
+}
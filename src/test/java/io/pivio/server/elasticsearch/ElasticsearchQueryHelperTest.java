@@ -0,0 +1,190 @@
+package io.pivio.server.elasticsearch;
+
+import static io.pivio.server.SearchResponses.hit;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.within;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.function.Function;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.opensearch.client.opensearch.OpenSearchClient;
+import org.opensearch.client.opensearch._types.query_dsl.Query;
+import org.opensearch.client.opensearch.core.GetRequest;
+import org.opensearch.client.opensearch.core.GetResponse;
+import org.opensearch.client.opensearch.core.MgetRequest;
+import org.opensearch.client.opensearch.core.MgetResponse;
+import org.opensearch.client.opensearch.core.SearchRequest;
+import org.opensearch.client.opensearch.core.mget.MultiGetResponseItem;
+import org.opensearch.client.opensearch.core.pit.DeletePitRequest;
+import org.opensearch.client.opensearch.core.search.Hit;
+import org.springframework.test.util.ReflectionTestUtils;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.pivio.server.SearchResponses;
+import io.pivio.server.changeset.ChangesetOutbox;
+
+public class ElasticsearchQueryHelperTest {
+
+  private final OpenSearchClient client = mock(OpenSearchClient.class);
+  private final ChangesetOutbox changesetOutbox = mock(ChangesetOutbox.class);
+  private final ElasticsearchQueryHelper queryHelper = new ElasticsearchQueryHelper();
+  private final List<SearchRequest> requests = new ArrayList<>();
+  private final ObjectMapper mapper = new ObjectMapper();
+
+  @Before
+  public void setUp() throws Exception {
+    ReflectionTestUtils.setField(queryHelper, "client", client);
+    ReflectionTestUtils.setField(queryHelper, "changesetOutbox", changesetOutbox);
+    ReflectionTestUtils.setField(queryHelper, "changesetIndex", "changeset");
+    ReflectionTestUtils.setField(queryHelper, "pivioIndex", "steckbrief");
+    ReflectionTestUtils.setField(queryHelper, "mapper", mapper);
+    ReflectionTestUtils.setField(queryHelper, "cursorLagMillis", 10_000L);
+    when(client.search(any(Function.class), eq(JsonNode.class))).thenAnswer(invocation -> {
+      requests.add(SearchResponses.build(invocation.getArgument(0)));
+      return SearchResponses.of();
+    });
+  }
+
+  @Test
+  public void pagesEndBeforeTheCursorLag() throws Exception {
+    queryHelper.retrieveChangesetPage(Query.of(query -> query.matchAll(all -> all)), 10,
+        List.of("1000", "1", "a-1"));
+
+    SearchRequest request = requests.getFirst();
+    List<Query> filters = request.query().bool().filter();
+    assertThat(filters.get(0).isMatchAll()).isTrue();
+    assertThat(filters.get(1).range().field()).isEqualTo("timestamp");
+    assertThat(filters.get(1).range().lte().to(Long.class))
+        .isCloseTo(System.currentTimeMillis() - 10_000L, within(5_000L));
+    assertThat(request.searchAfter()).containsExactly("1000", "1", "a-1");
+  }
+
+  @Test
+  public void pagesEndBeforeTheOldestPendingOutboxRecord() throws Exception {
+    when(changesetOutbox.isEnabled()).thenReturn(true);
+    when(changesetOutbox.oldestPending()).thenReturn(Optional.of(5000L));
+
+    assertThat(queryHelper.settledUntil()).isEqualTo(4999L);
+  }
+
+  @Test
+  public void emptyOutboxDoesNotHoldPagesBack() throws Exception {
+    when(changesetOutbox.isEnabled()).thenReturn(true);
+    when(changesetOutbox.oldestPending()).thenReturn(Optional.empty());
+
+    assertThat(queryHelper.settledUntil())
+        .isCloseTo(System.currentTimeMillis() - 10_000L, within(5_000L));
+  }
+
+  @Test
+  public void checksPresenceWithARealtimeGetWithoutSource() throws Exception {
+    when(client.get(any(Function.class), eq(JsonNode.class))).thenAnswer(invocation -> {
+      GetRequest request =
+          SearchResponses.build(invocation.getArgument(0), new GetRequest.Builder());
+      assertThat(request.index()).isEqualTo("steckbrief");
+      assertThat(request.realtime()).isTrue();
+      assertThat(request.source().fetch()).isFalse();
+      return GetResponse.of(response -> response.index("steckbrief").id(request.id())
+          .found("a".equals(request.id())));
+    });
+
+    assertThat(queryHelper.isDocumentPresent("a")).isTrue();
+    assertThat(queryHelper.isDocumentPresent("b")).isFalse();
+  }
+
+  @Test
+  public void leavesMissingDocumentsOutOfAMultiGet() throws Exception {
+    when(client.mget(any(Function.class), eq(JsonNode.class))).thenAnswer(invocation -> {
+      MgetRequest request =
+          SearchResponses.build(invocation.getArgument(0), new MgetRequest.Builder());
+      assertThat(request.ids()).containsExactly("b", "missing", "a");
+      assertThat(request.realtime()).isTrue();
+      return new MgetResponse.Builder<JsonNode>().docs(found("b"), missing(), found("a")).build();
+    });
+
+    assertThat(queryHelper.retrieveDocuments(List.of("b", "missing", "a")))
+        .extracting(document -> document.get("id").asText()).containsExactly("b", "a");
+  }
+
+  @Test
+  public void streamsChangesetsPageByPageWithinOnePointInTime() throws Exception {
+    when(client.createPit(any(Function.class))).thenReturn(SearchResponses.pit("pit"));
+    when(client.search(any(Function.class), eq(JsonNode.class))).thenAnswer(invocation -> {
+      SearchRequest request = SearchResponses.build(invocation.getArgument(0));
+      requests.add(request);
+      return switch (requests.size()) {
+        case 1 -> SearchResponses.of("pit-2", changeset("a", "2000", "1", "a-2"),
+            changeset("b", "1000", "1", "b-1"));
+        case 2 -> SearchResponses.of(changeset("a", "500", "1", "a-1"));
+        default -> SearchResponses.of("pit-3");
+      };
+    });
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+    queryHelper.streamAllChangesets(Query.of(query -> query.matchAll(all -> all)), out);
+
+    assertThat(out.toString(StandardCharsets.UTF_8).split("\n")).containsExactly(
+        "{\"document\":\"a\"}", "{\"document\":\"b\"}", "{\"document\":\"a\"}");
+    assertThat(out.toString(StandardCharsets.UTF_8)).endsWith("\n");
+    assertThat(requests).hasSize(3);
+    assertThat(requests).extracting(request -> request.pit().id())
+        .containsExactly("pit", "pit-2", "pit-2");
+    assertThat(requests).extracting(request -> request.pit().keepAlive())
+        .containsOnly("1m");
+    assertThat(requests.get(0).index()).isEmpty();
+    assertThat(requests.get(0).searchAfter()).isEmpty();
+    assertThat(requests.get(1).searchAfter()).containsExactly("1000", "1", "b-1");
+    assertThat(requests.get(2).searchAfter()).containsExactly("500", "1", "a-1");
+    assertThat(deletedPit().pitId()).containsExactly("pit-3");
+  }
+
+  @Test
+  public void releasesThePitWhenStreamingFails() throws Exception {
+    when(client.createPit(any(Function.class))).thenReturn(SearchResponses.pit("pit"));
+    when(client.search(any(Function.class), eq(JsonNode.class)))
+        .thenReturn(SearchResponses.of(changeset("a", "2000", "1", "a-2")));
+    ByteArrayOutputStream out = new ByteArrayOutputStream() {
+      @Override
+      public void flush() throws IOException {
+        throw new IOException("client went away");
+      }
+    };
+
+    assertThatThrownBy(() -> queryHelper
+        .streamAllChangesets(Query.of(query -> query.matchAll(all -> all)), out))
+        .hasMessage("client went away");
+    assertThat(deletedPit().pitId()).containsExactly("pit");
+  }
+
+  private DeletePitRequest deletedPit() throws Exception {
+    ArgumentCaptor<Function> deletePit = ArgumentCaptor.forClass(Function.class);
+    verify(client).deletePit(deletePit.capture());
+    return SearchResponses.build(deletePit.getValue(), new DeletePitRequest.Builder());
+  }
+
+  private Hit<JsonNode> changeset(String document, String... sort) {
+    return hit(document, mapper.createObjectNode().put("document", document), sort);
+  }
+
+  private MultiGetResponseItem<JsonNode> found(String id) {
+    return MultiGetResponseItem.of(item -> item.result(result -> result.index("steckbrief")
+        .id(id).found(true).source(mapper.createObjectNode().put("id", id))));
+  }
+
+  private MultiGetResponseItem<JsonNode> missing() {
+    return MultiGetResponseItem
+        .of(item -> item.result(result -> result.index("steckbrief").id("missing").found(false)));
+  }
+}
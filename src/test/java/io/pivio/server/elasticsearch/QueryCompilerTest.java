@@ -0,0 +1,103 @@
+package io.pivio.server.elasticsearch;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import org.junit.Test;
+import org.opensearch.client.json.jackson.JacksonJsonpMapper;
+import org.opensearch.client.opensearch._types.query_dsl.Query;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+public class QueryCompilerTest {
+
+  private final QueryCompiler queryCompiler = new QueryCompiler(new JacksonJsonpMapper(),
+      new ObjectMapper(), new SimpleMeterRegistry(), 100, 5, 20);
+
+  @Test
+  public void compilesMatchQuery() {
+    Query query = queryCompiler.compile("{\"match\":{\"owner\":\"lambda\"}}");
+
+    assertThat(query.isMatch()).isTrue();
+    assertThat(query.match().field()).isEqualTo("owner");
+  }
+
+  @Test
+  public void missingQueryMatchesAll() {
+    assertThat(queryCompiler.compile(null).isMatchAll()).isTrue();
+    assertThat(queryCompiler.compile(" ").isMatchAll()).isTrue();
+  }
+
+  @Test
+  public void cachesCompiledQueries() {
+    String query = "{\"term\":{\"type\":\"service\"}}";
+
+    assertThat(queryCompiler.compile(query)).isSameAs(queryCompiler.compile(query));
+  }
+
+  @Test
+  public void rejectsMalformedQueries() {
+    assertThatThrownBy(() -> queryCompiler.compile("{\"match\":"))
+        .isInstanceOf(InvalidQueryException.class);
+    assertThatThrownBy(() -> queryCompiler.compile("{\"no_such_query\":{}}"))
+        .isInstanceOf(InvalidQueryException.class);
+    assertThatThrownBy(() -> queryCompiler.compile("{\"match\":{\"owner\":{}}}"))
+        .isInstanceOf(InvalidQueryException.class);
+  }
+
+  @Test
+  public void rejectsLeadingWildcards() {
+    assertThatThrownBy(() -> queryCompiler.compile("{\"wildcard\":{\"name\":\"*service\"}}"))
+        .isInstanceOf(InvalidQueryException.class);
+    assertThatThrownBy(
+        () -> queryCompiler.compile("{\"wildcard\":{\"name\":{\"value\":\"?ervice\"}}}"))
+            .isInstanceOf(InvalidQueryException.class);
+    assertThatThrownBy(
+        () -> queryCompiler.compile("{\"wildcard\":{\"name\":{\"wildcard\":\"*vice\"}}}"))
+            .isInstanceOf(InvalidQueryException.class);
+    assertThatThrownBy(
+        () -> queryCompiler.compile("{\"query_string\":{\"query\":\"owner:*mbda\"}}"))
+            .isInstanceOf(InvalidQueryException.class);
+    assertThat(queryCompiler.compile("{\"wildcard\":{\"name\":\"serv*\"}}").isWildcard())
+        .isTrue();
+  }
+
+  @Test
+  public void rejectsUnboundedRegexps() {
+    assertThatThrownBy(() -> queryCompiler.compile("{\"regexp\":{\"name\":\".*service\"}}"))
+        .isInstanceOf(InvalidQueryException.class);
+    assertThatThrownBy(() -> queryCompiler
+        .compile("{\"regexp\":{\"name\":{\"value\":\"service-with-a-very-long-name.*\"}}}"))
+            .isInstanceOf(InvalidQueryException.class);
+  }
+
+  @Test
+  public void acceptsOnlyRegexpsWithALiteralPrefix() {
+    assertThat(QueryCompiler.hasLiteralPrefix("(.*)x")).isFalse();
+    assertThat(QueryCompiler.hasLiteralPrefix("[a-z]*x")).isFalse();
+    assertThat(QueryCompiler.hasLiteralPrefix(".?.*x")).isFalse();
+    assertThat(QueryCompiler.hasLiteralPrefix("s*ervice")).isFalse();
+    assertThat(QueryCompiler.hasLiteralPrefix("s{0,2}ervice")).isFalse();
+    assertThat(QueryCompiler.hasLiteralPrefix("serv|.*x")).isFalse();
+    assertThat(QueryCompiler.hasLiteralPrefix("~s")).isFalse();
+    assertThat(QueryCompiler.hasLiteralPrefix("\\")).isFalse();
+    assertThat(QueryCompiler.hasLiteralPrefix("serv.*")).isTrue();
+    assertThat(QueryCompiler.hasLiteralPrefix("s+ervice")).isTrue();
+    assertThat(QueryCompiler.hasLiteralPrefix("serv(ice|er)")).isTrue();
+    assertThat(QueryCompiler.hasLiteralPrefix("s[|]x")).isTrue();
+    assertThat(QueryCompiler.hasLiteralPrefix("\\.conf.*")).isTrue();
+    assertThat(queryCompiler.compile("{\"regexp\":{\"name\":\"serv.*\"}}").isRegexp())
+        .isTrue();
+    assertThatThrownBy(() -> queryCompiler.compile("{\"regexp\":{\"name\":\"[a-z]*x\"}}"))
+        .isInstanceOf(InvalidQueryException.class)
+        .hasMessage("regexp [a-z]*x must start with a literal prefix");
+  }
+
+  @Test
+  public void rejectsDeeplyNestedQueries() {
+    String query = "{\"bool\":{\"must\":[{\"bool\":{\"must\":[{\"bool\":{\"must\":"
+        + "[{\"term\":{\"type\":\"service\"}}]}}]}}]}}";
+
+    assertThatThrownBy(() -> queryCompiler.compile(query))
+        .isInstanceOf(InvalidQueryException.class);
+  }
+}
@@ -0,0 +1,104 @@
+package io.pivio.server.elasticsearch;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpVersion;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.message.BasicRequestLine;
+import org.apache.http.message.BasicStatusLine;
+import org.junit.Before;
+import org.junit.Test;
+import org.opensearch.client.Request;
+import org.opensearch.client.Response;
+import org.opensearch.client.ResponseException;
+import org.opensearch.client.RestClient;
+import org.opensearch.client.json.jackson.JacksonJsonpMapper;
+import org.opensearch.client.opensearch.OpenSearchClient;
+import org.opensearch.client.transport.OpenSearchTransport;
+import org.opensearch.client.transport.rest_client.RestClientTransport;
+
+public class RawSourceReaderTest {
+
+  // deliberately not in the order or spacing the ObjectMapper would write
+  private static final byte[] SOURCE =
+      "{ \"name\":\"A\",  \"id\":\"a b/c\" }".getBytes(StandardCharsets.UTF_8);
+
+  private final RestClient restClient = mock(RestClient.class);
+  private final List<Request> requests = new ArrayList<>();
+  private RawSourceReader reader;
+
+  @Before
+  public void setUp() {
+    reader = new RawSourceReader(
+        new OpenSearchClient(new RestClientTransport(restClient, new JacksonJsonpMapper())));
+  }
+
+  @Test
+  public void passesTheStoredSourceThroughUnchanged() throws Exception {
+    Response response = response(200);
+    when(response.getEntity()).thenReturn(new ByteArrayEntity(SOURCE));
+    stubResponse(response);
+
+    assertThat(reader.read("steckbrief", "a b/c")).hasValueSatisfying(
+        source -> assertThat(source).isEqualTo(SOURCE));
+
+    Request request = requests.getFirst();
+    assertThat(request.getMethod()).isEqualTo("GET");
+    assertThat(request.getEndpoint()).isEqualTo("/steckbrief/_source/a%20b%2Fc");
+    assertThat(request.getParameters()).isEqualTo(Map.of("realtime", "true"));
+  }
+
+  @Test
+  public void answersEmptyForMissingDocuments() throws Exception {
+    stubFailure(response(404));
+
+    assertThat(reader.read("steckbrief", "missing")).isEmpty();
+  }
+
+  @Test
+  public void rethrowsOtherFailures() throws Exception {
+    stubFailure(response(503));
+
+    assertThatThrownBy(() -> reader.read("steckbrief", "a"))
+        .isInstanceOf(ResponseException.class);
+  }
+
+  @Test
+  public void needsTheRestClientTransport() {
+    OpenSearchClient client = mock(OpenSearchClient.class);
+    when(client._transport()).thenReturn(mock(OpenSearchTransport.class));
+
+    assertThatThrownBy(() -> new RawSourceReader(client))
+        .isInstanceOf(IllegalStateException.class);
+  }
+
+  private void stubResponse(Response response) throws Exception {
+    when(restClient.performRequest(any(Request.class))).thenAnswer(invocation -> {
+      requests.add(invocation.getArgument(0));
+      return response;
+    });
+  }
+
+  private void stubFailure(Response response) throws Exception {
+    ResponseException failure = new ResponseException(response);
+    when(restClient.performRequest(any(Request.class))).thenThrow(failure);
+  }
+
+  private Response response(int status) {
+    Response response = mock(Response.class);
+    when(response.getRequestLine())
+        .thenReturn(new BasicRequestLine("GET", "/steckbrief/_source/a", HttpVersion.HTTP_1_1));
+    when(response.getHost()).thenReturn(new HttpHost("localhost", 9200));
+    when(response.getStatusLine())
+        .thenReturn(new BasicStatusLine(HttpVersion.HTTP_1_1, status, "status " + status));
+    return response;
+  }
+}
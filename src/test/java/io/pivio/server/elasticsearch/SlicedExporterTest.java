@@ -0,0 +1,133 @@
+package io.pivio.server.elasticsearch;
+
+import static io.pivio.server.SearchResponses.hit;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Function;
+import java.util.stream.IntStream;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.opensearch.client.opensearch.OpenSearchClient;
+import org.opensearch.client.opensearch._types.query_dsl.Query;
+import org.opensearch.client.opensearch.core.SearchRequest;
+import org.opensearch.client.opensearch.core.SearchResponse;
+import org.opensearch.client.opensearch.core.search.Hit;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.pivio.server.SearchResponses;
+
+public class SlicedExporterTest {
+
+  private static final Query MATCH_ALL = Query.of(query -> query.matchAll(all -> all));
+
+  private final ObjectMapper mapper = new ObjectMapper();
+  private final OpenSearchClient client = mock(OpenSearchClient.class);
+  private final List<SearchRequest> requests = new CopyOnWriteArrayList<>();
+  private SlicedExporter exporter;
+
+  @Before
+  public void setUp() throws Exception {
+    when(client.createPit(any(Function.class))).thenReturn(SearchResponses.pit("pit"));
+  }
+
+  @After
+  public void tearDown() {
+    exporter.shutdown();
+  }
+
+  @Test
+  public void exportsEverySliceOfThePointInTime() throws Exception {
+    exporter = new SlicedExporter(client, mapper, 2, 2, 1 << 20, 1, 2);
+    stubSlicesOf(3);
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    long exported = exporter.export("steckbrief", MATCH_ALL, out);
+
+    assertThat(exported).isEqualTo(6);
+    assertThat(out.toString(StandardCharsets.UTF_8).lines())
+        .containsExactlyInAnyOrder("{\"id\":\"slice0-0\"}", "{\"id\":\"slice0-1\"}",
+            "{\"id\":\"slice0-2\"}", "{\"id\":\"slice1-0\"}", "{\"id\":\"slice1-1\"}",
+            "{\"id\":\"slice1-2\"}");
+    assertThat(requests).hasSize(4).allSatisfy(request -> {
+      assertThat(request.slice().max()).isEqualTo(2);
+      assertThat(request.pit().id()).isEqualTo("pit");
+      assertThat(request.pit().keepAlive()).isEqualTo("2m");
+    });
+    assertThat(requests).extracting(request -> request.slice().id())
+        .containsExactlyInAnyOrder(0, 0, 1, 1);
+    verify(client).deletePit(any(Function.class));
+  }
+
+  @Test
+  public void adaptsPageSizeToDocumentSize() throws Exception {
+    // every exported line is 18 bytes long, so two of them fill a page
+    exporter = new SlicedExporter(client, mapper, 1, 1, 36, 1, 4);
+    stubSlicesOf(7);
+
+    long exported = exporter.export("steckbrief", MATCH_ALL, new ByteArrayOutputStream());
+
+    assertThat(exported).isEqualTo(7);
+    assertThat(requests).extracting(SearchRequest::size).containsExactly(4, 2, 2);
+    assertThat(requests).allSatisfy(request -> assertThat(request.slice()).isNull());
+  }
+
+  @Test
+  public void releasesPointInTimeWhenSliceFails() throws Exception {
+    exporter = new SlicedExporter(client, mapper, 2, 2, 1 << 20, 1, 2);
+    when(client.search(any(Function.class), eq(JsonNode.class)))
+        .thenThrow(new IOException("connection reset"));
+
+    assertThatThrownBy(() -> exporter.export("steckbrief", MATCH_ALL, new ByteArrayOutputStream()))
+        .isInstanceOf(IOException.class).hasMessage("connection reset");
+    verify(client).deletePit(any(Function.class));
+  }
+
+  @Test
+  public void failsTheExportWhenASliceIsInterrupted() throws Exception {
+    exporter = new SlicedExporter(client, mapper, 1, 1, 1 << 20, 1, 2);
+    when(client.search(any(Function.class), eq(JsonNode.class))).thenAnswer(invocation -> {
+      Thread.currentThread().interrupt();
+      return page("slice0", 0, 2);
+    });
+
+    assertThatThrownBy(() -> exporter.export("steckbrief", MATCH_ALL, new ByteArrayOutputStream()))
+        .isInstanceOf(InterruptedIOException.class)
+        .hasMessage("slice 0 of the export was interrupted");
+    verify(client).deletePit(any(Function.class));
+  }
+
+  /**
+   * Answers every search with the next page of a slice of the given number of documents, sorted
+   * by their position within the slice.
+   */
+  private void stubSlicesOf(int documents) throws IOException {
+    when(client.search(any(Function.class), eq(JsonNode.class))).thenAnswer(invocation -> {
+      SearchRequest request = SearchResponses.build(invocation.getArgument(0));
+      requests.add(request);
+      String slice = "slice" + (request.slice() == null ? 0 : request.slice().id());
+      int from = request.searchAfter().isEmpty() ? 0
+          : Integer.parseInt(request.searchAfter().getFirst()) + 1;
+      return page(slice, from, Math.max(0, Math.min(request.size(), documents - from)));
+    });
+  }
+
+  private SearchResponse<JsonNode> page(String slice, int from, int size) {
+    List<Hit<JsonNode>> hits = IntStream.range(from, from + size)
+        .mapToObj(i -> hit(slice + "-" + i,
+            (JsonNode) mapper.createObjectNode().put("id", slice + "-" + i), String.valueOf(i)))
+        .toList();
+    return SearchResponses.of(hits.toArray(Hit[]::new));
+  }
+}
@@ -0,0 +1,97 @@
+package io.pivio.server.notification;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import com.sun.net.httpserver.HttpServer;
+
+public class WebhookClientTest {
+
+  private final WebhookClient webhookClient = new WebhookClient(2, 3, 10, 100, 5000);
+  private final List<String> received = new CopyOnWriteArrayList<>();
+  private final AtomicInteger attempts = new AtomicInteger();
+  private HttpServer server;
+  private volatile int[] statuses;
+
+  @Before
+  public void startStub() throws IOException {
+    server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+    server.createContext("/hook", exchange -> {
+      int attempt = attempts.getAndIncrement();
+      received.add(exchange.getRequestHeaders().getFirst(WebhookClient.SUBSCRIPTION_HEADER) + ":"
+          + new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8));
+      exchange.sendResponseHeaders(statuses[Math.min(attempt, statuses.length - 1)], -1);
+      exchange.close();
+    });
+    server.start();
+  }
+
+  @After
+  public void stopStub() {
+    server.stop(0);
+    webhookClient.shutdown();
+  }
+
+  @Test
+  public void deliversPayloadWithSubscriptionHeader() throws Exception {
+    statuses = new int[] {204};
+
+    assertThat(post()).isTrue();
+    assertThat(received).containsExactly("subscription:{\"changesets\":[]}");
+  }
+
+  @Test
+  public void retriesServerErrorsWithBackoff() throws Exception {
+    statuses = new int[] {503, 429, 200};
+
+    assertThat(post()).isTrue();
+    assertThat(attempts).hasValue(3);
+  }
+
+  @Test
+  public void givesUpAfterMaxAttempts() throws Exception {
+    statuses = new int[] {500};
+
+    assertThat(post()).isFalse();
+    assertThat(attempts).hasValue(3);
+  }
+
+  @Test
+  public void doesNotRetryClientErrors() throws Exception {
+    statuses = new int[] {404, 200};
+
+    assertThat(post()).isFalse();
+    assertThat(attempts).hasValue(1);
+  }
+
+  @Test
+  public void givesUpOnUnreachableWebhooks() throws Exception {
+    int closedPort;
+    try (ServerSocket socket = new ServerSocket(0)) {
+      closedPort = socket.getLocalPort();
+    }
+    URI unreachable = URI.create("http://localhost:" + closedPort + "/hook");
+
+    assertThat(webhookClient.post(unreachable, "subscription", new byte[0]).get(10,
+        TimeUnit.SECONDS)).isFalse();
+  }
+
+  private boolean post() throws Exception {
+    return webhookClient.post(hookUrl(), "subscription",
+        "{\"changesets\":[]}".getBytes(StandardCharsets.UTF_8)).get(10, TimeUnit.SECONDS);
+  }
+
+  private URI hookUrl() {
+    return URI.create("http://localhost:" + server.getAddress().getPort() + "/hook");
+  }
+}